@@ -0,0 +1,357 @@
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Minimal baseline JPEG encoder for synthetic test images.
+ *
+ * The encoder does not transform pixels: the quantized DCT coefficients
+ * of every block are generated directly (a DC gradient and a few random
+ * AC coefficients) and Huffman coded. This is enough to produce valid
+ * baseline JFIF images of any size with the properties under test:
+ * subsampling, quantization tables, standard or custom Huffman tables and
+ * restart intervals.
+ */
+public class BaselineJpegEncoder {
+    public static final int SUBSAMPLING_420 = 0;
+    public static final int SUBSAMPLING_422 = 1;
+    public static final int SUBSAMPLING_444 = 2;
+
+    private int width;
+    private int height;
+    private int hmax; // sampling factors of the luminance component
+    private int vmax;
+    private int quality;
+    private int restartInterval;
+
+    private byte[][] bits = new byte[4][]; // lum DC, lum AC, chm DC, chm AC
+    private byte[][] values = new byte[4][];
+    private int[][] codes = new int[4][256];
+    private int[][] sizes = new int[4][256];
+
+    /* output of the entropy coder */
+    private byte[] out;
+    private int length;
+    private long bitBuffer;
+    private int bitCount;
+
+
+    /**
+     * Create a BaselineJpegEncoder.
+     *
+     * @param width width of the images in pixels
+     * @param height height of the images in pixels
+     * @param subsampling SUBSAMPLING_420, SUBSAMPLING_422 or SUBSAMPLING_444
+     * @param quality quality for scaling the tables of Annex K (1..99)
+     * @param customHuffman true to use non-standard Huffman tables
+     * @param restartInterval MCUs per restart interval, 0 for none
+     */
+    public BaselineJpegEncoder(int width, int height, int subsampling, int quality,
+            boolean customHuffman, int restartInterval) {
+        this.width = width;
+        this.height = height;
+        this.hmax = subsampling == SUBSAMPLING_444 ? 1 : 2;
+        this.vmax = subsampling == SUBSAMPLING_420 ? 2 : 1;
+        this.quality = quality;
+        this.restartInterval = restartInterval;
+
+        if (customHuffman) {
+            // every DC symbol has 4 bits, every AC symbol 8 bits
+            byte[] dcBits = new byte[16];
+            dcBits[3] = 12;
+            byte[] dcValues = new byte[12];
+            for (int i = 0; i < 12; i++) {
+                dcValues[i] = (byte)i;
+            }
+            byte[] acBits = new byte[16];
+            acBits[7] = (byte)162;
+            byte[] acValues = new byte[162];
+            int n = 0;
+            acValues[n++] = 0x00; // EOB
+            acValues[n++] = (byte)0xF0; // ZRL
+            for (int run = 0; run < 16; run++) {
+                for (int size = 1; size <= 10; size++) {
+                    acValues[n++] = (byte)(run << 4 | size);
+                }
+            }
+            bits[0] = bits[2] = dcBits;
+            values[0] = values[2] = dcValues;
+            bits[1] = bits[3] = acBits;
+            values[1] = values[3] = acValues;
+        } else {
+            bits[0] = JpegRtpMetadata.LUM_DC_CODELENS;
+            values[0] = JpegRtpMetadata.LUM_DC_SYMBOLS;
+            bits[1] = JpegRtpMetadata.LUM_AC_CODELENS;
+            values[1] = JpegRtpMetadata.LUM_AC_SYMBOLS;
+            bits[2] = JpegRtpMetadata.CHM_DC_CODELENS;
+            values[2] = JpegRtpMetadata.CHM_DC_SYMBOLS;
+            bits[3] = JpegRtpMetadata.CHM_AC_CODELENS;
+            values[3] = JpegRtpMetadata.CHM_AC_SYMBOLS;
+        }
+        for (int t = 0; t < 4; t++) {
+            buildCodes(t);
+        }
+    }
+
+    /**
+     * Create the header of the images from SOI up to and including SOS.
+     *
+     * @param app1 complete APP1 segment (including marker) to insert, null for none
+     * @return header bytes
+     */
+    public byte[] header(byte[] app1) {
+        Output hdr = new Output();
+        hdr.marker(JpegMarkerParser.SOI);
+
+        hdr.marker(JpegMarkerParser.APP0);
+        hdr.short16(16);
+        hdr.bytes(new byte[] { 'J', 'F', 'I', 'F', 0, 1, 1, 0 });
+        hdr.short16(1);
+        hdr.short16(1);
+        hdr.byte8(0);
+        hdr.byte8(0);
+
+        if (app1 != null) {
+            hdr.bytes(app1);
+        }
+
+        byte[] tables = new byte[128];
+        Rfc2435Tables.makeTables(quality, tables);
+        hdr.marker(JpegMarkerParser.DQT);
+        hdr.short16(2 + 2 * 65);
+        hdr.byte8(0);
+        hdr.bytes(Arrays.copyOfRange(tables, 0, 64));
+        hdr.byte8(1);
+        hdr.bytes(Arrays.copyOfRange(tables, 64, 128));
+
+        hdr.marker(JpegMarkerParser.SOF0);
+        hdr.short16(17);
+        hdr.byte8(8);
+        hdr.short16(height);
+        hdr.short16(width);
+        hdr.byte8(3);
+        hdr.byte8(1);
+        hdr.byte8(hmax << 4 | vmax);
+        hdr.byte8(0);
+        hdr.byte8(2);
+        hdr.byte8(0x11);
+        hdr.byte8(1);
+        hdr.byte8(3);
+        hdr.byte8(0x11);
+        hdr.byte8(1);
+
+        int[] classAndId = { 0x00, 0x10, 0x01, 0x11 };
+        for (int t = 0; t < 4; t++) {
+            hdr.marker(JpegMarkerParser.DHT);
+            hdr.short16(3 + 16 + values[t].length);
+            hdr.byte8(classAndId[t]);
+            hdr.bytes(bits[t]);
+            hdr.bytes(values[t]);
+        }
+
+        if (restartInterval > 0) {
+            hdr.marker(0xDD); // DRI
+            hdr.short16(4);
+            hdr.short16(restartInterval);
+        }
+
+        hdr.marker(JpegMarkerParser.SOS);
+        hdr.short16(12);
+        hdr.byte8(3);
+        hdr.byte8(1);
+        hdr.byte8(0x00);
+        hdr.byte8(2);
+        hdr.byte8(0x11);
+        hdr.byte8(3);
+        hdr.byte8(0x11);
+        hdr.byte8(0);
+        hdr.byte8(63);
+        hdr.byte8(0);
+        return hdr.toByteArray();
+    }
+
+    /**
+     * Create the entropy-coded data of an image (without EOI marker).
+     *
+     * @param seed seed of the random AC coefficients, images with the
+     *             same seed are identical
+     * @return entropy-coded data
+     */
+    public byte[] encode(long seed) {
+        Random random = new Random(seed);
+        int mcuWidth = 8 * hmax;
+        int mcuHeight = 8 * vmax;
+        int mcusX = (width + mcuWidth - 1) / mcuWidth;
+        int mcusY = (height + mcuHeight - 1) / mcuHeight;
+        int mcus = mcusX * mcusY;
+
+        out = new byte[Math.max(1024, mcus * (hmax * vmax + 2) * 8)];
+        length = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        int[] predictors = new int[3];
+        int[] block = new int[64];
+        int restart = 0;
+
+        for (int mcu = 0; mcu < mcus; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                flushBits();
+                put(0xFF);
+                put(JpegMarkerParser.RST0 + (restart++ & 7));
+                Arrays.fill(predictors, 0);
+            }
+            int x = mcu % mcusX;
+            int y = mcu / mcusX;
+            for (int v = 0; v < vmax; v++) {
+                for (int h = 0; h < hmax; h++) {
+                    fillBlock(block, (x * hmax + h) + (y * vmax + v), random);
+                    predictors[0] = encodeBlock(block, predictors[0], 0);
+                }
+            }
+            for (int c = 1; c < 3; c++) {
+                fillBlock(block, x + y + c * 16, random);
+                predictors[c] = encodeBlock(block, predictors[c], 2);
+            }
+        }
+        flushBits();
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Generate the quantized coefficients of a block in zigzag order.
+     */
+    private static void fillBlock(int[] block, int position, Random random) {
+        Arrays.fill(block, 0);
+        block[0] = (position % 64) - 32 + random.nextInt(5) - 2;
+        int coefficients = random.nextInt(8);
+        int k = 0;
+        for (int i = 0; i < coefficients; i++) {
+            k += 1 + random.nextInt(4);
+            if (k > 63) {
+                break;
+            }
+            block[k] = random.nextInt(31) - 15;
+        }
+    }
+
+    /**
+     * Huffman code a block.
+     *
+     * @param table table index of the DC table, the AC table follows it
+     * @return DC value as predictor for the next block
+     */
+    private int encodeBlock(int[] block, int predictor, int table) {
+        int diff = block[0] - predictor;
+        int size = magnitude(diff);
+        putBits(codes[table][size], sizes[table][size]);
+        if (size > 0) {
+            putBits(diff < 0 ? diff - 1 : diff, size);
+        }
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            if (block[k] == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                putBits(codes[table+1][0xF0], sizes[table+1][0xF0]);
+                run -= 16;
+            }
+            size = magnitude(block[k]);
+            int symbol = run << 4 | size;
+            putBits(codes[table+1][symbol], sizes[table+1][symbol]);
+            putBits(block[k] < 0 ? block[k] - 1 : block[k], size);
+            run = 0;
+        }
+        if (run > 0) {
+            putBits(codes[table+1][0x00], sizes[table+1][0x00]); // EOB
+        }
+        return block[0];
+    }
+
+    private static int magnitude(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * Generate the codes of a Huffman table (ISO 10918-1 Annex C).
+     */
+    private void buildCodes(int table) {
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < (bits[table][length-1] & 0xFF); i++) {
+                int symbol = values[table][k++] & 0xFF;
+                codes[table][symbol] = code++;
+                sizes[table][symbol] = length;
+            }
+            code <<= 1;
+        }
+    }
+
+    private void putBits(int value, int count) {
+        bitBuffer = bitBuffer << count | (value & ((1L << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            int b = (int)(bitBuffer >> bitCount) & 0xFF;
+            put(b);
+            if (b == 0xFF) {
+                put(0x00); // byte stuffing
+            }
+        }
+    }
+
+    /**
+     * Pad the last byte with 1 bits.
+     */
+    private void flushBits() {
+        if (bitCount > 0) {
+            putBits(0x7F, 8 - bitCount);
+        }
+        bitBuffer = 0;
+    }
+
+    private void put(int b) {
+        if (length == out.length) {
+            out = Arrays.copyOf(out, out.length * 2);
+        }
+        out[length++] = (byte)b;
+    }
+
+    /**
+     * Growable output for the header.
+     */
+    private static class Output {
+        private byte[] data = new byte[1024];
+        private int length = 0;
+
+        void byte8(int b) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[length++] = (byte)b;
+        }
+
+        void short16(int s) {
+            byte8(s >> 8);
+            byte8(s);
+        }
+
+        void marker(int marker) {
+            byte8(0xFF);
+            byte8(marker);
+        }
+
+        void bytes(byte[] b) {
+            for (byte x : b) {
+                byte8(x);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+}
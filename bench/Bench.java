@@ -0,0 +1,124 @@
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Minimal benchmark harness for the benchmarks of this directory.
+ *
+ * Every benchmark is run for a number of warmup iterations followed by
+ * the measured iterations of a fixed duration. The result is reported as
+ * operations per second, bytes per second and allocated bytes per
+ * operation (measured per thread, comparable to the normalized allocation
+ * rate of a GC profiler). The results of the operations are consumed, so
+ * the JIT compiler cannot remove the measured code.
+ */
+public class Bench {
+    /** benchmarked operation, the result is consumed */
+    public interface Op {
+        long run() throws Exception;
+    }
+
+    private static volatile long sink;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private static int warmupIterations = Integer.getInteger("bench.warmup", 3);
+    private static int iterations = Integer.getInteger("bench.iterations", 5);
+    private static long iterationNanos = Long.getLong("bench.time", 500) * 1000000;
+    private static String filter = "";
+    private static boolean headerPrinted = false;
+    private static long batch = 1; // operations between two clock readings
+
+    private Bench() {
+    }
+
+    /**
+     * Select the benchmarks to run.
+     *
+     * @param args optional substring of the benchmark names to run
+     */
+    public static void setFilter(String[] args) {
+        filter = args.length > 0 ? args[0] : "";
+    }
+
+    /**
+     * @return true if a benchmark of the given name is selected
+     */
+    public static boolean selected(String name) {
+        return name.contains(filter);
+    }
+
+    /**
+     * Measure an operation and print the result.
+     *
+     * @param name name of the benchmark
+     * @param bytesPerOp number of processed bytes per operation, 0 if not applicable
+     * @param op operation to measure
+     */
+    public static void measure(String name, long bytesPerOp, Op op) {
+        if (!selected(name)) {
+            return;
+        }
+        if (!headerPrinted) {
+            System.out.println(String.format("%-48s %14s %8s %12s %12s", "Benchmark",
+                    "ops/s", "error", "MiB/s", "alloc B/op"));
+            headerPrinted = true;
+        }
+        try {
+            batch = 1;
+            for (int i = 0; i < warmupIterations; i++) {
+                long[] result = iteration(op);
+                // read the clock about every 10 microseconds
+                batch = Math.max(1, result[0] * 10000 / result[1]);
+            }
+            double[] rates = new double[iterations];
+            long allocated = 0;
+            long ops = 0;
+            for (int i = 0; i < iterations; i++) {
+                long thread = Thread.currentThread().getId();
+                long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+                long[] result = iteration(op);
+                allocated += THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+                ops += result[0];
+                rates[i] = result[0] * 1e9 / result[1];
+            }
+
+            double mean = 0;
+            for (double rate : rates) {
+                mean += rate;
+            }
+            mean /= rates.length;
+            double variance = 0;
+            for (double rate : rates) {
+                variance += (rate - mean) * (rate - mean);
+            }
+            double error = rates.length > 1 ? Math.sqrt(variance / (rates.length - 1)) : 0;
+            System.out.println(String.format("%-48s %14.1f %7.1f%% %12s %12.1f", name, mean,
+                    mean > 0 ? 100 * error / mean : 0,
+                    bytesPerOp > 0 ? String.format("%.1f", mean * bytesPerOp / (1 << 20)) : "-",
+                    (double)allocated / ops));
+        } catch (Exception e) {
+            System.out.println(name + ": " + e);
+        }
+    }
+
+    /**
+     * Run the operation for the duration of one iteration.
+     *
+     * @return {number of operations, elapsed nanoseconds}
+     */
+    private static long[] iteration(Op op) throws Exception {
+        long result = 0;
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        do {
+            for (long i = 0; i < batch; i++) {
+                result += op.run();
+            }
+            count += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += result;
+        return new long[] { count, elapsed };
+    }
+}
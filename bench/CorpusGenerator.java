@@ -0,0 +1,684 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Generates synthetic Motion JPEG files for load tests and as fixtures for
+ * the scanner and the container readers.
+ *
+ * The images are produced by BaselineJpegEncoder with the requested size,
+ * subsampling, quality, Huffman tables and restart interval, optionally
+ * with an EXIF thumbnail (a complete JPEG image inside the APP1 segment).
+ * A small number of distinct images is encoded once and written
+ * repeatedly, so files of many gigabytes are written at the speed of the
+ * disk. Images can be corrupted periodically by truncating them or by
+ * omitting the EOI marker.
+ *
+ * The container is selected by the extension of the output file:
+ * '.avi' writes an OpenDML AVI file (RIFF segments of 1 GiB with standard
+ * indexes, a super index and idx1), '.mov' a QuickTime file (64-bit mdat,
+ * co64 chunk offsets beyond 4 GiB), anything else concatenated images.
+ *
+ * Usage: java CorpusGenerator [options] file
+ */
+public class CorpusGenerator {
+    public static final String VERSION = "1.0";
+
+    private static final long SEGMENT_SIZE = 1L << 30; // maximum size of an AVI RIFF segment
+    private static final int SUPER_INDEX_ENTRIES = 256;
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int THUMBNAIL_HEIGHT = 120;
+
+    private int width = 1920;
+    private int height = 1080;
+    private int frameRate = 25;
+    private int truncateEvery = 0;
+    private int missingEoiEvery = 0;
+    private ByteBuffer[] images; // complete images, written repeatedly
+    private int headerLength;
+    private int maxImageSize = 0;
+
+    private FileChannel out;
+    private long position = 0;
+    private FrameIndex written = new FrameIndex(); // offset and length of every image
+
+
+    /**
+     * Create a CorpusGenerator and encode the images.
+     *
+     * @param encoder encoder for the images
+     * @param variants number of distinct images
+     * @param exif true to add an EXIF thumbnail to the images
+     * @param width width of the images
+     * @param height height of the images
+     */
+    public CorpusGenerator(BaselineJpegEncoder encoder, int variants, boolean exif, int width, int height) {
+        this.width = width;
+        this.height = height;
+        byte[] header = encoder.header(exif ? exifSegment() : null);
+        headerLength = header.length;
+        images = new ByteBuffer[variants];
+        for (int i = 0; i < variants; i++) {
+            byte[] data = encoder.encode(i);
+            ByteBuffer image = ByteBuffer.allocateDirect(header.length + data.length + 2);
+            image.put(header);
+            image.put(data);
+            image.put(VideoFileBuffer.JPEG_MARKER);
+            image.put(VideoFileBuffer.JPEG_EOI);
+            image.flip();
+            images[i] = image;
+            maxImageSize = Math.max(maxImageSize, image.limit());
+        }
+    }
+
+    /**
+     * Corrupt images periodically.
+     *
+     * @param truncateEvery truncate every Nth image to half of its entropy-coded data, 0 for none
+     * @param missingEoiEvery omit the EOI marker of every Nth image, 0 for none
+     */
+    public void setCorruption(int truncateEvery, int missingEoiEvery) {
+        this.truncateEvery = truncateEvery;
+        this.missingEoiEvery = missingEoiEvery;
+    }
+
+    public void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * @return average size of the images in bytes
+     */
+    public long averageImageSize() {
+        long size = 0;
+        for (ByteBuffer image : images) {
+            size += image.limit();
+        }
+        return size / images.length;
+    }
+
+    /**
+     * Write the file.
+     *
+     * @param filename output file, the extension selects the container
+     * @param frames number of images
+     * @return true on success
+     */
+    public boolean write(String filename, long frames) {
+        String name = filename.toLowerCase();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out = channel;
+            position = 0;
+            if (name.endsWith(".avi")) {
+                if (frames > (long)(SUPER_INDEX_ENTRIES - 1) * (SEGMENT_SIZE / (maxImageSize + 24))) {
+                    System.out.println("Error: too many images for an AVI file");
+                    return false;
+                }
+                writeAvi(frames);
+            } else if (name.endsWith(".mov")) {
+                if (frames > Integer.MAX_VALUE / 8) {
+                    System.out.println("Error: too many images for a QuickTime file");
+                    return false;
+                }
+                writeMov(frames);
+            } else {
+                for (long i = 0; i < frames; i++) {
+                    writeFully(image(i));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get an image, corrupted if requested.
+     *
+     * @param frame number of the image, from 0
+     */
+    private ByteBuffer image(long frame) {
+        ByteBuffer image = images[(int)(frame % images.length)].duplicate();
+        if (truncateEvery > 0 && (frame + 1) % truncateEvery == 0) {
+            image.limit(headerLength + (image.limit() - headerLength - 2) / 2);
+        } else if (missingEoiEvery > 0 && (frame + 1) % missingEoiEvery == 0) {
+            image.limit(image.limit() - 2);
+        }
+        return image;
+    }
+
+    /**
+     * Write an OpenDML AVI file. Every RIFF segment contains a movi list
+     * with the images and their standard index (ix00), the first segment
+     * also the idx1 index. The super index in the stream header refers to
+     * the standard indexes of all segments.
+     */
+    private void writeAvi(long frames) throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+        int riff = beginChunk(hdr, "RIFF");
+        fourcc(hdr, "AVI ");
+        int hdrl = beginChunk(hdr, "LIST");
+        fourcc(hdr, "hdrl");
+
+        int avih = beginChunk(hdr, "avih");
+        hdr.putInt(1000000 / frameRate);
+        hdr.putInt(maxImageSize * frameRate);
+        hdr.putInt(0);
+        hdr.putInt(0x10); // AVIF_HASINDEX
+        int avihFrames = hdr.position();
+        hdr.putInt(0);
+        hdr.putInt(0);
+        hdr.putInt(1);
+        hdr.putInt(maxImageSize);
+        hdr.putInt(width);
+        hdr.putInt(height);
+        hdr.put(new byte[16]);
+        endChunk(hdr, avih);
+
+        int strl = beginChunk(hdr, "LIST");
+        fourcc(hdr, "strl");
+        int strh = beginChunk(hdr, "strh");
+        fourcc(hdr, "vids");
+        fourcc(hdr, "MJPG");
+        hdr.putInt(0);
+        hdr.putInt(0);
+        hdr.putInt(0);
+        hdr.putInt(1);
+        hdr.putInt(frameRate);
+        hdr.putInt(0);
+        int strhLength = hdr.position();
+        hdr.putInt(0);
+        hdr.putInt(maxImageSize);
+        hdr.putInt(-1);
+        hdr.putInt(0);
+        hdr.putShort((short)0);
+        hdr.putShort((short)0);
+        hdr.putShort((short)width);
+        hdr.putShort((short)height);
+        endChunk(hdr, strh);
+
+        int strf = beginChunk(hdr, "strf");
+        hdr.putInt(40);
+        hdr.putInt(width);
+        hdr.putInt(height);
+        hdr.putShort((short)1);
+        hdr.putShort((short)24);
+        fourcc(hdr, "MJPG");
+        hdr.putInt(width * height * 3);
+        hdr.put(new byte[16]);
+        endChunk(hdr, strf);
+
+        int indx = beginChunk(hdr, "indx");
+        hdr.putShort((short)4);
+        hdr.put((byte)0);
+        hdr.put((byte)0); // AVI_INDEX_OF_INDEXES
+        int indxEntries = hdr.position();
+        hdr.putInt(0);
+        fourcc(hdr, "00dc");
+        hdr.put(new byte[12]);
+        hdr.put(new byte[16 * SUPER_INDEX_ENTRIES]);
+        endChunk(hdr, indx);
+        endChunk(hdr, strl);
+
+        int odml = beginChunk(hdr, "LIST");
+        fourcc(hdr, "odml");
+        int dmlh = beginChunk(hdr, "dmlh");
+        int dmlhFrames = hdr.position();
+        hdr.put(new byte[248]);
+        endChunk(hdr, dmlh);
+        endChunk(hdr, odml);
+        endChunk(hdr, hdrl);
+
+        hdr.flip();
+        writeFully(hdr);
+
+        ByteBuffer superIndex = ByteBuffer.allocate(16 * SUPER_INDEX_ENTRIES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer padding = ByteBuffer.allocate(1);
+        long riffStart = 0;
+        long firstSegmentFrames = 0;
+        long frame = 0;
+        int segments = 0;
+        while (frame < frames) {
+            if (segments > 0) {
+                riffStart = position;
+                ByteBuffer avix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+                riff = beginChunk(avix, "RIFF");
+                fourcc(avix, "AVIX");
+                avix.flip();
+                writeFully(avix);
+            }
+            long movi = position;
+            ByteBuffer list = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            beginChunk(list, "LIST");
+            fourcc(list, "movi");
+            list.flip();
+            writeFully(list);
+
+            int first = written.size();
+            while (frame < frames) {
+                ByteBuffer image = image(frame);
+                int size = image.remaining();
+                int segmentEntries = written.size() - first + 1;
+                // images, standard index and (in the first segment) idx1 must fit into the segment
+                if (segmentEntries > 1 && position + 8 + size + 32 + segmentEntries * (segments == 0 ? 24 : 8)
+                        > riffStart + SEGMENT_SIZE) {
+                    break;
+                }
+                chunkHeader.clear();
+                fourcc(chunkHeader, "00dc");
+                chunkHeader.putInt(size);
+                chunkHeader.flip();
+                writeFully(chunkHeader);
+                written.add(position, size, 0);
+                writeFully(image);
+                if ((size & 1) != 0) {
+                    padding.clear();
+                    writeFully(padding);
+                }
+                frame++;
+            }
+            int count = written.size() - first;
+
+            /* standard index of the segment */
+            long ix = position;
+            ByteBuffer index = ByteBuffer.allocate(32 + 8 * count).order(ByteOrder.LITTLE_ENDIAN);
+            int ix00 = beginChunk(index, "ix00");
+            index.putShort((short)2);
+            index.put((byte)0);
+            index.put((byte)1); // AVI_INDEX_OF_CHUNKS
+            index.putInt(count);
+            fourcc(index, "00dc");
+            index.putLong(movi);
+            index.putInt(0);
+            for (int i = first; i < first + count; i++) {
+                index.putInt((int)(written.offset(i) - movi));
+                index.putInt(written.length(i));
+            }
+            endChunk(index, ix00);
+            index.flip();
+            writeFully(index);
+            patchInt(movi + 4, (int)(position - movi - 8));
+
+            superIndex.putLong(ix);
+            superIndex.putInt((int)(position - ix));
+            superIndex.putInt(count);
+
+            if (segments == 0) {
+                firstSegmentFrames = count;
+                ByteBuffer idx1 = ByteBuffer.allocate(8 + 16 * count).order(ByteOrder.LITTLE_ENDIAN);
+                int chunk = beginChunk(idx1, "idx1");
+                for (int i = 0; i < count; i++) {
+                    fourcc(idx1, "00dc");
+                    idx1.putInt(0x10); // AVIIF_KEYFRAME
+                    idx1.putInt((int)(written.offset(i) - 8 - (movi + 8)));
+                    idx1.putInt(written.length(i));
+                }
+                endChunk(idx1, chunk);
+                idx1.flip();
+                writeFully(idx1);
+            }
+            patchInt(riffStart + 4, (int)(position - riffStart - 8));
+            segments++;
+        }
+
+        patchInt(avihFrames, (int)firstSegmentFrames);
+        patchInt(strhLength, (int)frames);
+        patchInt(dmlhFrames, (int)frames);
+        patchInt(indxEntries, segments);
+        superIndex.flip();
+        out.write(superIndex, indxEntries + 20);
+    }
+
+    /**
+     * Write a QuickTime file with one video track, one image per chunk.
+     */
+    private void writeMov(long frames) throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(36);
+        int ftyp = beginChunk(hdr, "ftyp");
+        fourcc(hdr, "qt  ");
+        hdr.putInt(0x200);
+        fourcc(hdr, "qt  ");
+        endChunk(hdr, ftyp);
+        long mdat = hdr.position();
+        hdr.putInt(1); // 64-bit size follows
+        fourcc(hdr, "mdat");
+        hdr.putLong(0);
+        hdr.flip();
+        writeFully(hdr);
+
+        for (long i = 0; i < frames; i++) {
+            ByteBuffer image = image(i);
+            written.add(position, image.remaining(), 0);
+            writeFully(image);
+        }
+        ByteBuffer size = ByteBuffer.allocate(8);
+        size.putLong(position - mdat);
+        size.flip();
+        out.write(size, mdat + 8);
+
+        int n = written.size();
+        boolean co64 = position > 0xFFFFFFFFL;
+        ByteBuffer moov = ByteBuffer.allocate(1024 + n * (co64 ? 12 : 8));
+        int[] matrix = { 0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000 };
+        int duration = (int)(frames * 1000 / frameRate);
+        int atom = beginChunk(moov, "moov");
+
+        int mvhd = beginChunk(moov, "mvhd");
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(1000);
+        moov.putInt(duration);
+        moov.putInt(0x10000);
+        moov.putShort((short)0x100);
+        moov.put(new byte[10]);
+        for (int m : matrix) {
+            moov.putInt(m);
+        }
+        moov.put(new byte[24]);
+        moov.putInt(2);
+        endChunk(moov, mvhd);
+
+        int trak = beginChunk(moov, "trak");
+        int tkhd = beginChunk(moov, "tkhd");
+        moov.putInt(0xF);
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(1);
+        moov.putInt(0);
+        moov.putInt(duration);
+        moov.put(new byte[16]);
+        for (int m : matrix) {
+            moov.putInt(m);
+        }
+        moov.putInt(width << 16);
+        moov.putInt(height << 16);
+        endChunk(moov, tkhd);
+
+        int mdia = beginChunk(moov, "mdia");
+        int mdhd = beginChunk(moov, "mdhd");
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(frameRate);
+        moov.putInt((int)frames);
+        moov.putShort((short)0);
+        moov.putShort((short)0);
+        endChunk(moov, mdhd);
+        int hdlr = beginChunk(moov, "hdlr");
+        moov.putInt(0);
+        fourcc(moov, "mhlr");
+        fourcc(moov, "vide");
+        moov.put(new byte[12]);
+        moov.put((byte)0);
+        endChunk(moov, hdlr);
+
+        int minf = beginChunk(moov, "minf");
+        int vmhd = beginChunk(moov, "vmhd");
+        moov.putInt(1);
+        moov.put(new byte[8]);
+        endChunk(moov, vmhd);
+        int dinf = beginChunk(moov, "dinf");
+        int dref = beginChunk(moov, "dref");
+        moov.putInt(0);
+        moov.putInt(1);
+        int alis = beginChunk(moov, "alis");
+        moov.putInt(1); // data in the same file
+        endChunk(moov, alis);
+        endChunk(moov, dref);
+        endChunk(moov, dinf);
+
+        int stbl = beginChunk(moov, "stbl");
+        int stsd = beginChunk(moov, "stsd");
+        moov.putInt(0);
+        moov.putInt(1);
+        int jpeg = beginChunk(moov, "jpeg");
+        moov.put(new byte[6]);
+        moov.putShort((short)1);
+        moov.putShort((short)0);
+        moov.putShort((short)0);
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(512);
+        moov.putShort((short)width);
+        moov.putShort((short)height);
+        moov.putInt(72 << 16);
+        moov.putInt(72 << 16);
+        moov.putInt(0);
+        moov.putShort((short)1);
+        byte[] compressor = new byte[32];
+        byte[] compressorName = "Photo - JPEG".getBytes();
+        compressor[0] = (byte)compressorName.length;
+        System.arraycopy(compressorName, 0, compressor, 1, compressorName.length);
+        moov.put(compressor);
+        moov.putShort((short)24);
+        moov.putShort((short)-1);
+        endChunk(moov, jpeg);
+        endChunk(moov, stsd);
+
+        int stts = beginChunk(moov, "stts");
+        moov.putInt(0);
+        moov.putInt(1);
+        moov.putInt(n);
+        moov.putInt(1);
+        endChunk(moov, stts);
+        int stsc = beginChunk(moov, "stsc");
+        moov.putInt(0);
+        moov.putInt(1);
+        moov.putInt(1);
+        moov.putInt(1);
+        moov.putInt(1);
+        endChunk(moov, stsc);
+        int stsz = beginChunk(moov, "stsz");
+        moov.putInt(0);
+        moov.putInt(0);
+        moov.putInt(n);
+        for (int i = 0; i < n; i++) {
+            moov.putInt(written.length(i));
+        }
+        endChunk(moov, stsz);
+        int stco = beginChunk(moov, co64 ? "co64" : "stco");
+        moov.putInt(0);
+        moov.putInt(n);
+        for (int i = 0; i < n; i++) {
+            if (co64) {
+                moov.putLong(written.offset(i));
+            } else {
+                moov.putInt((int)written.offset(i));
+            }
+        }
+        endChunk(moov, stco);
+
+        endChunk(moov, stbl);
+        endChunk(moov, minf);
+        endChunk(moov, mdia);
+        endChunk(moov, trak);
+        endChunk(moov, atom);
+        moov.flip();
+        writeFully(moov);
+    }
+
+    /**
+     * Create an APP1 segment with EXIF data consisting of a thumbnail:
+     * an empty IFD0 and IFD1 with the offset and length of the JPEG
+     * thumbnail following it.
+     */
+    private byte[] exifSegment() {
+        BaselineJpegEncoder encoder = new BaselineJpegEncoder(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT,
+                BaselineJpegEncoder.SUBSAMPLING_420, 50, false, 0);
+        byte[] header = encoder.header(null);
+        byte[] data = encoder.encode(0);
+        int tiffLength = 44;
+        int thumbnailLength = header.length + data.length + 2;
+
+        ByteBuffer app1 = ByteBuffer.allocate(4 + 6 + tiffLength + thumbnailLength);
+        app1.put(VideoFileBuffer.JPEG_MARKER);
+        app1.put((byte)0xE1);
+        app1.putShort((short)(app1.capacity() - 2));
+        app1.put(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+        ByteBuffer tiff = app1.slice().order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put(new byte[] { 'I', 'I' });
+        tiff.putShort((short)42);
+        tiff.putInt(8); // IFD0
+        tiff.putShort((short)0);
+        tiff.putInt(14); // IFD1
+        tiff.putShort((short)2);
+        tiff.putShort((short)0x0201); // JPEGInterchangeFormat
+        tiff.putShort((short)4);
+        tiff.putInt(1);
+        tiff.putInt(tiffLength);
+        tiff.putShort((short)0x0202); // JPEGInterchangeFormatLength
+        tiff.putShort((short)4);
+        tiff.putInt(1);
+        tiff.putInt(thumbnailLength);
+        tiff.putInt(0);
+        tiff.put(header);
+        tiff.put(data);
+        tiff.put(VideoFileBuffer.JPEG_MARKER);
+        tiff.put(VideoFileBuffer.JPEG_EOI);
+        return app1.array();
+    }
+
+    private static void fourcc(ByteBuffer buf, String id) {
+        for (int i = 0; i < 4; i++) {
+            buf.put((byte)id.charAt(i));
+        }
+    }
+
+    /**
+     * Begin a chunk or atom, for RIFF the identifier precedes the size,
+     * for QuickTime (big endian) it follows the size.
+     *
+     * @return index of the size field
+     */
+    private static int beginChunk(ByteBuffer buf, String id) {
+        int start = buf.position();
+        if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+            fourcc(buf, id);
+            start += 4;
+            buf.putInt(0);
+        } else {
+            buf.putInt(0);
+            fourcc(buf, id);
+        }
+        return start;
+    }
+
+    private static void endChunk(ByteBuffer buf, int start) {
+        if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+            buf.putInt(start, buf.position() - start - 4);
+        } else {
+            buf.putInt(start, buf.position() - start);
+        }
+    }
+
+    private void patchInt(long offset, int value) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(value);
+        buf.flip();
+        out.write(buf, offset);
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            position += out.write(buf);
+        }
+    }
+
+    /**
+     * Parse a size with an optional suffix K, M or G.
+     */
+    private static long parseSize(String s) {
+        long factor = 1;
+        char suffix = Character.toUpperCase(s.charAt(s.length() - 1));
+        if (suffix == 'K' || suffix == 'M' || suffix == 'G') {
+            factor = suffix == 'K' ? 1L << 10 : suffix == 'M' ? 1L << 20 : 1L << 30;
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * factor;
+    }
+
+    public static void main(String[] args) {
+        ArgumentParser argparse = new ArgumentParser("CorpusGenerator", VERSION);
+        argparse.registerArgument("file");
+        argparse.registerValueOption("s", "size", "WxH", "image size (default 1920x1080)");
+        argparse.registerValueOption("n", "frames", "N", "number of images (default 100)");
+        argparse.registerValueOption("b", "bytes", "SIZE", "approximate file size instead of a number of images, e.g. 4G");
+        argparse.registerValueOption(null, "subsampling", "MODE", "chroma subsampling 420 (default), 422 or 444");
+        argparse.registerValueOption("q", "quality", "Q", "quality of the quantization tables 1..99 (default 75)");
+        argparse.registerOption(null, "custom-huffman", "use non-standard Huffman tables");
+        argparse.registerValueOption("r", "restart", "MCUS", "restart interval in MCUs (default 0 = none)");
+        argparse.registerOption("e", "exif", "add an EXIF segment with a JPEG thumbnail");
+        argparse.registerValueOption(null, "truncate-every", "N", "truncate every Nth image");
+        argparse.registerValueOption(null, "missing-eoi-every", "N", "omit the EOI marker of every Nth image");
+        argparse.registerValueOption(null, "variants", "N", "number of distinct images (default 8)");
+        argparse.registerValueOption(null, "fps", "N", "frame rate of AVI and QuickTime files (default 25)");
+        argparse.parse(args);
+
+        int width = 1920;
+        int height = 1080;
+        int subsampling = BaselineJpegEncoder.SUBSAMPLING_420;
+        try {
+            if (argparse.isSet("size")) {
+                String[] size = argparse.getString("size").split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            }
+            if (argparse.isSet("subsampling")) {
+                switch (argparse.getString("subsampling")) {
+                case "420":
+                    subsampling = BaselineJpegEncoder.SUBSAMPLING_420;
+                    break;
+                case "422":
+                    subsampling = BaselineJpegEncoder.SUBSAMPLING_422;
+                    break;
+                case "444":
+                    subsampling = BaselineJpegEncoder.SUBSAMPLING_444;
+                    break;
+                default:
+                    System.out.println("Error: unknown subsampling: " + argparse.getString("subsampling"));
+                    return;
+                }
+            }
+            int quality = argparse.isSet("quality") ? argparse.getInt("quality") : 75;
+            int restart = argparse.isSet("restart") ? argparse.getInt("restart") : 0;
+            int variants = argparse.isSet("variants") ? argparse.getInt("variants") : 8;
+            if (width < 1 || width > 65535 || height < 1 || height > 65535 || quality < 1 || quality > 99
+                    || restart < 0 || restart > 65535 || variants < 1) {
+                System.out.println("Error: invalid image parameters");
+                return;
+            }
+
+            BaselineJpegEncoder encoder = new BaselineJpegEncoder(width, height, subsampling, quality,
+                    argparse.getBoolean("custom-huffman"), restart);
+            CorpusGenerator generator = new CorpusGenerator(encoder, variants, argparse.getBoolean("exif"),
+                    width, height);
+            generator.setCorruption(argparse.isSet("truncate-every") ? argparse.getInt("truncate-every") : 0,
+                    argparse.isSet("missing-eoi-every") ? argparse.getInt("missing-eoi-every") : 0);
+            if (argparse.isSet("fps")) {
+                generator.setFrameRate(argparse.getInt("fps"));
+            }
+            long frames = argparse.isSet("frames") ? argparse.getLong("frames") : 100;
+            if (argparse.isSet("bytes")) {
+                frames = Math.max(1, parseSize(argparse.getString("bytes")) / generator.averageImageSize());
+            }
+
+            String file = argparse.getString("file");
+            long start = System.nanoTime();
+            if (generator.write(file, frames)) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(String.format("%s: %d images, %d bytes in %.1f s (%.1f MiB/s)", file,
+                        frames, generator.position, seconds, generator.position / seconds / (1 << 20)));
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Error: invalid number: " + e.getMessage());
+        }
+    }
+}
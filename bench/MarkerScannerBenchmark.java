@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+
+/**
+ * Compares the throughput of the scalar and the word-at-a-time marker search
+ * and byte stuffing check.
+ *
+ * The data resembles entropy-coded JPEG data: random bytes with every
+ * 0xFF byte stuffed with 0x00. A second data set contains runs of 0xFF
+ * bytes to show the worst case of the word-at-a-time search.
+ */
+public class MarkerScannerBenchmark {
+    private static final int SIZE = 16 << 20;
+
+    public static void main(String[] args) {
+        Bench.setFilter(args);
+        Random random = new Random(2435);
+        byte[] entropy = new byte[SIZE];
+        random.nextBytes(entropy);
+        for (int i = 0; i < SIZE - 1; i++) {
+            if (entropy[i] == VideoFileBuffer.JPEG_MARKER) {
+                entropy[++i] = 0x00; // byte stuffing
+            }
+        }
+        entropy[SIZE-2] = VideoFileBuffer.JPEG_MARKER;
+        entropy[SIZE-1] = VideoFileBuffer.JPEG_EOI;
+
+        byte[] runs = entropy.clone();
+        for (int i = 0; i < SIZE - 64; i += 64) {
+            for (int j = 0; j < 16; j++) {
+                runs[i+j] = VideoFileBuffer.JPEG_MARKER;
+            }
+            runs[i+16] = 0x00;
+        }
+
+        run("entropy", entropy);
+        run("ff-runs", runs);
+    }
+
+    private static void run(String name, byte[] data) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+
+        Bench.measure("marker/" + name + " scalar byte[]", data.length,
+                () -> MarkerScanner.findScalar(data, 0, data.length, VideoFileBuffer.JPEG_EOI));
+        Bench.measure("marker/" + name + " swar byte[]", data.length,
+                () -> MarkerScanner.find(data, 0, data.length, VideoFileBuffer.JPEG_EOI));
+        Bench.measure("marker/" + name + " scalar direct", data.length,
+                () -> MarkerScanner.findScalar(direct, 0, data.length, VideoFileBuffer.JPEG_EOI));
+        Bench.measure("marker/" + name + " swar direct", data.length,
+                () -> MarkerScanner.find(direct, 0, data.length, VideoFileBuffer.JPEG_EOI));
+
+        Bench.measure("stuffing/" + name + " scalar byte[]", data.length,
+                () -> ByteStuffingValidator.firstViolationScalar(data, 0, data.length));
+        Bench.measure("stuffing/" + name + " swar byte[]", data.length,
+                () -> ByteStuffingValidator.firstViolation(data, 0, data.length));
+        Bench.measure("stuffing/" + name + " scalar direct", data.length,
+                () -> ByteStuffingValidator.firstViolationScalar(direct, 0, data.length));
+        Bench.measure("stuffing/" + name + " swar direct", data.length,
+                () -> ByteStuffingValidator.firstViolation(direct, 0, data.length));
+    }
+}
@@ -0,0 +1,149 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Benchmarks the stages of the checker on synthetic images: scanning a
+ * file for images, extracting the metadata of an image (also with
+ * ImageIO, used by --cross-check), decoding the Huffman-coded data and
+ * comparing metadata.
+ *
+ * The images are encoded with ImageIO in three sizes (320x240, 1080p and
+ * 4K). A variant of every image has entropy-coded data consisting of runs
+ * of stuffed 0xFF bytes, the worst case for the marker search.
+ *
+ * Usage: java PipelineBenchmark [name filter]
+ */
+public class PipelineBenchmark {
+    private static final int FILE_SIZE = 64 << 20;
+
+    public static void main(String[] args) throws IOException {
+        Bench.setFilter(args);
+        int[][] sizes = { { 320, 240 }, { 1920, 1080 }, { 3840, 2160 } };
+        String[] names = { "small", "1080p", "4k" };
+
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] frame = encode(sizes[i][0], sizes[i][1]);
+            byte[] runs = withMarkerRuns(frame);
+            benchmarkScan("scan/" + names[i], frame);
+            benchmarkScan("scan/" + names[i] + "-ff-runs", runs);
+            benchmarkExtract("extract/" + names[i], frame);
+            benchmarkDecode("decode/" + names[i], frame);
+        }
+        benchmarkCompare("compare/", encode(320, 240));
+    }
+
+    /**
+     * Read a file of concatenated images with the buffered and the
+     * memory-mapped source.
+     */
+    private static void benchmarkScan(String name, byte[] frame) throws IOException {
+        if (!Bench.selected(name)) {
+            return;
+        }
+        File file = File.createTempFile("bench", ".mjpeg");
+        file.deleteOnExit();
+        int count = Math.max(8, FILE_SIZE / frame.length);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < count; i++) {
+                out.write(frame);
+            }
+        }
+        String path = file.getPath();
+        long size = file.length();
+
+        Bench.measure(name + " VideoFileBuffer", size, () -> {
+            VideoFileBuffer in = new VideoFileBuffer(path);
+            long frames = 0;
+            while (in.nextFrame() != null) {
+                frames++;
+            }
+            in.close();
+            return frames;
+        });
+        Bench.measure(name + " MappedFileBuffer", size, () -> {
+            MappedFileBuffer in = new MappedFileBuffer(path);
+            long frames = 0;
+            while (in.nextFrame() != null) {
+                frames++;
+            }
+            in.close();
+            return frames;
+        });
+        file.delete();
+    }
+
+    private static void benchmarkExtract(String name, byte[] frame) {
+        ByteBuffer data = ByteBuffer.wrap(frame);
+        HeaderCache cache = new HeaderCache(HeaderCache.DEFAULT_CAPACITY);
+        Bench.measure(name + " extractMetadata", frame.length,
+                () -> JpegMetadataExtractor.extractMetadata(data).numDHT);
+        Bench.measure(name + " extractMetadata cached", frame.length,
+                () -> JpegMetadataExtractor.extractMetadata(data, cache).numDHT);
+        Bench.measure(name + " extractMetadataImageIO", frame.length,
+                () -> JpegMetadataExtractor.extractMetadataImageIO(data).numDHT);
+    }
+
+    private static void benchmarkDecode(String name, byte[] frame) {
+        ByteBuffer data = ByteBuffer.wrap(frame);
+        Bench.measure(name + " HuffmanScanDecoder", frame.length,
+                () -> HuffmanScanDecoder.verify(data) == null ? 1 : 0);
+    }
+
+    private static void benchmarkCompare(String name, byte[] frame) {
+        JpegRtpMetadata a = JpegMetadataExtractor.extractMetadata(ByteBuffer.wrap(frame));
+        JpegRtpMetadata b = JpegMetadataExtractor.extractMetadata(ByteBuffer.wrap(frame.clone()));
+        Bench.measure(name + "isEqual fingerprint", 0, () -> a.isEqual(b) ? 1 : 0);
+
+        JpegRtpMetadata c = JpegMetadataExtractor.extractMetadata(ByteBuffer.wrap(frame));
+        JpegRtpMetadata d = JpegMetadataExtractor.extractMetadata(ByteBuffer.wrap(frame));
+        c.fingerprint = HeaderFingerprint.NONE;
+        d.fingerprint = HeaderFingerprint.NONE;
+        Bench.measure(name + "isEqual fields", 0, () -> c.isEqual(d) ? 1 : 0);
+    }
+
+    /**
+     * Encode a synthetic image: gradients with noise, so the size of the
+     * entropy-coded data is similar to camera images.
+     */
+    private static byte[] encode(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(32)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(32)) & 0xFF;
+                int b = ((x + y) & 0xFF) ^ random.nextInt(16);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Replace the entropy-coded data of an image by stuffed 0xFF bytes
+     * (0xFF 0x00) every other byte pair. The image cannot be decoded any
+     * more, but its markers stay intact.
+     */
+    private static byte[] withMarkerRuns(byte[] frame) {
+        byte[] runs = frame.clone();
+        int begin = JpegMarkerParser.headerLength(ByteBuffer.wrap(frame));
+        for (int i = begin; i + 2 < runs.length - 2; i += 4) {
+            runs[i] = VideoFileBuffer.JPEG_MARKER;
+            runs[i+1] = 0x00;
+            runs[i+2] = 0x55;
+            runs[i+3] = 0x55;
+        }
+        runs[runs.length-2] = VideoFileBuffer.JPEG_MARKER;
+        runs[runs.length-1] = VideoFileBuffer.JPEG_EOI;
+        return runs;
+    }
+}
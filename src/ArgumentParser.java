@@ -1,14 +1,16 @@
 import java.lang.Character;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
  
 /**
  * Parses command line arguments.
  *
  * The ArgumentParser currently just supports required
- * arguments as Strings and optional arguments in form
- * of switches (boolean values).
+ * arguments as Strings, optional arguments in form
+ * of switches (boolean values), options with a value
+ * and a list of further arguments.
  *
  * @author Emanuel Günther (s76954)
  */
@@ -18,7 +20,9 @@ public class ArgumentParser {
     private ArrayList<String> arguments;
     private HashMap<String, String> options;
     private HashMap<String, String> shortToLong;
+    private HashMap<String, String> valueNames;
     private HashMap<String, Object> parsed;
+    private String remainingArguments;
 
     /**
      * Create an ArgumentParser for the given
@@ -33,6 +37,7 @@ public class ArgumentParser {
         options = new HashMap<String, String>();
         parsed = new HashMap<String, Object>();
         shortToLong = new HashMap<String, String>();
+        valueNames = new HashMap<String, String>();
         registerOption("h", "help", "print this message");
         registerOption("v", "version", "print version and license info");
     }
@@ -65,6 +70,83 @@ public class ArgumentParser {
         return (String)ret;
     }
 
+    /**
+     * Return the specified argument as int.
+     *
+     * @param arg argument name
+     * @return The argument value as int.
+     * @throws NumberFormatException if the value is not a number, the
+     *         message names the option
+     */
+    public int getInt(String arg) throws NoSuchElementException, NumberFormatException {
+        String value = getString(arg);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Invalid number for option " + arg + ": " + value);
+        }
+    }
+
+    /**
+     * Return the specified argument as long.
+     *
+     * @param arg argument name
+     * @return The argument value as long.
+     * @throws NumberFormatException if the value is not a number, the
+     *         message names the option
+     */
+    public long getLong(String arg) throws NoSuchElementException, NumberFormatException {
+        String value = getString(arg);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Invalid number for option " + arg + ": " + value);
+        }
+    }
+
+    /**
+     * Return the specified argument as double.
+     *
+     * @param arg argument name
+     * @return The argument value as double.
+     * @throws NumberFormatException if the value is not a number, the
+     *         message names the option
+     */
+    public double getDouble(String arg) throws NoSuchElementException, NumberFormatException {
+        String value = getString(arg);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Invalid number for option " + arg + ": " + value);
+        }
+    }
+
+    /**
+     * Return the values of the optional arguments registered with
+     * registerRemainingArguments.
+     *
+     * @param arg argument name
+     * @return The argument values, empty if none were given.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getList(String arg) throws NoSuchElementException {
+        Object ret = parsed.get(arg);
+        if (ret == null) {
+            throw new NoSuchElementException();
+        }
+        return (List<String>)ret;
+    }
+
+    /**
+     * Check whether a value was given for the specified argument.
+     *
+     * @param arg argument name
+     * @return true if the argument has a value, false otherwise
+     */
+    public boolean isSet(String arg) {
+        return parsed.get(arg) != null;
+    }
+
     /**
      * Parse the given arguments using the previous
      * specified arguments and options.
@@ -74,14 +156,21 @@ public class ArgumentParser {
      */
     public boolean parse(String[] args) {
         int argIdx = 0;
-        for (String s : args) {
+        for (int argPos = 0; argPos < args.length; argPos++) {
+            String s = args[argPos];
             String opt = "";
+            String value = null;
             boolean shortOpt = false;
             boolean longOpt = false;
             if (s.startsWith("--")) {
                 opt = s.substring(2);
+                int eq = opt.indexOf('=');
+                if (eq != -1) {
+                    value = opt.substring(eq + 1);
+                    opt = opt.substring(0, eq);
+                }
                 longOpt = true;
-            } else if (s.startsWith("-")) {
+            } else if (s.startsWith("-") && s.length() > 1) {
                 opt = s.substring(1);
                 shortOpt = true;
             }
@@ -98,7 +187,27 @@ public class ArgumentParser {
                         if (stlOpt != null) {
                             putOpt = stlOpt;
                         }
-                        parsed.put(putOpt, true);
+                        if (valueNames.get(putOpt) != null) {
+                            if (shortOpt && idx < opt.length()) { // value directly attached (-j4)
+                                value = opt.substring(idx);
+                                idx = opt.length();
+                            }
+                            if (value == null) {
+                                if (argPos + 1 >= args.length) {
+                                    System.out.println("Option requires a value: " + currOpt);
+                                    usage();
+                                    System.exit(1);
+                                }
+                                value = args[++argPos];
+                            }
+                            parsed.put(putOpt, value);
+                        } else if (value != null) {
+                            System.out.println("Option does not take a value: " + currOpt);
+                            usage();
+                            System.exit(1);
+                        } else {
+                            parsed.put(putOpt, true);
+                        }
                     } else {
                         System.out.println("Option was not recognized: " + currOpt);
                         usage();
@@ -108,6 +217,8 @@ public class ArgumentParser {
             } else {
                 if (argIdx < arguments.size()) {
                     parsed.put(arguments.get(argIdx++), s);
+                } else if (remainingArguments != null) {
+                    getList(remainingArguments).add(s);
                 } else {
                     System.out.println("Too many arguments: " + s);
                     usage();
@@ -147,6 +258,18 @@ public class ArgumentParser {
         return true;
     }
 
+    /**
+     * Register optional arguments following the required arguments.
+     *
+     * @param argument the argument name
+     * @return true if successful, false otherwise
+     */
+    public boolean registerRemainingArguments(String argument) {
+        remainingArguments = argument;
+        parsed.put(argument, new ArrayList<String>());
+        return true;
+    }
+
     /**
      * Register an optional Argument.
      *
@@ -172,6 +295,23 @@ public class ArgumentParser {
         return true;
     }
 
+    /**
+     * Register an optional Argument with a value.
+     *
+     * @param shortOpt short option
+     * @param longOpt long option
+     * @param valueName name of the value shown in the help
+     * @param help help text
+     * @return true if successful, false otherwise
+     */
+    public boolean registerValueOption(String shortOpt, String longOpt, String valueName, String help) {
+        registerOption(shortOpt, longOpt, help);
+        String key = longOpt != null ? longOpt : shortOpt;
+        parsed.remove(key); // no value by default
+        valueNames.put(key, valueName);
+        return true;
+    }
+
     private void usage() {
         String usage = "usage: " + command;
         if (!options.isEmpty()) {
@@ -182,11 +322,18 @@ public class ArgumentParser {
                 usage += " " + arguments.get(i);
             }
         }
+        if (remainingArguments != null) {
+            usage += " [" + remainingArguments + "...]";
+        }
         System.out.println(usage);
 
         ArrayList<String> alist = new ArrayList<String>(options.keySet());
         String longest = "";
         for (String current : alist) {
+            String valueName = valueNames.get(current);
+            if (valueName != null) {
+                current += " " + valueName;
+            }
             if (current.length() > longest.length()) {
                 longest = current;
             }
@@ -199,11 +346,13 @@ public class ArgumentParser {
         optList.sort(null); // use natural ordering
         for (String next : optList) {
             String out = " ".repeat(initialOffset);
+            String key = next;
             if (next.length() == 1) {
                 out += "-" + next;
                 String stl = shortToLong.get(next);
                 if (stl != null) {
                     out += ",--" + stl;
+                    key = stl;
                 }
             } else {
                 if (shortToLong.values().contains(next)) {
@@ -213,6 +362,10 @@ public class ArgumentParser {
                     out += "--" + next;
                 }
             }
+            String valueName = valueNames.get(key);
+            if (valueName != null) {
+                out += " " + valueName;
+            }
 
             out += " ".repeat(helpOffset - out.length());
             out += options.get(next);
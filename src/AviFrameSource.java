@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+
+/**
+ * Source for reading the JPEG images of the video stream of an AVI file.
+ *
+ * The RIFF structure of the file is parsed and the video chunks are
+ * located by the OpenDML index (indx/ix##) or the AVI 1.0 index (idx1).
+ * Without any index, the chunks of the movi lists are walked instead.
+ * The payload of every video chunk is handed out as one image, the raw
+ * data is never searched for markers.
+ */
+public class AviFrameSource implements IndexedFrameSource {
+    private FileChannel channel = null;
+    private long fileSize = 0;
+    private FrameIndex chunks = null; // data offset and size of the video chunks
+    private int nextChunk = 0;
+    private long frameOffset = -1;
+    private ByteBuffer buffer = null;
+
+    private int videoStream = -1;
+    private long superIndexOffset = -1; // data offset of the indx chunk of the video stream
+    private int superIndexSize = 0;
+    private long idx1Offset = -1;
+    private int idx1Size = 0;
+    private long moviStart = -1; // file offset of the 'movi' fourcc of the first movi list
+    private ArrayList<long[]> moviLists = null; // {start, end} of the chunks of all movi lists
+
+    private static final int FOURCC_RIFF = fourcc("RIFF");
+    private static final int FOURCC_LIST = fourcc("LIST");
+    private static final int FOURCC_AVI = fourcc("AVI ");
+    private static final int FOURCC_AVIX = fourcc("AVIX");
+    private static final int FOURCC_HDRL = fourcc("hdrl");
+    private static final int FOURCC_STRL = fourcc("strl");
+    private static final int FOURCC_STRH = fourcc("strh");
+    private static final int FOURCC_INDX = fourcc("indx");
+    private static final int FOURCC_MOVI = fourcc("movi");
+    private static final int FOURCC_REC = fourcc("rec ");
+    private static final int FOURCC_IDX1 = fourcc("idx1");
+    private static final int FOURCC_VIDS = fourcc("vids");
+
+    private static final int AVI_INDEX_OF_INDEXES = 0x00;
+    private static final int AVI_INDEX_OF_CHUNKS = 0x01;
+
+
+    /**
+     * Create an AviFrameSource for reading images from an AVI file.
+     *
+     * @param filename name of the AVI file
+     * @throws IOException if the file cannot be read or is no AVI file
+     */
+    public AviFrameSource(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        fileSize = channel.size();
+        buffer = ByteBuffer.allocate(1 << 20);
+        moviLists = new ArrayList<long[]>();
+        try {
+            parseFile();
+            chunks = new FrameIndex();
+            if (!(superIndexOffset != -1 && readSuperIndex())
+                    && !(idx1Offset != -1 && readIdx1())) {
+                walkMovi();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        channel = null;
+        buffer = null;
+    }
+
+    @Override
+    public int indexedFrames() {
+        return chunks == null ? 0 : chunks.size();
+    }
+
+    @Override
+    public boolean seekFrame(int frame) {
+        if (channel == null || frame < 0 || frame > chunks.size()) {
+            return false;
+        }
+        nextChunk = frame;
+        return true;
+    }
+
+    @Override
+    public long frameOffset() {
+        return frameOffset;
+    }
+
+    @Override
+    public boolean seek(long offset) {
+        if (channel == null) {
+            return false;
+        }
+        nextChunk = chunks.size();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (chunks.offset(i) >= offset) {
+                nextChunk = i;
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the payload of the next video chunk.
+     *
+     * @return JPEG image, null if there is no further image
+     */
+    @Override
+    public ByteBuffer nextFrame() {
+        if (channel == null || nextChunk >= chunks.size()) {
+            return null;
+        }
+        int frame = nextChunk++;
+        int length = chunks.length(frame);
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        try {
+            readFully(buffer, chunks.offset(frame));
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        }
+        buffer.flip();
+        frameOffset = chunks.offset(frame);
+        return buffer;
+    }
+
+    /**
+     * @return number of video chunks in the file
+     */
+    public int frameCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Parse the RIFF chunks of the file, AVI files larger than 1 GiB
+     * consist of a RIFF AVI chunk followed by RIFF AVIX chunks.
+     */
+    private void parseFile() throws IOException {
+        ByteBuffer hdr = read(0, 12);
+        if (hdr.getInt(0) != FOURCC_RIFF || hdr.getInt(8) != FOURCC_AVI) {
+            throw new IOException("Not an AVI file");
+        }
+
+        long pos = 0;
+        while (pos + 12 <= fileSize) {
+            hdr = read(pos, 12);
+            long size = hdr.getInt(4) & 0xFFFFFFFFL;
+            long end = Math.min(pos + 8 + size, fileSize);
+            if (hdr.getInt(0) != FOURCC_RIFF) {
+                break;
+            }
+            int form = hdr.getInt(8);
+            if (form == FOURCC_AVI || form == FOURCC_AVIX) {
+                parseList(pos + 12, end);
+            }
+            pos = end + (size & 1);
+        }
+        if (videoStream == -1) {
+            throw new IOException("No video stream found in AVI file");
+        }
+    }
+
+    private void parseList(long pos, long end) throws IOException {
+        int streamNumber = 0;
+        while (pos + 8 <= end) {
+            ByteBuffer hdr = read(pos, 12);
+            int id = hdr.getInt(0);
+            long size = hdr.getInt(4) & 0xFFFFFFFFL;
+            long chunkEnd = Math.min(pos + 8 + size, end);
+            if (id == FOURCC_LIST && size >= 4) {
+                int listType = hdr.getInt(8);
+                if (listType == FOURCC_HDRL) {
+                    parseList(pos + 12, chunkEnd);
+                } else if (listType == FOURCC_STRL) {
+                    parseStreamList(pos + 12, chunkEnd, streamNumber++);
+                } else if (listType == FOURCC_MOVI) {
+                    if (moviStart == -1) {
+                        moviStart = pos + 8;
+                    }
+                    moviLists.add(new long[] { pos + 12, chunkEnd });
+                }
+            } else if (id == FOURCC_IDX1 && idx1Offset == -1) {
+                idx1Offset = pos + 8;
+                idx1Size = (int)Math.min(size, chunkEnd - pos - 8);
+            }
+            pos = chunkEnd + (size & 1);
+        }
+    }
+
+    private void parseStreamList(long pos, long end, int streamNumber) throws IOException {
+        boolean video = false;
+        while (pos + 8 <= end) {
+            ByteBuffer hdr = read(pos, 12);
+            int id = hdr.getInt(0);
+            long size = hdr.getInt(4) & 0xFFFFFFFFL;
+            if (id == FOURCC_STRH && size >= 4) {
+                video = hdr.getInt(8) == FOURCC_VIDS && videoStream == -1;
+                if (video) {
+                    videoStream = streamNumber;
+                }
+            } else if (id == FOURCC_INDX && video) {
+                superIndexOffset = pos + 8;
+                superIndexSize = (int)Math.min(size, end - pos - 8);
+            }
+            pos = Math.min(pos + 8 + size, end) + (size & 1);
+        }
+    }
+
+    /**
+     * Read the OpenDML super index of the video stream.
+     *
+     * @return true if the index could be used, false otherwise
+     */
+    private boolean readSuperIndex() throws IOException {
+        if (superIndexSize < 24) {
+            return false;
+        }
+        ByteBuffer indx = read(superIndexOffset, superIndexSize);
+        int longsPerEntry = indx.getShort(0) & 0xFFFF;
+        int indexType = indx.get(3) & 0xFF;
+        int entries = indx.getInt(4);
+        if (indexType == AVI_INDEX_OF_CHUNKS) {
+            return readStandardIndex(indx, 0, superIndexSize);
+        }
+        if (indexType != AVI_INDEX_OF_INDEXES || longsPerEntry != 4) {
+            return false;
+        }
+        for (int i = 0; i < entries && 24 + (i + 1) * 16 <= superIndexSize; i++) {
+            long ixOffset = indx.getLong(24 + i * 16);
+            int ixSize = indx.getInt(24 + i * 16 + 8);
+            if (ixOffset <= 0 || ixOffset + 8 > fileSize) {
+                return false;
+            }
+            // the entry points to the ix## chunk including its header
+            ByteBuffer ixHdr = read(ixOffset, 8);
+            int ixDataSize = (int)Math.min(ixHdr.getInt(4) & 0xFFFFFFFFL, fileSize - ixOffset - 8);
+            ByteBuffer ix = read(ixOffset + 8, ixDataSize);
+            if (!readStandardIndex(ix, 0, ixDataSize)) {
+                return false;
+            }
+        }
+        return chunks.size() > 0;
+    }
+
+    private boolean readStandardIndex(ByteBuffer ix, int start, int size) {
+        if (size < 24 || (ix.get(start + 3) & 0xFF) != AVI_INDEX_OF_CHUNKS
+                || (ix.getShort(start) & 0xFFFF) != 2) {
+            return false;
+        }
+        int entries = ix.getInt(start + 4);
+        long baseOffset = ix.getLong(start + 12);
+        for (int i = 0; i < entries && 24 + (i + 1) * 8 <= size; i++) {
+            long offset = ix.getInt(start + 24 + i * 8) & 0xFFFFFFFFL;
+            int length = ix.getInt(start + 24 + i * 8 + 4) & 0x7FFFFFFF; // bit 31: delta frame
+            addChunk(baseOffset + offset, length);
+        }
+        return true;
+    }
+
+    /**
+     * Read the AVI 1.0 index. The offsets are either relative to the
+     * 'movi' fourcc or absolute, this is detected with the first entry.
+     *
+     * @return true if the index could be used, false otherwise
+     */
+    private boolean readIdx1() throws IOException {
+        ByteBuffer idx1 = read(idx1Offset, idx1Size);
+        long base = -1;
+        for (int i = 0; (i + 1) * 16 <= idx1Size; i++) {
+            int id = idx1.getInt(i * 16);
+            if (!isVideoChunk(id)) {
+                continue;
+            }
+            long offset = idx1.getInt(i * 16 + 8) & 0xFFFFFFFFL;
+            int length = idx1.getInt(i * 16 + 12);
+            if (base == -1) {
+                if (moviStart != -1 && offset + moviStart + 4 <= fileSize
+                        && read(offset + moviStart, 4).getInt(0) == id) {
+                    base = moviStart;
+                } else if (offset + 4 <= fileSize && read(offset, 4).getInt(0) == id) {
+                    base = 0;
+                } else {
+                    return false;
+                }
+            }
+            addChunk(base + offset + 8, length);
+        }
+        return chunks.size() > 0;
+    }
+
+    /**
+     * Walk the chunks of all movi lists, used if the file has no index.
+     */
+    private void walkMovi() throws IOException {
+        for (long[] movi : moviLists) {
+            long pos = movi[0];
+            long end = movi[1];
+            while (pos + 8 <= end) {
+                ByteBuffer hdr = read(pos, 12);
+                int id = hdr.getInt(0);
+                long size = hdr.getInt(4) & 0xFFFFFFFFL;
+                if (id == FOURCC_LIST && size >= 4 && hdr.getInt(8) == FOURCC_REC) {
+                    pos += 12; // descend into the rec list
+                    continue;
+                }
+                if (isVideoChunk(id) && pos + 8 + size <= end) {
+                    addChunk(pos + 8, (int)size);
+                }
+                pos += 8 + size + (size & 1);
+            }
+        }
+    }
+
+    private void addChunk(long offset, int length) {
+        if (length > 0 && offset + length <= fileSize) { // empty chunks are dropped frames
+            chunks.add(offset, length, HeaderFingerprint.NONE);
+        }
+    }
+
+    /**
+     * Check whether a chunk id belongs to the video stream (##dc or ##db).
+     */
+    private boolean isVideoChunk(int id) {
+        int d1 = (id & 0xFF) - '0';
+        int d2 = ((id >> 8) & 0xFF) - '0';
+        int type = id >>> 16;
+        return d1 * 10 + d2 == videoStream
+                && (type == ('d' | 'c' << 8) || type == ('d' | 'b' << 8));
+    }
+
+    /**
+     * Read a structure of the file, missing bytes at the end of a
+     * truncated file are read as zeros.
+     */
+    private ByteBuffer read(long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.limit((int)Math.max(0, Math.min(length, fileSize - pos)));
+        readFully(buf, pos);
+        buf.clear();
+        return buf;
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        long start = pos - buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) == -1) {
+                throw new IOException("Unexpected end of file at offset " + (start + buf.position()));
+            }
+        }
+    }
+
+    private static int fourcc(String s) {
+        return s.charAt(0) | s.charAt(1) << 8 | s.charAt(2) << 16 | s.charAt(3) << 24;
+    }
+}
@@ -0,0 +1,398 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+
+/**
+ * Checks many files concurrently in one JVM and prints an aggregated
+ * summary.
+ *
+ * Directories are walked recursively for files with a supported
+ * extension, arguments containing wildcards are matched as glob patterns
+ * (e.g. "videos/**.avi"). Every file is checked by its own
+ * MJpegRtpCheck on a virtual thread if the JVM supports them, otherwise
+ * on a pool of platform threads. A semaphore limits the number of files
+ * read at the same time, so disks are not thrashed by concurrent
+ * sequential reads.
+ *
+ * The output of every file is buffered and printed in one piece when the
+ * file is done, so the output of concurrent files is not interleaved.
+ */
+public class BatchValidator {
+    private Function<String, MJpegRtpCheck> factory;
+    private int ioLimit;
+    private PrintStream console;
+
+    private static final int SLOWEST_FILES = 10;
+
+    private static class Result {
+        String file;
+        boolean passed;
+        boolean complete;
+        boolean skipped; // cancelled before the file was started
+        int frames;
+        long nanos;
+        List<String> failedTests = new ArrayList<>();
+    }
+
+
+    /**
+     * Create a BatchValidator.
+     *
+     * @param factory creates the configured check of a file
+     * @param ioLimit maximum number of files read at the same time
+     */
+    public BatchValidator(Function<String, MJpegRtpCheck> factory, int ioLimit) {
+        if (ioLimit < 1) {
+            throw new IllegalArgumentException("Invalid number of concurrent files: " + ioLimit);
+        }
+        this.factory = factory;
+        this.ioLimit = ioLimit;
+    }
+
+    /**
+     * Check whether an argument selects multiple files.
+     *
+     * @param argument file name, directory or glob pattern
+     * @return true if the argument is a directory or a glob pattern
+     */
+    public static boolean isBatch(String argument) {
+        File file = new File(argument);
+        return file.isDirectory() || (isGlob(argument) && !file.exists());
+    }
+
+    /**
+     * Collect the files to check. Files given directly are checked
+     * regardless of their extension.
+     *
+     * @param arguments files, directories and glob patterns
+     * @return sorted list of files, null if an argument could not be read
+     */
+    public static List<String> collect(List<String> arguments) {
+        List<String> files = new ArrayList<>();
+        for (String argument : arguments) {
+            Path base = Paths.get(argument);
+            PathMatcher matcher = null;
+            if (!base.toFile().exists() && isGlob(argument)) {
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + argument);
+                base = globBase(argument);
+            } else if (!base.toFile().isDirectory()) {
+                files.add(argument);
+                continue;
+            }
+            PathMatcher glob = matcher;
+            try (Stream<Path> paths = Files.walk(base)) {
+                paths.filter(Files::isRegularFile)
+                        .filter(path -> glob == null ? MJpegRtpCheck.fileType(path.toString()) != "invalid"
+                                : glob.matches(path))
+                        .map(Path::toString)
+                        .sorted()
+                        .forEach(files::add);
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error: cannot read " + argument + ": " + e.getMessage());
+                return null;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Check the files and print the summary.
+     *
+     * Files which have not been started when the checks are cancelled are
+     * skipped.
+     *
+     * @param files files to check
+     * @return exit code: MJpegRtpCheck.EXIT_PASSED if all files passed, EXIT_FAILED
+     *         if a file failed, EXIT_INCOMPLETE if not all images were checked
+     */
+    public int run(List<String> files) {
+        console = System.out;
+        System.setOut(new PrintStream(new ThreadOutputStream(console), true));
+        Semaphore io = new Semaphore(ioLimit);
+        ExecutorService executor = newExecutor(ioLimit);
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>();
+        for (String file : files) {
+            futures.add(executor.submit(() -> check(file, io)));
+        }
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println(e);
+        } finally {
+            executor.shutdownNow();
+            System.setOut(console);
+        }
+        printSummary(results, System.nanoTime() - start);
+        if (results.stream().anyMatch(r -> !r.passed && !r.skipped)) {
+            return MJpegRtpCheck.EXIT_FAILED;
+        }
+        return MJpegRtpCheck.exitCode(true, results.size() == files.size()
+                && results.stream().allMatch(r -> r.complete && !r.skipped));
+    }
+
+    /**
+     * Check a file with the output of the current thread buffered.
+     */
+    private Result check(String file, Semaphore io) throws InterruptedException {
+        Result result = new Result();
+        result.file = file;
+        io.acquire();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ThreadOutputStream.capture(output);
+        long start = System.nanoTime();
+        try {
+            MJpegRtpCheck check = factory.apply(file);
+            if (check.isCancelled()) {
+                result.skipped = true;
+                return result;
+            }
+            System.out.println("==================================== " + file);
+            check.setReporter(new FailureRecorder(check.getReporter(), result.failedTests));
+            result.passed = check.run();
+            result.complete = check.isComplete();
+            result.frames = check.frameCount();
+        } catch (RuntimeException e) {
+            System.out.println(e);
+        } finally {
+            result.nanos = System.nanoTime() - start;
+            if (!result.skipped) {
+                System.out.println();
+            }
+            ThreadOutputStream.capture(null);
+            io.release();
+        }
+        synchronized (console) {
+            console.write(output.toByteArray(), 0, output.size());
+            console.flush();
+        }
+        return result;
+    }
+
+    private void printSummary(List<Result> results, long nanos) {
+        int passed = 0;
+        int incomplete = 0;
+        int skipped = 0;
+        long frames = 0;
+        Map<String, Integer> failedTests = new TreeMap<>();
+        for (Result result : results) {
+            frames += result.frames;
+            if (result.skipped) {
+                skipped++;
+                continue;
+            }
+            if (result.passed) {
+                if (result.complete) {
+                    passed++;
+                } else {
+                    incomplete++;
+                }
+                continue;
+            }
+            if (result.failedTests.isEmpty()) {
+                failedTests.merge("file could not be parsed", 1, Integer::sum);
+            }
+            result.failedTests.stream()
+                    .distinct()
+                    .forEach(test -> failedTests.merge(test, 1, Integer::sum));
+        }
+
+        System.out.println("====================================");
+        System.out.println(String.format("Batch summary: %d files, %d frames in %.1f s", results.size(), frames,
+                nanos / 1e9));
+        System.out.println("  conformant files:     " + passed);
+        System.out.println("  non-conformant files: " + (results.size() - passed - incomplete - skipped));
+        if (incomplete > 0) {
+            System.out.println("  incomplete files:     " + incomplete);
+        }
+        if (skipped > 0) {
+            System.out.println("  files not checked:    " + skipped);
+        }
+        if (!failedTests.isEmpty()) {
+            System.out.println("Failed tests (files):");
+            failedTests.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                    .forEach(e -> System.out.println(String.format("  %8d  %s", e.getValue(), e.getKey())));
+        }
+        if (results.size() > skipped) {
+            System.out.println("Slowest files:");
+            results.stream()
+                    .filter(r -> !r.skipped)
+                    .sorted(Comparator.comparingLong((Result r) -> r.nanos).reversed())
+                    .limit(SLOWEST_FILES)
+                    .forEach(r -> System.out.println(String.format("  %8.3f s  %s", r.nanos / 1e9, r.file)));
+        }
+        JpegRtpMetadata.printTestResult(passed == results.size(), "All files conformant");
+    }
+
+    /**
+     * Create an executor with a virtual thread per task (JRE 21 and later,
+     * looked up by reflection to stay compatible with JRE 11) or a pool of
+     * platform threads otherwise.
+     */
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    private static boolean isGlob(String argument) {
+        return argument.indexOf('*') >= 0 || argument.indexOf('?') >= 0 || argument.indexOf('[') >= 0
+                || argument.indexOf('{') >= 0;
+    }
+
+    /**
+     * Get the directory to walk for a glob pattern: the leading path
+     * components without wildcards.
+     */
+    private static Path globBase(String pattern) {
+        Path path = Paths.get(pattern);
+        Path base = path.getRoot();
+        for (Path name : path) {
+            if (isGlob(name.toString())) {
+                break;
+            }
+            base = base == null ? name : base.resolve(name);
+        }
+        return base == null ? Paths.get(".") : base;
+    }
+
+    /**
+     * Passes the results on to the reporter of the file and records the
+     * failed tests for the summary.
+     */
+    private static class FailureRecorder implements Reporter {
+        private Reporter reporter;
+        private List<String> failedTests;
+        private boolean differentFrames = false;
+
+        FailureRecorder(Reporter reporter, List<String> failedTests) {
+            this.reporter = reporter;
+            this.failedTests = failedTests;
+        }
+
+        @Override
+        public void begin(String file) {
+            reporter.begin(file);
+        }
+
+        @Override
+        public void frame(long frame, long stream, long offset, int length, long fingerprint, int width,
+                int height, int status) {
+            if (status == FRAME_DIFFERENT && !differentFrames) {
+                failedTests.add("Frame N shares metadata");
+                differentFrames = true;
+            }
+            reporter.frame(frame, stream, offset, length, fingerprint, width, height, status);
+        }
+
+        @Override
+        public void testResult(String test, boolean passed) {
+            if (!passed) {
+                failedTests.add(test);
+            }
+            reporter.testResult(test, passed);
+        }
+
+        @Override
+        public void conformance(boolean conformant) {
+            reporter.conformance(conformant);
+        }
+
+        @Override
+        public void metadata(JpegRtpMetadata jrm) {
+            reporter.metadata(jrm);
+        }
+
+        @Override
+        public void end(boolean passed, long frames) {
+            reporter.end(passed, frames);
+        }
+
+        @Override
+        public void flush() {
+            reporter.flush();
+        }
+    }
+
+    /**
+     * Output stream for System.out redirecting the output of a thread to
+     * its buffer. Threads without a buffer write to the console.
+     */
+    private static class ThreadOutputStream extends OutputStream {
+        private static final ThreadLocal<ByteArrayOutputStream> buffer = new ThreadLocal<>();
+        private PrintStream console;
+
+        ThreadOutputStream(PrintStream console) {
+            this.console = console;
+        }
+
+        static void capture(ByteArrayOutputStream output) {
+            if (output == null) {
+                buffer.remove();
+            } else {
+                buffer.set(output);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ByteArrayOutputStream output = buffer.get();
+            if (output != null) {
+                output.write(b);
+            } else {
+                synchronized (console) {
+                    console.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ByteArrayOutputStream output = buffer.get();
+            if (output != null) {
+                output.write(b, off, len);
+            } else {
+                synchronized (console) {
+                    console.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (buffer.get() == null) {
+                console.flush();
+            }
+        }
+    }
+}
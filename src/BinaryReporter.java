@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Writes the results in a compact binary format.
+ *
+ * The output starts with the magic "MJRB" and a version byte (2), see
+ * writeHeader. It is followed by records starting with a type byte and
+ * the identifier of their file (u32), all numbers are big endian:
+ *
+ * <pre>
+ * 1 file:        u16 name length, name (UTF-8)
+ * 2 frame:       u32 frame, u32 stream, i64 offset, u32 length, u64 fingerprint,
+ *                u16 width, u16 height, u8 status          (38 bytes)
+ * 3 test:        u8 passed, u16 description length, description (UTF-8)
+ * 4 conformance: u8 conformant
+ * 5 metadata:    u8 flags (bit 0 baseline, bit 1 huffman), u8 scans, u16 width,
+ *                u16 height, u8 precision, f32 pixel aspect ratio, u8 components,
+ *                u8 quantization tables, u8 huffman tables, u8 subsampling[3],
+ *                u16 restart interval, u8 Q (0 if the tables are not of
+ *                Q 1-99), u16 in-band table bytes per frame (0 for Q 1-99)
+ * 6 end:         u8 passed, u64 frames
+ * </pre>
+ *
+ * The file identifiers are unique within the output, so the records of
+ * files checked concurrently can be told apart.
+ */
+public class BinaryReporter extends StreamReporter {
+    private int file;
+
+    public static final int VERSION = 2;
+    public static final int RECORD_FILE = 1;
+    public static final int RECORD_FRAME = 2;
+    public static final int RECORD_TEST = 3;
+    public static final int RECORD_CONFORMANCE = 4;
+    public static final int RECORD_METADATA = 5;
+    public static final int RECORD_END = 6;
+    private static final AtomicInteger nextFile = new AtomicInteger();
+
+
+    /**
+     * Create a BinaryReporter.
+     *
+     * @param out output, the header must have been written with writeHeader
+     */
+    public BinaryReporter(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Write the magic and the version at the start of the output.
+     *
+     * @param out output
+     * @throws IOException if the output cannot be written
+     */
+    public static void writeHeader(OutputStream out) throws IOException {
+        out.write(new byte[] { 'M', 'J', 'R', 'B', VERSION });
+    }
+
+    @Override
+    public void begin(String file) {
+        this.file = nextFile.incrementAndGet();
+        byte[] name = file.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, 0xFFFF);
+        start(RECORD_FILE, 2 + nameLength);
+        putShort(nameLength);
+        System.arraycopy(name, 0, buffer, length, nameLength);
+        length += nameLength;
+        recordDone();
+    }
+
+    @Override
+    public void frame(long frame, long stream, long offset, int size, long fingerprint, int width, int height,
+            int status) {
+        start(RECORD_FRAME, 33);
+        putInt((int)frame);
+        putInt((int)stream);
+        putLong(offset);
+        putInt(size);
+        putLong(fingerprint);
+        putShort(width);
+        putShort(height);
+        buffer[length++] = (byte)status;
+        recordDone();
+    }
+
+    @Override
+    public void testResult(String test, boolean passed) {
+        byte[] description = test.getBytes(StandardCharsets.UTF_8);
+        int descriptionLength = Math.min(description.length, 0xFFFF);
+        start(RECORD_TEST, 3 + descriptionLength);
+        buffer[length++] = (byte)(passed ? 1 : 0);
+        putShort(descriptionLength);
+        System.arraycopy(description, 0, buffer, length, descriptionLength);
+        length += descriptionLength;
+        recordDone();
+    }
+
+    @Override
+    public void conformance(boolean conformant) {
+        start(RECORD_CONFORMANCE, 1);
+        buffer[length++] = (byte)(conformant ? 1 : 0);
+        recordDone();
+    }
+
+    @Override
+    public void metadata(JpegRtpMetadata jrm) {
+        start(RECORD_METADATA, 22);
+        buffer[length++] = (byte)((jrm.baseline ? 1 : 0) | (jrm.huffman ? 2 : 0));
+        buffer[length++] = (byte)jrm.numSOS;
+        putShort(jrm.width);
+        putShort(jrm.height);
+        buffer[length++] = (byte)jrm.samplePrecision;
+        putInt(Float.floatToIntBits((float)jrm.pixelAspectRatio));
+        buffer[length++] = (byte)jrm.numFrameComponents;
+        buffer[length++] = (byte)jrm.numDQT;
+        buffer[length++] = (byte)jrm.numDHT;
+        for (int i = 0; i < 3; i++) {
+            buffer[length++] = jrm.subsampling[0][i];
+        }
+        putShort(jrm.restartInterval);
+        buffer[length++] = (byte)jrm.qFactor;
+        putShort(jrm.qFactor > 0 ? 0 : Rfc2435Tables.inBandLength(jrm));
+        recordDone();
+    }
+
+    @Override
+    public void end(boolean passed, long frames) {
+        start(RECORD_END, 9);
+        buffer[length++] = (byte)(passed ? 1 : 0);
+        putLong(frames);
+        recordDone();
+        flush();
+    }
+
+    /**
+     * Start a record with its type and the file.
+     *
+     * @param size size of the record following the file identifier
+     */
+    private void start(int type, int size) {
+        ensure(5 + size);
+        buffer[length++] = (byte)type;
+        putInt(file);
+    }
+
+    private void putShort(int value) {
+        buffer[length++] = (byte)(value >> 8);
+        buffer[length++] = (byte)value;
+    }
+
+    private void putInt(int value) {
+        buffer[length++] = (byte)(value >> 24);
+        buffer[length++] = (byte)(value >> 16);
+        buffer[length++] = (byte)(value >> 8);
+        buffer[length++] = (byte)value;
+    }
+
+    private void putLong(long value) {
+        putInt((int)(value >> 32));
+        putInt((int)value);
+    }
+}
@@ -0,0 +1,156 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Checks the byte stuffing of the entropy-coded data of a JPEG image
+ * (RFC 2435 section 3.1.9, ISO 10918-1 B.1.1.5).
+ *
+ * Every 0xFF byte between the SOS segment and the EOI marker must be
+ * followed by 0x00 (stuffed data byte), a restart marker RST0-RST7 or a
+ * fill byte 0xFF. The data is tested eight bytes per step like in the
+ * MarkerScanner, only the words containing 0xFF bytes are inspected byte
+ * by byte.
+ */
+public class ByteStuffingValidator {
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int VALID = 0;
+    private static final int END = 1;
+    private static final int VIOLATION = 2;
+
+    private ByteStuffingValidator() {
+    }
+
+    /**
+     * Search the first 0xFF byte of the entropy-coded data of an image that
+     * is not followed by 0x00, a restart marker or a fill byte.
+     *
+     * @param image JPEG image from position to limit, the buffer is not modified
+     * @param headerLength offset of the entropy-coded data in the image (see JpegRtpMetadata)
+     * @return offset of the 0xFF byte relative to the position, -1 if the data is stuffed correctly
+     */
+    public static int firstViolation(ByteBuffer image, int headerLength) {
+        int from = image.position() + headerLength;
+        int pos = firstViolation(image, from, image.limit());
+        return pos == -1 ? -1 : pos - image.position();
+    }
+
+    /**
+     * Search the first 0xFF byte not followed by 0x00, a restart marker or
+     * a fill byte. The search ends at the EOI marker, a 0xFF byte at the
+     * end of the data is a violation.
+     *
+     * @param data data to search
+     * @param from start of the entropy-coded data
+     * @param to end of the data (exclusive)
+     * @return index of the 0xFF byte, -1 if the data is stuffed correctly
+     */
+    public static int firstViolation(byte[] data, int from, int to) {
+        int i = from;
+        for (; i + 8 < to; i += 8) {
+            long candidates = MarkerScanner.markerBytes((long)LONG_VIEW.get(data, i));
+            while (candidates != 0) {
+                int pos = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (data[pos] == VideoFileBuffer.JPEG_MARKER) {
+                    int follower = follower(data[pos+1]);
+                    if (follower == VIOLATION) {
+                        return pos;
+                    } else if (follower == END) {
+                        return -1;
+                    }
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        return firstViolationScalar(data, i, to);
+    }
+
+    /**
+     * Search the first 0xFF byte not followed by 0x00, a restart marker or
+     * a fill byte.
+     *
+     * @param data data to search, absolute indices are used and the buffer is not modified
+     * @param from start of the entropy-coded data
+     * @param to end of the data (exclusive)
+     * @return index of the 0xFF byte, -1 if the data is stuffed correctly
+     */
+    public static int firstViolation(ByteBuffer data, int from, int to) {
+        if (data.hasArray()) {
+            int pos = firstViolation(data.array(), data.arrayOffset() + from, data.arrayOffset() + to);
+            return pos == -1 ? -1 : pos - data.arrayOffset();
+        }
+        ByteBuffer buf = data.order() == ByteOrder.LITTLE_ENDIAN
+                ? data : data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+        for (; i + 8 < to; i += 8) {
+            long candidates = MarkerScanner.markerBytes(buf.getLong(i));
+            while (candidates != 0) {
+                int pos = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (buf.get(pos) == VideoFileBuffer.JPEG_MARKER) {
+                    int follower = follower(buf.get(pos+1));
+                    if (follower == VIOLATION) {
+                        return pos;
+                    } else if (follower == END) {
+                        return -1;
+                    }
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        return firstViolationScalar(buf, i, to);
+    }
+
+    /**
+     * Search the first violation one byte at a time.
+     *
+     * @see #firstViolation(byte[], int, int)
+     */
+    public static int firstViolationScalar(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == VideoFileBuffer.JPEG_MARKER) {
+                int follower = i + 1 < to ? follower(data[i+1]) : VIOLATION;
+                if (follower == VIOLATION) {
+                    return i;
+                } else if (follower == END) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Search the first violation one byte at a time.
+     *
+     * @see #firstViolation(ByteBuffer, int, int)
+     */
+    public static int firstViolationScalar(ByteBuffer data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data.get(i) == VideoFileBuffer.JPEG_MARKER) {
+                int follower = i + 1 < to ? follower(data.get(i+1)) : VIOLATION;
+                if (follower == VIOLATION) {
+                    return i;
+                } else if (follower == END) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Classify the byte following a 0xFF byte in entropy-coded data.
+     *
+     * @return VALID for 0x00, RST0-RST7 and fill bytes, END for EOI, VIOLATION otherwise
+     */
+    private static int follower(byte b) {
+        if (b == 0x00 || b == VideoFileBuffer.JPEG_MARKER || (b & 0xF8) == 0xD0) {
+            return VALID;
+        }
+        return b == VideoFileBuffer.JPEG_EOI ? END : VIOLATION;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Selects how the images of a file are checked.
+ *
+ * Without a full parse or a sample only the first image is checked. A
+ * full parse reads the images one after the other, or indexes them and
+ * compares them in parallel if several jobs or an index file are
+ * requested. A sample checks a selection of the images.
+ */
+public class CheckMode {
+    /** only the first image is checked */
+    public static final int FIRST_FRAME = 0;
+    /** all images are read and checked one after the other */
+    public static final int SEQUENTIAL = 1;
+    /** all images are indexed and compared in parallel */
+    public static final int PARALLEL = 2;
+    /** a sample of the images is checked */
+    public static final int SAMPLE = 3;
+
+    private CheckMode() {
+    }
+
+    /**
+     * Select the mode of a check. The options must have been validated
+     * with OptionValidator.
+     *
+     * @param fullParse true if all images are checked
+     * @param sampling true if a sample of the images is checked
+     * @param jobs number of threads comparing the images
+     * @param useIndex true if an index file is used
+     * @return FIRST_FRAME, SEQUENTIAL, PARALLEL or SAMPLE
+     */
+    public static int select(boolean fullParse, boolean sampling, int jobs, boolean useIndex) {
+        if (sampling) {
+            return SAMPLE;
+        } else if (!fullParse) {
+            return FIRST_FRAME;
+        } else if (jobs != 1 || useIndex) {
+            return PARALLEL;
+        } else {
+            return SEQUENTIAL;
+        }
+    }
+}
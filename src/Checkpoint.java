@@ -0,0 +1,276 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+
+/**
+ * State of a full parse, so a check of a large file can be resumed after
+ * it was stopped or the machine went away.
+ *
+ * The state is stored in a sidecar file next to the video file (file name
+ * + SIDECAR_EXTENSION): magic, version, size and modification time of the
+ * video file, header fingerprint of the reference image, file offset after
+ * the last checked image, number of checked images and bytes, number of
+ * failures, the number of failures of every kind (METADATA, STUFFING,
+ * RESTART, DECODE) and the numbers of the first failed images, all values
+ * in big-endian byte order. The file is replaced atomically.
+ */
+public class Checkpoint {
+    private long fileSize;
+    private long mtime;
+    private long referenceFingerprint;
+    private long offset;
+    private int frames;
+    private long bytes;
+    private int failures;
+    private int[] counts = new int[KINDS];
+    private int[] failedFrames = new int[16];
+    private int failedFrameCount = 0;
+
+    public static final String SIDECAR_EXTENSION = ".ckpt";
+    /** number of failed images whose numbers are kept */
+    public static final int MAX_FAILED_FRAMES = 1024;
+    private static final int SIDECAR_MAGIC = 0x4D4A434B; // "MJCK"
+    private static final int SIDECAR_VERSION = 2;
+
+    /** kinds of failures: metadata differs or cannot be parsed */
+    public static final int METADATA = 0;
+    /** 0xff in the entropy-coded data not followed by 0x00 or RSTn */
+    public static final int STUFFING = 1;
+    /** restart markers do not match the DRI segment */
+    public static final int RESTART = 2;
+    /** Huffman-coded data does not decode */
+    public static final int DECODE = 3;
+    private static final int KINDS = 4;
+
+
+    /**
+     * Create an empty Checkpoint for a video file.
+     *
+     * @param filename name of the video file
+     * @param referenceFingerprint header fingerprint of the first image
+     * @throws IOException if the size or modification time of the file cannot be read
+     */
+    public Checkpoint(String filename, long referenceFingerprint) throws IOException {
+        Path file = Paths.get(filename);
+        this.fileSize = Files.size(file);
+        this.mtime = Files.getLastModifiedTime(file).toMillis();
+        this.referenceFingerprint = referenceFingerprint;
+    }
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Read the checkpoint of a video file from its sidecar file.
+     *
+     * The checkpoint is only returned if it belongs to the file as it is
+     * now: same reference image and either the same size and modification
+     * time or a file that has grown since.
+     *
+     * @param filename name of the video file
+     * @param referenceFingerprint header fingerprint of the first image
+     * @return checkpoint, null if there is none or it does not match the file
+     */
+    public static Checkpoint load(String filename, long referenceFingerprint) {
+        Path sidecar = sidecar(filename);
+        if (!Files.isRegularFile(sidecar)) {
+            return null;
+        }
+        Checkpoint checkpoint = new Checkpoint();
+        long fileSize = 0;
+        long mtime = 0;
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            fileSize = Files.size(Paths.get(filename));
+            mtime = Files.getLastModifiedTime(Paths.get(filename)).toMillis();
+            int version = dis.readInt() == SIDECAR_MAGIC ? dis.readInt() : -1;
+            if (version != 1 && version != SIDECAR_VERSION) {
+                System.out.println("Warning: unknown checkpoint file format: " + sidecar);
+                return null;
+            }
+            checkpoint.fileSize = dis.readLong();
+            checkpoint.mtime = dis.readLong();
+            checkpoint.referenceFingerprint = dis.readLong();
+            checkpoint.offset = dis.readLong();
+            checkpoint.frames = dis.readInt();
+            checkpoint.bytes = dis.readLong();
+            checkpoint.failures = dis.readInt();
+            if (version == 1) {
+                checkpoint.counts[METADATA] = checkpoint.failures; // kinds not recorded
+            } else {
+                for (int i = 0; i < KINDS; i++) {
+                    checkpoint.counts[i] = dis.readInt();
+                }
+            }
+            int count = dis.readInt();
+            if (count < 0 || count > MAX_FAILED_FRAMES) {
+                throw new IOException("invalid checkpoint file: " + sidecar);
+            }
+            checkpoint.failedFrames = new int[Math.max(count, 16)];
+            for (int i = 0; i < count; i++) {
+                checkpoint.failedFrames[i] = dis.readInt();
+            }
+            checkpoint.failedFrameCount = count;
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        }
+
+        boolean unchanged = fileSize == checkpoint.fileSize && mtime == checkpoint.mtime;
+        if (checkpoint.referenceFingerprint != referenceFingerprint
+                || !unchanged && fileSize <= checkpoint.fileSize) {
+            System.out.println("Warning: the file has changed since the checkpoint, starting from the beginning");
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Record the progress after a checked image.
+     *
+     * @param offset file offset after the image
+     * @param frames number of checked images
+     * @param bytes number of checked bytes of images
+     */
+    public void update(long offset, int frames, long bytes) {
+        this.offset = offset;
+        this.frames = frames;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Record the number of failures of every kind so far.
+     *
+     * @param metadata number of images whose metadata differs or cannot be parsed
+     * @param stuffing number of byte stuffing violations
+     * @param restart number of restart marker mismatches
+     * @param decode number of images whose Huffman-coded data does not decode
+     */
+    public void updateCounts(int metadata, int stuffing, int restart, int decode) {
+        counts[METADATA] = metadata;
+        counts[STUFFING] = stuffing;
+        counts[RESTART] = restart;
+        counts[DECODE] = decode;
+    }
+
+    /**
+     * Record a failed image.
+     *
+     * @param frame number of the image, from 1
+     */
+    public void addFailure(int frame) {
+        failures++;
+        if (failedFrameCount < MAX_FAILED_FRAMES) {
+            if (failedFrameCount == failedFrames.length) {
+                failedFrames = Arrays.copyOf(failedFrames, failedFrames.length * 2);
+            }
+            failedFrames[failedFrameCount++] = frame;
+        }
+    }
+
+    /**
+     * Write the checkpoint to the sidecar file of the video file.
+     *
+     * @param filename name of the video file
+     * @return false if the file could not be written, true otherwise
+     */
+    public boolean save(String filename) {
+        Path sidecar = sidecar(filename);
+        Path tmp = Paths.get(sidecar.toString() + ".tmp");
+        try {
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                dos.writeInt(SIDECAR_MAGIC);
+                dos.writeInt(SIDECAR_VERSION);
+                dos.writeLong(fileSize);
+                dos.writeLong(mtime);
+                dos.writeLong(referenceFingerprint);
+                dos.writeLong(offset);
+                dos.writeInt(frames);
+                dos.writeLong(bytes);
+                dos.writeInt(failures);
+                for (int i = 0; i < KINDS; i++) {
+                    dos.writeInt(counts[i]);
+                }
+                dos.writeInt(failedFrameCount);
+                for (int i = 0; i < failedFrameCount; i++) {
+                    dos.writeInt(failedFrames[i]);
+                }
+            }
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Warning: checkpoint could not be written: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the sidecar file of a video file, e.g. after the check has
+     * been completed.
+     *
+     * @param filename name of the video file
+     */
+    public static void delete(String filename) {
+        try {
+            Files.deleteIfExists(sidecar(filename));
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    private static Path sidecar(String filename) {
+        return Paths.get(filename + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * @return file offset after the last checked image
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return number of checked images
+     */
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * @return number of checked bytes of images
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of failed images
+     */
+    public int failures() {
+        return failures;
+    }
+
+    /**
+     * @param kind METADATA, STUFFING, RESTART or DECODE
+     * @return number of failures of the kind
+     */
+    public int count(int kind) {
+        return counts[kind];
+    }
+
+    /**
+     * @return numbers of the first failed images (up to MAX_FAILED_FRAMES)
+     */
+    public int[] failedFrames() {
+        return Arrays.copyOf(failedFrames, failedFrameCount);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Prints the results for humans to System.out, test results are colored
+ * with ANSI escape sequences.
+ *
+ * Only images whose metadata differs are printed, the output of a file
+ * with matching images does not grow with the number of images.
+ */
+public class ConsoleReporter implements Reporter {
+    private static final String ANSI_ESCAPE_RESET = "\u001B[0m";
+    private static final String ANSI_ESCAPE_RED = "\u001B[31m";
+    private static final String ANSI_ESCAPE_GREEN = "\u001B[32m";
+
+
+    @Override
+    public void begin(String file) {
+    }
+
+    @Override
+    public void frame(long frame, long stream, long offset, int length, long fingerprint, int width, int height,
+            int status) {
+        if (status == FRAME_DIFFERENT) {
+            testResult((frame > 0 ? "Frame " + frame : "Frame at offset " + offset) + " shares metadata", false);
+        }
+    }
+
+    @Override
+    public void testResult(String test, boolean passed) {
+        StringBuilder out = new StringBuilder(test.length() + 24);
+        if (passed) {
+            out.append(ANSI_ESCAPE_GREEN).append("[  PASSED  ]  ");
+        } else {
+            out.append(ANSI_ESCAPE_RED).append("[  FAILED  ]  ");
+        }
+        out.append(test).append(ANSI_ESCAPE_RESET);
+        System.out.println(out);
+    }
+
+    @Override
+    public void conformance(boolean conformant) {
+        System.out.println("====================================");
+        System.out.println("JPEG is " + (conformant ? "" : "not ") + "conformant to RFC 2435");
+    }
+
+    @Override
+    public void metadata(JpegRtpMetadata jrm) {
+        StringBuilder out = new StringBuilder(512);
+        out.append("Baseline DCT sequential: ").append(jrm.baseline).append('\n');
+        out.append("Huffman entropy coding: ").append(jrm.huffman).append('\n');
+        out.append("Number of SOS segments: ").append(jrm.numSOS).append('\n');
+        boolean isInterleaved = jrm.numSOS == 1 && jrm.numFrameComponents > 1;
+        out.append("interleaved: ").append(isInterleaved).append('\n');
+        out.append("width: ").append(jrm.width).append(" px\n");
+        out.append("height: ").append(jrm.height).append(" px\n");
+        out.append("sampe precision: ").append(jrm.samplePrecision).append(" bit\n");
+        out.append("pixel aspect ratio: ").append(jrm.pixelAspectRatio).append('\n');
+        out.append("number of components in frame: ").append(jrm.numFrameComponents).append('\n');
+        out.append("number of quantization tables: ").append(jrm.numDQT).append('\n');
+        if (jrm.qFactor > 0) {
+            out.append("quantization tables: Q ").append(jrm.qFactor).append(" of RFC 2435 Appendix A\n");
+        } else {
+            out.append("quantization tables: dynamic, Q >= 128 required (")
+                    .append(Rfc2435Tables.inBandLength(jrm)).append(" bytes in-band per frame)\n");
+        }
+        out.append("number of huffman tables: ").append(jrm.numDHT).append('\n');
+        out.append("restart interval: ").append(jrm.restartInterval).append(" MCUs\n");
+        // values of huffman tables
+        // (huffmanLumDc | huffmanLumAc | huffmanChmDc | huffmanChmAc)
+        out.append("subsampling: ").append(jrm.subsampling[0][0]).append(':')
+                .append(jrm.subsampling[0][1]).append(':')
+                .append(jrm.subsampling[0][2]);
+        System.out.println(out);
+    }
+
+    @Override
+    public void end(boolean passed, long frames) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,64 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * JDK Flight Recorder event of checking one image.
+ *
+ * The event is only recorded while a recording with it enabled is running,
+ * e.g. with -XX:StartFlightRecording or "jcmd PID JFR.start". It is
+ * committed after the image has been checked and carries the durations
+ * of the stages instead of an own duration, stages that did not run for
+ * the image have a duration of 0.
+ */
+@Name("mjpeg.Frame")
+@Label("MJPEG Frame")
+@Category("MJpegRtpCheck")
+@Description("Reading, extracting and comparing the metadata of an image")
+@StackTrace(false)
+public class FrameEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Frame")
+    @Description("Number of the image, from 1")
+    public long frame;
+
+    @Label("Offset")
+    @Description("Offset of the image in the file, -1 if unknown")
+    public long offset;
+
+    @Label("Length")
+    @DataAmount
+    public int length;
+
+    @Label("Scan")
+    @Timespan
+    public long scan;
+
+    @Label("Extract")
+    @Timespan
+    public long extract;
+
+    @Label("Compare")
+    @Timespan
+    public long compare;
+
+    @Label("Packetize")
+    @Timespan
+    public long packetize;
+
+    @Label("Decode")
+    @Timespan
+    public long decode;
+
+    @Label("Status")
+    @Description("0 equal, 1 different, 2 error (see Reporter)")
+    public int status;
+}
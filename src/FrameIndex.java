@@ -0,0 +1,252 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Index of the JPEG images of a video file.
+ *
+ * Stores the file offset, length and header fingerprint of every image,
+ * so the images can be read independently of each other with positioned
+ * reads.
+ *
+ * The index can be stored in a sidecar file next to the video file
+ * (file name + SIDECAR_EXTENSION). The sidecar file consists of a header
+ * (magic, version, size and modification time of the video file, number
+ * of images) followed by one fixed-size record (offset, length,
+ * fingerprint) per image, all values in big-endian byte order.
+ */
+public class FrameIndex {
+    private long[] offsets;
+    private int[] lengths;
+    private long[] fingerprints;
+    private int size;
+
+    public static final String SIDECAR_EXTENSION = ".fidx";
+    private static final int SIDECAR_MAGIC = 0x4D4A4649; // "MJFI"
+    private static final int SIDECAR_VERSION = 1;
+    private static final int SIDECAR_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final int SIDECAR_RECORD_SIZE = 8 + 4 + 8;
+
+
+    /**
+     * Create an empty FrameIndex.
+     */
+    public FrameIndex() {
+        this(1024);
+    }
+
+    private FrameIndex(int capacity) {
+        capacity = Math.max(capacity, 16);
+        offsets = new long[capacity];
+        lengths = new int[capacity];
+        fingerprints = new long[capacity];
+        size = 0;
+    }
+
+    /**
+     * Get the index of a video file using its sidecar file.
+     *
+     * A sidecar file matching size and modification time of the video file
+     * is used as it is. If the video file has just grown since the sidecar
+     * file was written, the index is extended by the new images. Otherwise
+     * the index is built from scratch. The sidecar file is updated if the
+     * index changed.
+     *
+     * @param filename name of the video file
+     * @param in source for reading images of the video file
+     * @return index of all images, null in case of an error
+     */
+    public static FrameIndex open(String filename, FrameSource in) {
+        Path file = Paths.get(filename);
+        Path sidecar = Paths.get(filename + SIDECAR_EXTENSION);
+        long fileSize = 0;
+        long mtime = 0;
+        try {
+            fileSize = Files.size(file);
+            mtime = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        }
+
+        FrameIndex index = null;
+        long indexedSize = -1;
+        if (Files.isRegularFile(sidecar)) {
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(sidecar)))) {
+                if (dis.readInt() == SIDECAR_MAGIC && dis.readInt() == SIDECAR_VERSION) {
+                    indexedSize = dis.readLong();
+                    long indexedMtime = dis.readLong();
+                    int count = dis.readInt();
+                    if (count < 0 || Files.size(sidecar) != SIDECAR_HEADER_SIZE
+                            + (long)count * SIDECAR_RECORD_SIZE) {
+                        indexedSize = -1;
+                    } else if (indexedSize == fileSize && indexedMtime == mtime
+                            || indexedSize < fileSize) {
+                        index = new FrameIndex(count);
+                        for (int i = 0; i < count; i++) {
+                            index.add(dis.readLong(), dis.readInt(), dis.readLong());
+                        }
+                        if (indexedSize == fileSize) {
+                            return index; // up to date
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+                index = null;
+            }
+        }
+
+        long scanFrom = 0;
+        if (index != null && index.size() > 0) {
+            // file has grown, the already indexed images must be unchanged
+            int last = index.size() - 1;
+            if (index.readFingerprint(filename, last) == index.fingerprint(last)) {
+                scanFrom = index.offset(last) + index.length(last);
+            } else {
+                index = null;
+            }
+        }
+        if (index == null) {
+            index = new FrameIndex();
+            scanFrom = 0;
+        }
+
+        if (!in.seek(scanFrom)) {
+            return null;
+        }
+        index.scan(in);
+
+        try {
+            index.save(sidecar, fileSize, mtime);
+        } catch (IOException e) {
+            System.out.println("Warning: index file could not be written: " + e);
+        }
+        return index;
+    }
+
+    /**
+     * Append all remaining images of a FrameSource to the index.
+     *
+     * @param in source to read the images from
+     * @return number of images added
+     */
+    public int scan(FrameSource in) {
+        int added = 0;
+        ByteBuffer data = null;
+        while ((data = in.nextFrame()) != null) {
+            add(in.frameOffset(), data.remaining(), HeaderFingerprint.of(data));
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Append an image to the index.
+     *
+     * @param offset file offset of the SOI marker
+     * @param length length of the image including EOI marker
+     * @param fingerprint fingerprint of the image header
+     */
+    public void add(long offset, int length, long fingerprint) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            fingerprints = Arrays.copyOf(fingerprints, size * 2);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        fingerprints[size] = fingerprint;
+        size++;
+    }
+
+    /**
+     * Write the index to a sidecar file. The file is replaced atomically.
+     *
+     * @param sidecar path of the sidecar file
+     * @param fileSize size of the indexed video file
+     * @param mtime modification time of the indexed video file in ms
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path sidecar, long fileSize, long mtime) throws IOException {
+        Path tmp = Paths.get(sidecar.toString() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            dos.writeInt(SIDECAR_MAGIC);
+            dos.writeInt(SIDECAR_VERSION);
+            dos.writeLong(fileSize);
+            dos.writeLong(mtime);
+            dos.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                dos.writeLong(offsets[i]);
+                dos.writeInt(lengths[i]);
+                dos.writeLong(fingerprints[i]);
+            }
+        }
+        Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read an image from the video file and compute its fingerprint.
+     *
+     * @return fingerprint, HeaderFingerprint.NONE in case of an error
+     */
+    private long readFingerprint(String filename, int frame) {
+        ByteBuffer buf = ByteBuffer.allocate(lengths[frame]);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offsets[frame] + buf.position()) == -1) {
+                    return HeaderFingerprint.NONE;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            return HeaderFingerprint.NONE;
+        }
+        buf.flip();
+        return HeaderFingerprint.of(buf);
+    }
+
+    /**
+     * @param frame image number, starting at 0
+     * @return file offset of the image
+     */
+    public long offset(int frame) {
+        return offsets[frame];
+    }
+
+    /**
+     * @param frame image number, starting at 0
+     * @return length of the image in bytes
+     */
+    public int length(int frame) {
+        return lengths[frame];
+    }
+
+    /**
+     * @param frame image number, starting at 0
+     * @return fingerprint of the image header
+     */
+    public long fingerprint(int frame) {
+        return fingerprints[frame];
+    }
+
+    /**
+     * @return number of images in the index
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,41 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * Source of consecutive JPEG images of a video file.
+ *
+ * Implementations differ in how the file is accessed, the images are always
+ * handed out from SOI to EOI marker (both inclusive).
+ */
+public interface FrameSource {
+    /**
+     * Get the next JPEG image.
+     *
+     * The returned buffer is positioned at the SOI marker and limited right
+     * after the EOI marker. It must not be modified and is only guaranteed
+     * to be valid until the next call.
+     *
+     * @return JPEG image, null if there is no further complete image
+     */
+    ByteBuffer nextFrame();
+
+    /**
+     * Get the position of the image last returned by nextFrame().
+     *
+     * @return file offset of the SOI marker, -1 if no image was returned yet
+     */
+    long frameOffset();
+
+    /**
+     * Continue reading at the given file offset.
+     *
+     * @param offset file offset to search the next image from
+     * @return true if successful, false otherwise
+     */
+    boolean seek(long offset);
+
+    /**
+     * Close the source and release all resources.
+     */
+    void close();
+}
@@ -0,0 +1,118 @@
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded LRU cache of the metadata of JPEG headers.
+ *
+ * The metadata is looked up by the fingerprint of the header, a hit is
+ * confirmed by comparing the header bytes. The cached metadata is shared
+ * between all images with the same header and must not be modified.
+ *
+ * The cache may be used by multiple threads.
+ */
+public class HeaderCache {
+    private LinkedHashMap<Long, CachedHeader> entries;
+    private int capacity;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static class CachedHeader {
+        byte[] header;
+        JpegRtpMetadata metadata;
+    }
+
+
+    /**
+     * Create a HeaderCache.
+     *
+     * @param capacity maximum number of cached headers
+     */
+    public HeaderCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid cache size: " + capacity);
+        }
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Long, CachedHeader>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedHeader> eldest) {
+                if (size() > HeaderCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Look up the metadata of a header.
+     *
+     * @param fingerprint fingerprint of the header
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param headerLength length of the header
+     * @return cached metadata, null if the header is not cached
+     */
+    public synchronized JpegRtpMetadata get(long fingerprint, ByteBuffer data, int headerLength) {
+        CachedHeader entry = entries.get(fingerprint);
+        if (entry != null && entry.header.length == headerLength) {
+            boolean equal = true;
+            for (int i = 0; i < headerLength; i++) {
+                if (entry.header[i] != data.get(i)) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) {
+                hits++;
+                return entry.metadata;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Add the metadata of a header to the cache.
+     *
+     * @param fingerprint fingerprint of the header
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param headerLength length of the header
+     * @param metadata metadata of the header
+     */
+    public synchronized void put(long fingerprint, ByteBuffer data, int headerLength, JpegRtpMetadata metadata) {
+        CachedHeader entry = new CachedHeader();
+        entry.header = new byte[headerLength];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(entry.header);
+        entry.metadata = metadata;
+        entries.put(fingerprint, entry);
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return statistics of the cache in a readable form
+     */
+    public synchronized String statistics() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0.0 : 100.0 * hits / lookups;
+        return String.format("header cache: %d hits, %d misses, %d evictions (hit rate %.1f %%)",
+                hits, misses, evictions, hitRate);
+    }
+}
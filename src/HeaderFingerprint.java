@@ -0,0 +1,66 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Fast 64 bit hash of the header of an JPEG image.
+ *
+ * The header covers all bytes from SOI up to the end of the first SOS
+ * segment. Images with byte-identical headers share all metadata, so
+ * comparing fingerprints replaces parsing and comparing the metadata.
+ */
+public class HeaderFingerprint {
+    /* fingerprint of images without a parseable header */
+    public static final long NONE = 0;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+
+    private HeaderFingerprint() {
+    }
+
+    /**
+     * Compute the fingerprint of the header of an JPEG image.
+     *
+     * @param data JPEG image from position to limit, the buffer is not modified
+     * @return fingerprint, NONE if the header is malformed
+     */
+    public static long of(ByteBuffer data) {
+        ByteBuffer frame = data.slice();
+        int length = JpegMarkerParser.headerLength(frame);
+        if (length == -1) {
+            return NONE;
+        }
+        return hash(frame, length);
+    }
+
+    /**
+     * Hash the first bytes of a buffer.
+     *
+     * @param data buffer starting at index 0, the buffer is not modified
+     * @param length number of bytes to hash
+     * @return hash value, never NONE
+     */
+    public static long hash(ByteBuffer data, int length) {
+        ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long h = PRIME3 + length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) { // eight bytes at a time
+            h ^= Long.rotateLeft(buf.getLong(i) * PRIME2, 31) * PRIME1;
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME3;
+        }
+        for (; i < length; i++) {
+            h ^= (buf.get(i) & 0xFF) * PRIME3;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+
+        // final mixing of the bits
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h == NONE ? 1 : h;
+    }
+}
@@ -0,0 +1,503 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+
+/**
+ * Decodes the Huffman-coded data of a sequential JPEG image, to check that
+ * the scan is complete and decodable with the tables of the image.
+ *
+ * The Huffman symbols of every block of every MCU are decoded and the
+ * coefficient bits are skipped, the coefficients are neither dequantized
+ * nor transformed. The number of MCUs follows from the size and sampling
+ * factors in the SOF segment; the data of a scan must end with its last
+ * MCU. Every distinct Huffman table is converted into a lookup table once
+ * (see HuffmanTable), the tables are shared by all images and threads.
+ * The restart intervals of an image with a DRI segment are independent of
+ * each other, they are located with a RestartIndex and decoded in
+ * parallel.
+ */
+public class HuffmanScanDecoder {
+    private int restartInterval = 0;
+    private int mcus = 0;
+    private HuffmanTable[] dcTables; // per block of an MCU
+    private HuffmanTable[] acTables;
+    private int scanStart = 0;
+    private String error = null;
+
+    /** minimum number of restart intervals and bytes of a scan to decode it in parallel */
+    private static final int PARALLEL_MIN_INTERVALS = 8;
+    private static final int PARALLEL_MIN_BYTES = 64 << 10;
+    private static final int SOF1 = 0xC1; // extended sequential, Huffman
+    private static final int MAX_BLOCKS_PER_MCU = 10;
+    private static final int MAX_CACHED_TABLES = 256;
+    private static final ConcurrentHashMap<ByteBuffer, HuffmanTable> tables = new ConcurrentHashMap<>();
+
+
+    private HuffmanScanDecoder() {
+    }
+
+    /**
+     * Decode the scan of an image.
+     *
+     * @param image JPEG image from position to limit, the buffer is not modified
+     * @return null if all MCUs of the image decode, otherwise a description of the first error
+     */
+    public static String verify(ByteBuffer image) {
+        ByteBuffer data = image.slice();
+        HuffmanScanDecoder decoder = parseHeader(data);
+        if (decoder.error != null) {
+            return decoder.error;
+        }
+        return decoder.decode(data);
+    }
+
+    private String decode(ByteBuffer data) {
+        RestartIndex index = RestartIndex.scan(data, scanStart);
+        if (restartInterval == 0 || restartInterval >= mcus) {
+            return decodeInterval(data, scanStart, index.scanEnd(), 0, mcus);
+        }
+
+        // the intervals end at the restart markers RST0 ... RST7 ... in turn
+        String mismatch = index.check(restartInterval, mcus);
+        if (mismatch != null) {
+            return mismatch;
+        }
+        IntStream range = IntStream.range(0, index.intervals());
+        if (index.intervals() >= PARALLEL_MIN_INTERVALS && index.scanEnd() - scanStart >= PARALLEL_MIN_BYTES) {
+            range = range.parallel();
+        }
+        String[] errors = range
+                .mapToObj(k -> decodeInterval(data, index.intervalStart(k), index.intervalEnd(k), k * restartInterval,
+                        Math.min(restartInterval, mcus - k * restartInterval)))
+                .toArray(String[]::new);
+        for (String e : errors) {
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode the MCUs of a restart interval (or the whole scan).
+     *
+     * @param from begin of the entropy-coded data of the interval
+     * @param to end of the data, i.e. the index of the following marker
+     * @param first number of the first MCU, for the error messages
+     * @param count number of MCUs in the interval
+     * @return null if the MCUs decode and fill the interval, otherwise a description of the error
+     */
+    private String decodeInterval(ByteBuffer data, int from, int to, int first, int count) {
+        BitReader in = new BitReader(data, from, to);
+        int blocks = dcTables.length;
+        for (int mcu = 0; mcu < count; mcu++) {
+            for (int b = 0; b < blocks; b++) {
+                in.fill();
+                int s = dcTables[b].decode(in);
+                if (s < 0 || s > 11) {
+                    return error(in, first + mcu, "invalid DC code");
+                }
+                in.skip(s);
+                for (int k = 1; k < 64; k++) {
+                    in.fill();
+                    int rs = acTables[b].decode(in);
+                    if (rs < 0) {
+                        return error(in, first + mcu, "invalid AC code");
+                    }
+                    int r = rs >> 4;
+                    s = rs & 0x0F;
+                    if (s == 0) {
+                        if (r != 15) {
+                            break; // end of block
+                        }
+                        k += 15;
+                    } else {
+                        k += r;
+                        in.skip(s);
+                    }
+                    if (k > 63 || s > 10) {
+                        return error(in, first + mcu, "AC coefficient out of range");
+                    }
+                }
+            }
+            if (in.overrun()) {
+                return in.marker() ? unexpectedMarker(data, in, first + mcu)
+                        : error(in, first + mcu, "entropy-coded data ends");
+            }
+        }
+        if (in.marker()) {
+            return unexpectedMarker(data, in, first + count - 1);
+        }
+        if (in.remaining() >= 8) {
+            return String.format("%d bytes of entropy-coded data after MCU %d of %d at image offset %d",
+                    in.remaining() / 8, first + count, mcus, in.offset());
+        }
+        if (!in.paddedWithOnes()) {
+            return error(in, first + count - 1, "entropy-coded data not padded with 1-bits");
+        }
+        return null;
+    }
+
+    private String error(BitReader in, int mcu, String message) {
+        return String.format("%s in MCU %d of %d at image offset %d", message, mcu + 1, mcus, in.offset());
+    }
+
+    private String unexpectedMarker(ByteBuffer data, BitReader in, int mcu) {
+        return error(in, mcu, String.format("unexpected marker 0xff%02x", data.get(in.offset() + 1) & 0xFF));
+    }
+
+    /**
+     * Collect the components, Huffman tables and restart interval of the
+     * first scan of an image.
+     *
+     * @param data JPEG image starting at index 0
+     * @return decoder, its error is set if the image cannot be decoded
+     */
+    private static HuffmanScanDecoder parseHeader(ByteBuffer data) {
+        HuffmanScanDecoder decoder = new HuffmanScanDecoder();
+        HuffmanTable[][] huffman = new HuffmanTable[2][4];
+        int[] ids = null;
+        int[] h = null;
+        int[] v = null;
+        int width = 0;
+        int height = 0;
+
+        int limit = data.limit();
+        int idx = 2;
+        while (idx + 4 <= limit) {
+            if (data.get(idx) != VideoFileBuffer.JPEG_MARKER) {
+                decoder.error = "expected JPEG marker at image offset " + idx;
+                return decoder;
+            }
+            int marker = data.get(idx+1) & 0xFF;
+            if (marker == 0xFF) { // fill byte
+                idx++;
+                continue;
+            }
+            idx += 2;
+            if (marker == JpegMarkerParser.TEM || (marker >= JpegMarkerParser.RST0 && marker <= JpegMarkerParser.RST7)) {
+                continue; // marker without segment
+            }
+            int length = (data.get(idx) & 0xFF) << 8 | (data.get(idx+1) & 0xFF);
+            int seg = idx + 2;
+            int end = idx + length;
+            if (length < 2 || end > limit) {
+                break;
+            }
+            if (marker == JpegMarkerParser.SOF0 || marker == SOF1) {
+                if (end - seg < 6) {
+                    break;
+                }
+                height = (data.get(seg+1) & 0xFF) << 8 | (data.get(seg+2) & 0xFF);
+                width = (data.get(seg+3) & 0xFF) << 8 | (data.get(seg+4) & 0xFF);
+                int n = data.get(seg+5) & 0xFF;
+                if (n == 0 || seg + 6 + 3 * n > end) {
+                    break;
+                }
+                ids = new int[n];
+                h = new int[n];
+                v = new int[n];
+                for (int i = 0; i < n; i++) {
+                    ids[i] = data.get(seg + 6 + 3*i) & 0xFF;
+                    h[i] = (data.get(seg + 7 + 3*i) & 0xF0) >> 4;
+                    v[i] = data.get(seg + 7 + 3*i) & 0x0F;
+                    if (h[i] < 1 || h[i] > 4 || v[i] < 1 || v[i] > 4) {
+                        decoder.error = "invalid sampling factors of component " + ids[i];
+                        return decoder;
+                    }
+                }
+            } else if (marker >= JpegMarkerParser.SOF0 && marker <= 0xCF && marker != JpegMarkerParser.DHT
+                    && marker != JpegMarkerParser.JPG && marker != JpegMarkerParser.DAC) {
+                decoder.error = String.format("decoding of SOF%d images is not supported", marker - JpegMarkerParser.SOF0);
+                return decoder;
+            } else if (marker == JpegMarkerParser.DHT) {
+                for (int i = seg; i + 17 <= end; ) {
+                    int tc = (data.get(i) & 0xF0) >> 4;
+                    int th = data.get(i) & 0x0F;
+                    int count = 0;
+                    for (int l = 1; l <= 16; l++) {
+                        count += data.get(i+l) & 0xFF;
+                    }
+                    if (tc > 1 || th > 3 || i + 17 + count > end) {
+                        decoder.error = "invalid DHT segment at image offset " + (idx - 2);
+                        return decoder;
+                    }
+                    huffman[tc][th] = HuffmanTable.of(data, i + 1, 16 + count);
+                    if (huffman[tc][th] == null) {
+                        decoder.error = "invalid Huffman table at image offset " + i;
+                        return decoder;
+                    }
+                    i += 17 + count;
+                }
+            } else if (marker == JpegMarkerParser.DRI) {
+                if (end - seg >= 2) {
+                    decoder.restartInterval = (data.get(seg) & 0xFF) << 8 | (data.get(seg+1) & 0xFF);
+                }
+            } else if (marker == JpegMarkerParser.SOS) {
+                if (ids == null) {
+                    decoder.error = "no SOF segment before the scan";
+                    return decoder;
+                }
+                decoder.scanStart = end;
+                decoder.components(data, seg, end, huffman, ids, h, v, width, height);
+                return decoder;
+            } else if (marker == JpegMarkerParser.EOI) {
+                break;
+            }
+            idx = end;
+        }
+        decoder.error = "no scan found";
+        return decoder;
+    }
+
+    /**
+     * Determine the blocks of an MCU and their tables from the SOS segment.
+     */
+    private void components(ByteBuffer data, int seg, int end, HuffmanTable[][] huffman,
+            int[] ids, int[] h, int[] v, int width, int height) {
+        int ns = data.get(seg) & 0xFF;
+        if (ns < 1 || ns > 4 || seg + 1 + 2 * ns > end) {
+            error = "invalid SOS segment";
+            return;
+        }
+        int hmax = Arrays.stream(h).max().getAsInt();
+        int vmax = Arrays.stream(v).max().getAsInt();
+        dcTables = new HuffmanTable[MAX_BLOCKS_PER_MCU];
+        acTables = new HuffmanTable[MAX_BLOCKS_PER_MCU];
+        int blocks = 0;
+        for (int i = 0; i < ns; i++) {
+            int cs = data.get(seg + 1 + 2*i) & 0xFF;
+            int td = (data.get(seg + 2 + 2*i) & 0xF0) >> 4;
+            int ta = data.get(seg + 2 + 2*i) & 0x0F;
+            int c = 0;
+            while (c < ids.length && ids[c] != cs) {
+                c++;
+            }
+            if (c == ids.length) {
+                error = "scan component " + cs + " is not in the SOF segment";
+                return;
+            }
+            HuffmanTable dc = td < 4 ? huffman[0][td] : null;
+            HuffmanTable ac = ta < 4 ? huffman[1][ta] : null;
+            if (dc == null || ac == null) {
+                error = "Huffman table of scan component " + cs + " not defined";
+                return;
+            }
+            int n = ns == 1 ? 1 : h[c] * v[c]; // a non-interleaved scan has one block per MCU
+            if (blocks + n > MAX_BLOCKS_PER_MCU) {
+                error = "more than " + MAX_BLOCKS_PER_MCU + " blocks per MCU";
+                return;
+            }
+            for (int j = 0; j < n; j++, blocks++) {
+                dcTables[blocks] = dc;
+                acTables[blocks] = ac;
+            }
+            if (ns == 1) {
+                int componentWidth = (width * h[c] + hmax - 1) / hmax;
+                int componentHeight = (height * v[c] + vmax - 1) / vmax;
+                mcus = ((componentWidth + 7) / 8) * ((componentHeight + 7) / 8);
+            }
+        }
+        if (ns > 1) {
+            mcus = ((width + 8 * hmax - 1) / (8 * hmax)) * ((height + 8 * vmax - 1) / (8 * vmax));
+        }
+        dcTables = Arrays.copyOf(dcTables, blocks);
+        acTables = Arrays.copyOf(acTables, blocks);
+        if (mcus == 0) {
+            error = "image size of 0 pixels";
+        }
+    }
+
+    /**
+     * Reads the bits of entropy-coded data, removing the stuffed 0x00 bytes.
+     *
+     * The bits are kept left-aligned in a long word. At a marker or the end
+     * of the data zero bytes are appended, which are counted so that
+     * reading beyond the data can be detected.
+     */
+    private static final class BitReader {
+        private final ByteBuffer data;
+        private final int start;
+        private final int end;
+        private int pos;
+        private long bits = 0;
+        private int count = 0; // number of bits in the word
+        private int padding = 0; // number of appended zero bits
+        private boolean marker = false;
+
+        BitReader(ByteBuffer data, int from, int to) {
+            this.data = data;
+            this.start = from;
+            this.pos = from;
+            this.end = to;
+        }
+
+        /**
+         * Make sure at least 32 bits are available, enough for a Huffman
+         * code and the following coefficient bits.
+         */
+        void fill() {
+            while (count <= 56) {
+                int b = 0;
+                if (!marker && pos < end) {
+                    b = data.get(pos) & 0xFF;
+                    pos++;
+                    if (b == 0xFF) {
+                        int next = pos < end ? data.get(pos) & 0xFF : -1;
+                        if (next == 0x00) {
+                            pos++; // stuffed byte
+                        } else if (next == 0xFF || next == -1) {
+                            continue; // fill byte
+                        } else {
+                            marker = true;
+                            pos--;
+                            b = 0;
+                            padding += 8;
+                        }
+                    }
+                } else {
+                    padding += 8;
+                }
+                bits |= (long)b << (56 - count);
+                count += 8;
+            }
+        }
+
+        int peek(int n) {
+            return (int)(bits >>> (64 - n));
+        }
+
+        void skip(int n) {
+            bits <<= n;
+            count -= n;
+        }
+
+        boolean overrun() {
+            return count < padding;
+        }
+
+        /**
+         * @return true if a marker was found before the end of the data, offset() is its index then
+         */
+        boolean marker() {
+            return marker;
+        }
+
+        /**
+         * @return true if the bits left in the word are 1-bits, i.e. the padding at the end of a segment
+         */
+        boolean paddedWithOnes() {
+            int n = count - padding;
+            return n <= 0 || peek(n) == (1 << n) - 1;
+        }
+
+        /**
+         * @return number of bits of the data not read yet
+         */
+        long remaining() {
+            return (long)(count - padding) + 8L * (marker ? 0 : end - pos);
+        }
+
+        /**
+         * @return approximate offset of the next bit in the image
+         */
+        int offset() {
+            return marker && count <= padding ? pos : Math.max(start, pos - Math.max(0, count - padding) / 8);
+        }
+    }
+
+    /**
+     * Huffman table with a lookup table for the codes up to LOOKAHEAD bits
+     * and the canonical decoding (ISO 10918-1 F.2.2.3) for longer codes.
+     */
+    private static final class HuffmanTable {
+        private static final int LOOKAHEAD = 9;
+        private final int[] lookup = new int[1 << LOOKAHEAD]; // code length << 8 | symbol, 0 if longer
+        private final int[] maxCode = new int[17];
+        private final int[] valueOffset = new int[17];
+        private final int[] values;
+
+        private HuffmanTable(int[] counts, int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int l = 1; l <= 16; l++) {
+                valueOffset[l] = k - code;
+                for (int i = 0; i < counts[l]; i++, k++, code++) {
+                    if (l <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - l;
+                        int entry = l << 8 | values[k];
+                        Arrays.fill(lookup, code << shift, (code + 1) << shift, entry);
+                    }
+                }
+                maxCode[l] = counts[l] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+        }
+
+        /**
+         * Get the lookup table of a table from a DHT segment.
+         *
+         * @param data DHT segment
+         * @param idx index of the 16 code counts, followed by the symbols
+         * @param length length of the counts and symbols
+         * @return table, null if the code counts are invalid
+         */
+        static HuffmanTable of(ByteBuffer data, int idx, int length) {
+            byte[] key = new byte[length];
+            ByteBuffer src = data.duplicate();
+            src.position(idx);
+            src.get(key);
+            ByteBuffer wrapped = ByteBuffer.wrap(key);
+            HuffmanTable table = tables.get(wrapped);
+            if (table != null) {
+                return table;
+            }
+
+            int[] counts = new int[17];
+            long codes = 0; // available codes of the current length
+            for (int l = 1; l <= 16; l++) {
+                counts[l] = key[l-1] & 0xFF;
+                codes = codes * 2 + (l == 1 ? 2 : 0);
+                if (counts[l] > codes - (l == 16 ? 1 : 0)) {
+                    return null; // more codes than fit (the all-ones code is reserved)
+                }
+                codes -= counts[l];
+            }
+            int[] values = new int[length - 16];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = key[16 + i] & 0xFF;
+            }
+            table = new HuffmanTable(counts, values);
+            if (tables.size() >= MAX_CACHED_TABLES) {
+                tables.clear();
+            }
+            tables.putIfAbsent(wrapped, table);
+            return table;
+        }
+
+        /**
+         * Decode a symbol, the reader must hold at least 16 bits.
+         *
+         * @return symbol, -1 if the code is invalid
+         */
+        int decode(BitReader in) {
+            int entry = lookup[in.peek(LOOKAHEAD)];
+            if (entry != 0) {
+                in.skip(entry >> 8);
+                return entry & 0xFF;
+            }
+            int code = in.peek(16);
+            for (int l = LOOKAHEAD + 1; l <= 16; l++) {
+                int c = code >>> (16 - l);
+                if (c <= maxCode[l]) {
+                    in.skip(l);
+                    return values[valueOffset[l] + c];
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * Source of images whose positions are known from an index of the file
+ * (e.g. the index of an AVI file or the sample table of a QuickTime file),
+ * so any image can be read directly without reading the images before it.
+ */
+public interface IndexedFrameSource extends FrameSource {
+    /**
+     * @return number of indexed images
+     */
+    int indexedFrames();
+
+    /**
+     * Continue reading at an indexed image.
+     *
+     * @param frame number of the image, starting at 0
+     * @return true if successful, false otherwise
+     */
+    boolean seekFrame(int frame);
+}
@@ -0,0 +1,306 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * Parses the marker segments of an JPEG image directly from its bytes.
+ *
+ * The segments are walked by their length fields from SOI up to the
+ * first SOS segment, the entropy-coded data is not touched for the
+ * usual single-scan images.
+ */
+public class JpegMarkerParser {
+    public static final int SOF0 = 0xC0; // baseline DCT
+    public static final int DHT = 0xC4;
+    public static final int JPG = 0xC8;
+    public static final int DAC = 0xCC;
+    public static final int RST0 = 0xD0;
+    public static final int RST7 = 0xD7;
+    public static final int SOI = 0xD8;
+    public static final int EOI = 0xD9;
+    public static final int SOS = 0xDA;
+    public static final int DQT = 0xDB;
+    public static final int DRI = 0xDD;
+    public static final int APP0 = 0xE0;
+    public static final int TEM = 0x01;
+
+    private JpegMarkerParser() {
+    }
+
+    /**
+     * Parse the header of an JPEG image into a metadata structure.
+     *
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param jrm metadata structure to fill
+     * @return true if successful, false if the header is malformed
+     */
+    public static boolean parse(ByteBuffer data, JpegRtpMetadata jrm) {
+        int limit = data.limit();
+        if (limit < 4 || data.get(0) != VideoFileBuffer.JPEG_MARKER
+                || (data.get(1) & 0xFF) != SOI) {
+            System.out.println("Error: JPEG image does not start with SOI marker");
+            return false;
+        }
+
+        int idx = 2;
+        while (idx < limit - 1) {
+            if (data.get(idx) != VideoFileBuffer.JPEG_MARKER) {
+                System.out.println("Error: expected JPEG marker at offset " + idx);
+                return false;
+            }
+            int marker = data.get(idx+1) & 0xFF;
+            idx += 2;
+            if (marker == 0xFF) { // fill byte
+                idx--;
+                continue;
+            }
+            if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+                continue; // marker without segment
+            }
+            if (marker == EOI) {
+                break;
+            }
+            if (idx + 2 > limit) {
+                break;
+            }
+
+            /* length includes the length parameter itself */
+            int length = (data.get(idx) & 0xFF) << 8 | (data.get(idx+1) & 0xFF);
+            int end = idx + length;
+            if (length < 2 || end > limit) {
+                System.out.println("Error: truncated JPEG segment at offset " + (idx - 2));
+                return false;
+            }
+            int seg = idx + 2; // begin of the segment parameters
+
+            if (marker == APP0) {
+                parseApp0(data, seg, end, jrm);
+            } else if (marker == DQT) {
+                parseDqt(data, seg, end, jrm);
+            } else if (marker == DHT) {
+                parseDht(data, seg, end, jrm);
+            } else if (marker == DRI && length >= 4) {
+                jrm.restartInterval = (data.get(seg) & 0xFF) << 8 | (data.get(seg+1) & 0xFF);
+            } else if (marker >= SOF0 && marker <= 0xCF
+                    && marker != DHT && marker != JPG && marker != DAC) {
+                parseSof(data, seg, end, marker, jrm);
+            } else if (marker == SOS) {
+                if (jrm.subsampling == null) {
+                    System.out.println("Error: no SOF segment before SOS");
+                    return false;
+                }
+                jrm.numSOS++;
+                jrm.headerLength = end;
+                jrm.qFactor = Rfc2435Tables.qFactor(jrm);
+                int numScanComponents = data.get(seg) & 0xFF;
+                if (numScanComponents != jrm.numFrameComponents || !jrm.baseline) {
+                    /* the image consists of multiple scans, they need to be counted */
+                    jrm.numSOS += countScans(data, end);
+                }
+                return true;
+            }
+            idx = end;
+        }
+
+        System.out.println("Error: no SOS marker found in JPEG image");
+        return false;
+    }
+
+    /**
+     * Check whether a marker starts a header segment that is skipped by its
+     * length when searching the end of an image in a file or stream: every
+     * marker with a length except SOS. So an EOI marker inside a segment,
+     * e.g. of an EXIF thumbnail in an APP1 segment, does not end the image.
+     *
+     * @param marker marker byte following 0xFF
+     * @return true if the segment is skipped by its length
+     */
+    public static boolean isHeaderSegment(int marker) {
+        return marker != SOS && marker != SOI && marker != EOI && marker != TEM && marker != 0xFF
+                && marker != 0x00 && (marker < RST0 || marker > RST7);
+    }
+
+    /**
+     * Determine the length of the header of an JPEG image, i.e. the offset
+     * of the entropy-coded data following the first SOS segment.
+     *
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @return length of the header, -1 if the header is malformed
+     */
+    public static int headerLength(ByteBuffer data) {
+        int limit = data.limit();
+        if (limit < 4 || data.get(0) != VideoFileBuffer.JPEG_MARKER
+                || (data.get(1) & 0xFF) != SOI) {
+            return -1;
+        }
+
+        int idx = 2;
+        while (idx + 4 <= limit) {
+            if (data.get(idx) != VideoFileBuffer.JPEG_MARKER) {
+                return -1;
+            }
+            int marker = data.get(idx+1) & 0xFF;
+            if (marker == 0xFF) { // fill byte
+                idx++;
+                continue;
+            }
+            idx += 2;
+            if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+                continue; // marker without segment
+            }
+            if (marker == EOI) {
+                return -1;
+            }
+            int length = (data.get(idx) & 0xFF) << 8 | (data.get(idx+1) & 0xFF);
+            if (length < 2) {
+                return -1;
+            }
+            idx += length;
+            if (marker == SOS) {
+                return idx <= limit ? idx : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static void parseApp0(ByteBuffer data, int idx, int end, JpegRtpMetadata jrm) {
+        if (end - idx < 12) {
+            return;
+        }
+        if (data.get(idx) != 'J' || data.get(idx+1) != 'F' || data.get(idx+2) != 'I'
+                || data.get(idx+3) != 'F' || data.get(idx+4) != 0) {
+            return; // JFXX or other application data
+        }
+        int xdens = (data.get(idx+8) & 0xFF) << 8 | (data.get(idx+9) & 0xFF);
+        int ydens = (data.get(idx+10) & 0xFF) << 8 | (data.get(idx+11) & 0xFF);
+        jrm.pixelAspectRatio = (double)xdens/ydens;
+    }
+
+    private static void parseDht(ByteBuffer data, int idx, int end, JpegRtpMetadata jrm) {
+        while (idx + 17 <= end) {
+            int tc = (data.get(idx) & 0xF0) >> 4; // table class
+            int th = (data.get(idx) & 0x0F); // huffman destination id
+
+            int numEntries = 0;
+            for (int i = 1; i <= 16; i++) { // there are 16 entries
+                numEntries += data.get(idx+i) & 0xFF;
+            }
+            int tblEnd = idx + 1 + 16 + numEntries;
+            if (tblEnd > end) {
+                break;
+            }
+
+            byte[] tbl = new byte[16 + numEntries];
+            ByteBuffer src = data.duplicate();
+            src.position(idx + 1);
+            src.get(tbl);
+            if (tc == 0) { // DC
+                if (th == 0) { // lum according to RFC 2435
+                    jrm.huffmanLumDc = tbl;
+                } else if (th == 1) { // chr according to RFC 2435
+                    jrm.huffmanChmDc = tbl;
+                }
+                // else is not supported
+            } else if (tc == 1) { // AC
+                if (th == 0) { // lum according to RFC 2435
+                    jrm.huffmanLumAc = tbl;
+                } else if (th == 1) { // chr according to RFC 2435
+                    jrm.huffmanChmAc = tbl;
+                }
+                // else is not supported
+            }
+            // else is not supported
+
+            jrm.numDHT++;
+            idx = tblEnd;
+        }
+    }
+
+    private static void parseDqt(ByteBuffer data, int idx, int end, JpegRtpMetadata jrm) {
+        while (idx < end) {
+            int pq = (data.get(idx) & 0xF0) >> 4; // precision: 0 = 8 bit, 1 = 16 bit
+            int tq = data.get(idx) & 0x0F; // destination id
+            int length = pq == 0 ? 64 : 128;
+            if (idx + 1 + length > end) {
+                break;
+            }
+            if (tq < jrm.quantizationTables.length) {
+                byte[] tbl = new byte[length];
+                ByteBuffer src = data.duplicate();
+                src.position(idx + 1);
+                src.get(tbl);
+                jrm.quantizationTables[tq] = tbl;
+            }
+            jrm.numDQT++;
+            idx += 1 + length;
+        }
+    }
+
+    private static void parseSof(ByteBuffer data, int idx, int end, int marker, JpegRtpMetadata jrm) {
+        if (end - idx < 6) {
+            return;
+        }
+        int process = marker - SOF0;
+        jrm.baseline = process == 0;
+        jrm.huffman = process < 8; // SOF9 and above use arithmetic coding
+        jrm.samplePrecision = data.get(idx) & 0xFF;
+        jrm.height = (data.get(idx+1) & 0xFF) << 8 | (data.get(idx+2) & 0xFF);
+        jrm.width = (data.get(idx+3) & 0xFF) << 8 | (data.get(idx+4) & 0xFF);
+        jrm.numFrameComponents = data.get(idx+5) & 0xFF;
+
+        byte[][] samplFact = new byte[3][2]; // three components, horizontal and vertical
+        boolean applyDecrement = false;
+        int hmax = 1;
+        int vmax = 1;
+        jrm.quantizationSelectors = new int[jrm.numFrameComponents];
+        int comp = idx + 6;
+        for (int i = 0; i < jrm.numFrameComponents && comp + 3 <= end; i++, comp += 3) {
+            hmax = Math.max(hmax, (data.get(comp+1) & 0xF0) >> 4);
+            vmax = Math.max(vmax, data.get(comp+1) & 0x0F);
+            jrm.quantizationSelectors[i] = data.get(comp+2) & 0x0F;
+            int id = data.get(comp) & 0xFF;
+            if (i == 0) {
+                applyDecrement = id >= 1;
+            }
+            if (applyDecrement) {
+                id--;
+            }
+            if (id < 0 || id >= samplFact.length) {
+                continue;
+            }
+            samplFact[id][0] = (byte)((data.get(comp+1) & 0xF0) >> 4);
+            samplFact[id][1] = (byte)(data.get(comp+1) & 0x0F);
+        }
+        /* MCUs of an interleaved scan */
+        jrm.mcus = ((jrm.width + 8 * hmax - 1) / (8 * hmax)) * ((jrm.height + 8 * vmax - 1) / (8 * vmax));
+
+        jrm.subsampling = new byte[1][3];
+        jrm.subsampling[0][0] = 4;
+        for (int j = 1; j < 3; j++) {
+            double hfract = (double) samplFact[j][0] / samplFact[0][0];
+            double vfract = (double) samplFact[j][1] / samplFact[0][1];
+            if (hfract == 0.5 && vfract == 0.5) {
+                jrm.subsampling[0][j] = 0; // indicator for 4:2:0
+            } else {
+                jrm.subsampling[0][j] = (byte)(hfract * jrm.subsampling[0][0]);
+            }
+        }
+        if (jrm.subsampling[0][1] == 0 && jrm.subsampling[0][2] == 0) {
+            // 4:2:0 recognized
+            jrm.subsampling[0][1] = 2;
+        }
+    }
+
+    /**
+     * Count the SOS markers following the first scan.
+     */
+    private static int countScans(ByteBuffer data, int idx) {
+        int count = 0;
+        int end = data.limit() - 1;
+        for (int i = idx; i < end; i++) {
+            if (data.get(i) == VideoFileBuffer.JPEG_MARKER && (data.get(i+1) & 0xFF) == SOS) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -1,7 +1,7 @@
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.Integer;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import javax.imageio.ImageIO;
@@ -33,8 +33,79 @@ public class JpegMetadataExtractor {
      * @return metadata structure if successful, null in case of an error
      */
     public static JpegRtpMetadata extractMetadata(byte[] data) {
+        return extractMetadata(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Extract metadata from an JPEG image.
+     *
+     * The marker segments are parsed directly from the image data,
+     * parsing stops at the SOS segment.
+     *
+     * @param data JPEG image from position to limit, the buffer is not modified
+     * @return metadata structure if successful, null in case of an error
+     */
+    public static JpegRtpMetadata extractMetadata(ByteBuffer data) {
+        JpegRtpMetadata jrm = new JpegRtpMetadata();
+        ByteBuffer frame = data.slice();
+        if (!JpegMarkerParser.parse(frame, jrm)) {
+            return null;
+        }
+        jrm.fingerprint = HeaderFingerprint.hash(frame, jrm.headerLength);
+        return jrm;
+    }
+
+    /**
+     * Extract metadata from an JPEG image using a cache.
+     *
+     * The header is just parsed if its fingerprint is not found in the
+     * cache. The returned metadata may be shared with other images and
+     * must not be modified.
+     *
+     * @param data JPEG image from position to limit, the buffer is not modified
+     * @param cache cache of already parsed headers
+     * @return metadata structure if successful, null in case of an error
+     */
+    public static JpegRtpMetadata extractMetadata(ByteBuffer data, HeaderCache cache) {
+        ByteBuffer frame = data.slice();
+        int headerLength = JpegMarkerParser.headerLength(frame);
+        if (headerLength == -1) {
+            return extractMetadata(frame); // reports the error
+        }
+        long fingerprint = HeaderFingerprint.hash(frame, headerLength);
+        JpegRtpMetadata jrm = cache.get(fingerprint, frame, headerLength);
+        if (jrm != null) {
+            return jrm;
+        }
+        jrm = extractMetadata(frame);
+        if (jrm != null) {
+            cache.put(fingerprint, frame, headerLength, jrm);
+        }
+        return jrm;
+    }
+
+    /**
+     * Extract metadata from an JPEG image using the metadata tree of ImageIO.
+     *
+     * This is considerably slower than extractMetadata() and is used for
+     * cross-checking the results of the marker parser (--cross-check).
+     *
+     * @param data JPEG image from position to limit, the buffer is not modified
+     * @return metadata structure if successful, null in case of an error
+     */
+    public static JpegRtpMetadata extractMetadataImageIO(ByteBuffer data) {
         JpegRtpMetadata jrm = new JpegRtpMetadata();
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        data = data.slice();
+
+        // ImageIO caches the whole stream anyway, so a copy is needed just for views
+        byte[] image = null;
+        if (data.hasArray() && data.arrayOffset() == 0 && data.remaining() == data.array().length) {
+            image = data.array();
+        } else {
+            image = new byte[data.remaining()];
+            data.duplicate().get(image);
+        }
+        ByteArrayInputStream bais = new ByteArrayInputStream(image);
         MemoryCacheImageInputStream stream = new MemoryCacheImageInputStream(bais);
         Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
         if (readers.hasNext()) {
@@ -64,10 +135,10 @@ public class JpegMetadataExtractor {
         return jrm;
     }
 
-    private static void extractHuffmanTables(JpegRtpMetadata jrm, byte[] data) {
+    private static void extractHuffmanTables(JpegRtpMetadata jrm, ByteBuffer data) {
         int idx = 1;
-        while (idx < data.length) {
-            if (data[idx-1] == VideoFileBuffer.JPEG_MARKER && data[idx] == VideoFileBuffer.JPEG_DHT) {
+        while (idx < data.limit()) {
+            if (data.get(idx-1) == VideoFileBuffer.JPEG_MARKER && data.get(idx) == VideoFileBuffer.JPEG_DHT) {
                 idx++; // point to length
 
                 /*
@@ -75,22 +146,25 @@ public class JpegMetadataExtractor {
                  * The promotion does sign-extension rather than zero-extension and that is why the
                  * masking is needed.
                  */
-                int length = (data[idx] & 0xFF) << 8 | (data[idx+1] & 0xFF);
+                int length = (data.get(idx) & 0xFF) << 8 | (data.get(idx+1) & 0xFF);
                 idx += 2;
                 length -= 2; // exclude length parameter itself
 
                 int tmpIdx = idx;
                 do {
-                    int tc = (data[tmpIdx] & 0xF0) >> 4; // table class
-                    int th = (data[tmpIdx] & 0x0F); // huffman destination id
+                    int tc = (data.get(tmpIdx) & 0xF0) >> 4; // table class
+                    int th = (data.get(tmpIdx) & 0x0F); // huffman destination id
                     tmpIdx++;
 
                     int numEntries = 0;
                     for (int i = 0; i < 16; i++) { // there are 16 entries
-                        numEntries += data[tmpIdx+i];
+                        numEntries += data.get(tmpIdx+i) & 0xFF;
                     }
 
-                    byte[] tbl = Arrays.copyOfRange(data, tmpIdx, tmpIdx + 16 + numEntries);
+                    byte[] tbl = new byte[16 + numEntries];
+                    ByteBuffer src = data.duplicate();
+                    src.position(tmpIdx);
+                    src.get(tbl);
                     if (tc == 0) { // DC
                         if (th == 0) { // lum according to RFC 2435
                             jrm.huffmanLumDc = tbl;
@@ -118,13 +192,13 @@ public class JpegMetadataExtractor {
 
     private static void parseDht(Node node, JpegRtpMetadata jrm) {
         NodeList list = node.getChildNodes();
-        jrm.numDHT = list.getLength();
+        jrm.numDHT += list.getLength(); // one node per table, a file may have one segment per table
         jrm.huffman = true;
     }
 
     private static void parseDqt(Node node, JpegRtpMetadata jrm) {
         NodeList list = node.getChildNodes();
-        jrm.numDQT = list.getLength();
+        jrm.numDQT += list.getLength();
     }
 
     private static void parseJpegVariety(Node node, JpegRtpMetadata jrm) {
@@ -157,6 +231,9 @@ public class JpegMetadataExtractor {
                 case "sos":
                     JpegMetadataExtractor.parseSos(n, jrm);
                     break;
+                case "dri":
+                    jrm.restartInterval = Integer.parseInt(n.getAttributes().getNamedItem("interval").getNodeValue());
+                    break;
             }
         }
     }
@@ -194,8 +271,12 @@ public class JpegMetadataExtractor {
         byte[][] samplFact = new byte[3][2]; // three components, horizontal and vertical
         NodeList list = node.getChildNodes();
         boolean applyDecrement = false;
+        int hmax = 1;
+        int vmax = 1;
         for (int i = 0; i < list.getLength(); i++) {
             NamedNodeMap compSpecs = list.item(i).getAttributes();
+            hmax = Math.max(hmax, Integer.parseInt(compSpecs.getNamedItem("HsamplingFactor").getNodeValue()));
+            vmax = Math.max(vmax, Integer.parseInt(compSpecs.getNamedItem("VsamplingFactor").getNodeValue()));
             int id = Integer.parseInt(compSpecs.getNamedItem("componentId").getNodeValue());
             if (i == 0) {
                 applyDecrement = id >= 1;
@@ -206,6 +287,7 @@ public class JpegMetadataExtractor {
             samplFact[id][0] = (byte)Integer.parseInt(compSpecs.getNamedItem("HsamplingFactor").getNodeValue());
             samplFact[id][1] = (byte)Integer.parseInt(compSpecs.getNamedItem("VsamplingFactor").getNodeValue());
         }
+        jrm.mcus = ((jrm.width + 8 * hmax - 1) / (8 * hmax)) * ((jrm.height + 8 * vmax - 1) / (8 * vmax));
 
         jrm.subsampling = new byte[1][3];
         jrm.subsampling[0][0] = 4;
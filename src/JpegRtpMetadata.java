@@ -21,26 +21,34 @@ class JpegRtpMetadata {
     public byte[] huffmanChmDc;
     public byte[] huffmanChmAc;
     public byte[][] subsampling;
+    public byte[][] quantizationTables; // per destination Tq, 64 (8 bit) or 128 bytes (16 bit), zigzag order
+    public int[] quantizationSelectors; // Tq of the frame components
+    public int qFactor; // Q 1-99 of RFC 2435 Appendix A matching the tables, 0 if there is none
+    public int restartInterval; // MCUs per restart interval from the DRI segment, 0 for none
+    public int mcus; // number of MCUs of an interleaved scan
+    public int headerLength; // offset of the entropy-coded data
+    public long fingerprint; // see HeaderFingerprint
 
-    private static final String ANSI_ESCAPE_RESET = "\u001B[0m";
-    private static final String ANSI_ESCAPE_RED = "\u001B[31m";
-    private static final String ANSI_ESCAPE_GREEN = "\u001B[32m";
+    private static final ConsoleReporter console = new ConsoleReporter();
+
+    /** stuffingViolation of checkRtp2435Conformance if the image data was not checked */
+    public static final int STUFFING_NOT_CHECKED = -2;
 
     /* huffman codelens and symbols taken from RFC2435 Appendix B,
      * complient with ISO10918-1 Annex K.3 */
-    private static byte[] LUM_DC_CODELENS = {
+    static final byte[] LUM_DC_CODELENS = {
         (byte) 0x00, (byte) 0x01, (byte) 0x05, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01,
         (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
 
-    private static byte[] LUM_DC_SYMBOLS = {
+    static final byte[] LUM_DC_SYMBOLS = {
         (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04, (byte) 0x05, (byte) 0x06, (byte) 0x07,
         (byte) 0x08, (byte) 0x09, (byte) 0x0a, (byte) 0x0b };
 
-    private static byte[] LUM_AC_CODELENS = {
+    static final byte[] LUM_AC_CODELENS = {
         (byte) 0x00, (byte) 0x02, (byte) 0x01, (byte) 0x03, (byte) 0x03, (byte) 0x02, (byte) 0x04, (byte) 0x03,
         (byte) 0x05, (byte) 0x05, (byte) 0x04, (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x7d };
 
-    private static byte[] LUM_AC_SYMBOLS = {
+    static final byte[] LUM_AC_SYMBOLS = {
         (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x00, (byte) 0x04, (byte) 0x11, (byte) 0x05, (byte) 0x12,
         (byte) 0x21, (byte) 0x31, (byte) 0x41, (byte) 0x06, (byte) 0x13, (byte) 0x51, (byte) 0x61, (byte) 0x07,
         (byte) 0x22, (byte) 0x71, (byte) 0x14, (byte) 0x32, (byte) 0x81, (byte) 0x91, (byte) 0xa1, (byte) 0x08,
@@ -63,19 +71,19 @@ class JpegRtpMetadata {
         (byte) 0xf1, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5, (byte) 0xf6, (byte) 0xf7, (byte) 0xf8,
         (byte) 0xf9, (byte) 0xfa };
 
-    private static byte[] CHM_DC_CODELENS = {
+    static final byte[] CHM_DC_CODELENS = {
         (byte) 0x00, (byte) 0x03, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01,
         (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
 
-    private static byte[] CHM_DC_SYMBOLS = {
+    static final byte[] CHM_DC_SYMBOLS = {
         (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x04, (byte) 0x05, (byte) 0x06, (byte) 0x07,
         (byte) 0x08, (byte) 0x09, (byte) 0x0a, (byte) 0x0b };
 
-    private static byte[] CHM_AC_CODELENS = {
+    static final byte[] CHM_AC_CODELENS = {
         (byte) 0x00, (byte) 0x02, (byte) 0x01, (byte) 0x02, (byte) 0x04, (byte) 0x04, (byte) 0x03, (byte) 0x04,
         (byte) 0x07, (byte) 0x05, (byte) 0x04, (byte) 0x04, (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x77 };
 
-    private static byte[] CHM_AC_SYMBOLS = {
+    static final byte[] CHM_AC_SYMBOLS = {
         (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x11, (byte) 0x04, (byte) 0x05, (byte) 0x21,
         (byte) 0x31, (byte) 0x06, (byte) 0x12, (byte) 0x41, (byte) 0x51, (byte) 0x07, (byte) 0x61, (byte) 0x71,
         (byte) 0x13, (byte) 0x22, (byte) 0x32, (byte) 0x81, (byte) 0x08, (byte) 0x14, (byte) 0x42, (byte) 0x91,
@@ -115,75 +123,126 @@ class JpegRtpMetadata {
         huffmanChmDc = null;
         huffmanChmAc = null;
         subsampling = null;
+        quantizationTables = new byte[4][];
+        quantizationSelectors = null;
+        qFactor = 0;
+        restartInterval = 0;
+        mcus = 0;
+        headerLength = 0;
+        fingerprint = HeaderFingerprint.NONE;
     }
 
     public boolean checkRtp2435Conformance() {
+        return checkRtp2435Conformance(console);
+    }
+
+    public boolean checkRtp2435Conformance(int stuffingViolation) {
+        return checkRtp2435Conformance(console, stuffingViolation);
+    }
+
+    public boolean checkRtp2435Conformance(int stuffingViolation, String restartError) {
+        return checkRtp2435Conformance(console, stuffingViolation, restartError);
+    }
+
+    /**
+     * Check the metadata for conformance with RFC 2435.
+     *
+     * @param reporter receives the result of every test
+     * @return true if the metadata is conformant, false otherwise
+     */
+    public boolean checkRtp2435Conformance(Reporter reporter) {
+        return checkRtp2435Conformance(reporter, STUFFING_NOT_CHECKED);
+    }
+
+    /**
+     * Check the metadata and the byte stuffing of an image for conformance
+     * with RFC 2435.
+     *
+     * @param reporter receives the result of every test
+     * @param stuffingViolation offset of the first 0xFF byte in the entropy-coded data
+     *        not followed by 0x00 or RSTn (see ByteStuffingValidator), -1 if there is none,
+     *        STUFFING_NOT_CHECKED if the data is not available
+     * @return true if the image is conformant, false otherwise
+     */
+    public boolean checkRtp2435Conformance(Reporter reporter, int stuffingViolation) {
+        return checkRtp2435Conformance(reporter, stuffingViolation, null);
+    }
+
+    /**
+     * Check the metadata, the byte stuffing and the restart markers of an
+     * image for conformance with RFC 2435.
+     *
+     * The restart markers are only tested for images with a DRI segment
+     * (types 64-127) whose data was checked.
+     *
+     * @param reporter receives the result of every test
+     * @param stuffingViolation offset of the first 0xFF byte in the entropy-coded data
+     *        not followed by 0x00 or RSTn (see ByteStuffingValidator), -1 if there is none,
+     *        STUFFING_NOT_CHECKED if the data is not available
+     * @param restartError mismatch of the restart markers (see RestartIndex), null if there is none
+     * @return true if the image is conformant, false otherwise
+     */
+    public boolean checkRtp2435Conformance(Reporter reporter, int stuffingViolation, String restartError) {
         JpegRtpMetadata req = rtp2435ConformantData();
         boolean conformant = true;
 
-        printTestResult(baseline == req.baseline, "Baseline DCT sequential");
+        reporter.testResult("Baseline DCT sequential", baseline == req.baseline);
         if (baseline != req.baseline) {
             conformant = false;
         }
 
-        printTestResult(huffman == req.huffman, "Huffman entropy coding");
+        reporter.testResult("Huffman entropy coding", huffman == req.huffman);
         if (huffman != req.huffman) {
             conformant = false;
         }
 
-        printTestResult(numSOS == req.numSOS, "single-scan, interleaved");
+        reporter.testResult("single-scan, interleaved", numSOS == req.numSOS);
         if (numSOS != req.numSOS) {
             conformant = false;
         }
 
-        printTestResult(width <= req.width, "width <= " + req.width);
+        reporter.testResult("width <= " + req.width, width <= req.width);
         if (width > req.width) {
             conformant = false;
         }
 
-        printTestResult(height <= req.height, "height <= " + req.height);
+        reporter.testResult("height <= " + req.height, height <= req.height);
         if (height > req.height) {
             conformant = false;
         }
 
-        printTestResult(samplePrecision == req.samplePrecision,
-                "sample precision " + req.samplePrecision + " bit");
+        reporter.testResult("sample precision " + req.samplePrecision + " bit",
+                samplePrecision == req.samplePrecision);
         if (samplePrecision != req.samplePrecision) {
             conformant = false;
         }
 
-        printTestResult(pixelAspectRatio == req.pixelAspectRatio,
-                "pixel aspect ratio = " + req.pixelAspectRatio);
+        reporter.testResult("pixel aspect ratio = " + req.pixelAspectRatio,
+                pixelAspectRatio == req.pixelAspectRatio);
         if (pixelAspectRatio != req.pixelAspectRatio) {
             conformant = false;
         }
 
-        printTestResult(numFrameComponents == req.numFrameComponents,
-                "number of components in frame = " + req.numFrameComponents);
+        reporter.testResult("number of components in frame = " + req.numFrameComponents,
+                numFrameComponents == req.numFrameComponents);
         if (numFrameComponents != req.numFrameComponents) {
             conformant = false;
         }
 
-        printTestResult(numDQT > 0 && numDQT <= req.numDQT,
-                "number of quantization tables = [1, " + req.numDQT + "]");
+        reporter.testResult("number of quantization tables = [1, " + req.numDQT + "]",
+                numDQT > 0 && numDQT <= req.numDQT);
         if (numDQT == 0 || numDQT > req.numDQT) {
             conformant = false;
         }
 
-        printTestResult(numDHT > 0 && numDHT <= req.numDHT,
-                "number of huffman tables = [1, " + req.numDHT + "]");
+        reporter.testResult("number of huffman tables = [1, " + req.numDHT + "]",
+                numDHT > 0 && numDHT <= req.numDHT);
         if (numDHT == 0 || numDHT > req.numDHT) {
             conformant = false;
         }
 
-        boolean huffmanTableCheck = true;
-        if (!Arrays.equals(req.huffmanLumDc, huffmanLumDc)
-                || !Arrays.equals(req.huffmanLumAc, huffmanLumAc)
-                || !Arrays.equals(req.huffmanChmDc, huffmanChmDc)
-                || !Arrays.equals(req.huffmanChmAc, huffmanChmAc)) {
-            huffmanTableCheck = false;
-        }
-        printTestResult(huffmanTableCheck, "Huffman tables are conform with Annex K.3");
+        boolean huffmanTableCheck = hasStandardHuffmanTables();
+        reporter.testResult("Huffman tables are conform with Annex K.3", huffmanTableCheck);
 
         boolean subsmplCheck = false;
         if (subsampling != null) {
@@ -196,18 +255,45 @@ class JpegRtpMetadata {
                 }
             }
         }
-        printTestResult(subsmplCheck, "subsampling 4:2:2 or 4:2:0");
+        reporter.testResult("subsampling 4:2:2 or 4:2:0", subsmplCheck);
         if (!subsmplCheck) {
             conformant = false;
         }
 
-        System.out.println("====================================");
-        System.out.println("JPEG is " + (conformant ? "" : "not ") + "conformant to RFC 2435");
+        if (stuffingViolation != STUFFING_NOT_CHECKED) {
+            reporter.testResult("0xff in data followed by 0x00 or RSTn", stuffingViolation == -1);
+            if (stuffingViolation != -1) {
+                conformant = false;
+            }
+            if (restartInterval > 0) {
+                reporter.testResult("restart markers every " + restartInterval + " MCUs, RST0-RST7 in turn",
+                        restartError == null);
+                if (restartError != null) {
+                    conformant = false;
+                }
+            }
+        }
+
+        reporter.conformance(conformant);
 
         return conformant;
     }
 
+    /**
+     * @return true if the Huffman tables 0 (luminance) and 1 (chrominance) are the tables of Annex K.3
+     */
+    public boolean hasStandardHuffmanTables() {
+        JpegRtpMetadata req = rtp2435ConformantData();
+        return Arrays.equals(req.huffmanLumDc, huffmanLumDc)
+                && Arrays.equals(req.huffmanLumAc, huffmanLumAc)
+                && Arrays.equals(req.huffmanChmDc, huffmanChmDc)
+                && Arrays.equals(req.huffmanChmAc, huffmanChmAc);
+    }
+
     public boolean isEqual(JpegRtpMetadata jrm) {
+        if (jrm == this) {
+            return true; // shared metadata of byte-identical headers (see HeaderCache)
+        }
         boolean equal = true;
 
         if (baseline != jrm.baseline) {
@@ -240,6 +326,9 @@ class JpegRtpMetadata {
         if (numDHT != jrm.numDHT) {
             equal = false;
         }
+        if (restartInterval != jrm.restartInterval) {
+            equal = false;
+        }
 
         if (!Arrays.equals(jrm.huffmanLumDc, huffmanLumDc)
                 || !Arrays.equals(jrm.huffmanLumAc, huffmanLumAc)
@@ -257,41 +346,8 @@ class JpegRtpMetadata {
         return equal;
     }
 
-    public void printMetadata() {
-        String out = "";
-
-        out += "Baseline DCT sequential: " + baseline + "\n";
-        out += "Huffman entropy coding: " + huffman + "\n";
-        out += "Number of SOS segments: " + numSOS + "\n";
-        boolean isInterleaved = numSOS == 1 && numFrameComponents > 1;
-        out += "interleaved: " + isInterleaved + "\n";
-        out += "width: " + width + " px" + "\n";
-        out += "height: " + height + " px" + "\n";
-        out += "sampe precision: " + samplePrecision + " bit" + "\n";
-        out += "pixel aspect ratio: " + pixelAspectRatio + "\n";
-        out += "number of components in frame: " + numFrameComponents + "\n";
-        out += "number of quantization tables: " + numDQT + "\n";
-        out += "number of huffman tables: " + numDHT + "\n";
-        // values of huffman tables
-        // (huffmanLumDc | huffmanLumAc | huffmanChmDc | huffmanChmAc)
-        out += "subsampling: " + subsampling[0][0] + ":"
-                               + subsampling[0][1] + ":"
-                               + subsampling[0][2];
-
-        System.out.println(out);
-    }
-
     public static void printTestResult(boolean passed, String info) {
-        String out = "";
-        if (passed) {
-            out += ANSI_ESCAPE_GREEN;
-            out += "[  PASSED  ]  " + info;
-        } else {
-            out += ANSI_ESCAPE_RED;
-            out += "[  FAILED  ]  " + info;
-        }
-        out += ANSI_ESCAPE_RESET;
-        System.out.println(out);
+        console.testResult(info, passed);
     }
 
     private static JpegRtpMetadata rtp2435ConformantData() {
@@ -1,6 +1,20 @@
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 // import java.util.Arrays;
 
@@ -13,88 +27,1184 @@ import java.io.IOException;
 public class MJpegRtpCheck {
     public static final String VERSION = "0.1.0";
 
+    /** exit code: all files passed */
+    public static final int EXIT_PASSED = 0;
+    /** exit code: a file failed a check, could not be parsed or the arguments are invalid */
+    public static final int EXIT_FAILED = 1;
+    /** exit code: no file failed, but not all images were checked (budget exhausted or cancelled) */
+    public static final int EXIT_INCOMPLETE = 2;
+
+    /** number of images compared in parallel between checks of the stop conditions */
+    private static final int PARALLEL_CHUNK = 4096;
+    /** checkpoint interval in milliseconds when resuming without an interval */
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 60000;
+    /** seconds to wait for the checks to report after Ctrl-C */
+    private static final long CANCEL_TIMEOUT = 10;
+
     private String filename;
     private String fileExtension;
     private boolean fullParse;
     private boolean rfc2435Compliance;
+    private boolean memoryMapped;
+    private int jobs;
+    private boolean useIndex;
+    private HeaderCache headerCache;
+    private InputStream inputStream;
+    private int maxFrameSize;
     private int frameCount;
-    private byte[] dataBuffer;
+    private Rfc2435Packetizer packetizer;
+    private Rfc2435Rewriter rewriter;
+    private long duration;
+    private Reporter reporter;
+    private Metrics metrics;
+    private long allocationMark;
+    private long packetizeNanos;
+    private int maxFailures;
+    private long timeBudget;
+    private long byteBudget;
+    private long progressInterval;
+    private AtomicBoolean cancelled;
+    private String stopReason;
+    private int failures;
+    private long bytesChecked;
+    private long fileSize;
+    private long startNanos;
+    private long nextProgress;
+    private long checkpointInterval;
+    private boolean resume;
+    private Checkpoint checkpoint;
+    private long nextCheckpoint;
+    private Sampling sampling;
+    private int sampled;
+    private int metadataMismatches;
+    private int stuffingViolations;
+    private int restartErrors;
+    private boolean decode;
+    private long decodeNanos;
+    private int decodeErrors;
+    private boolean crossCheck;
+    private int crossCheckMismatches;
 
 
     public MJpegRtpCheck(String filename, boolean fullParse, boolean rfc2435Compliance) {
         this.filename = filename;
-        if (filename.endsWith(".mjpeg") || filename.endsWith(".mjpg")) {
-            this.fileExtension = "mjpeg";
-        } else if (filename.endsWith(".avi")) {
-            this.fileExtension = "avi";
-        } else if (filename.endsWith(".mov")) {
-            this.fileExtension = "mov";
-        } else {
-            this.fileExtension = "invalid";
+        this.fileExtension = fileType(filename);
+        if (fileExtension == "stream") {
+            this.inputStream = System.in;
         }
         this.fullParse = fullParse;
         this.rfc2435Compliance = rfc2435Compliance;
+        this.memoryMapped = false;
+        this.jobs = 1;
+        this.useIndex = false;
+        this.headerCache = new HeaderCache(HeaderCache.DEFAULT_CAPACITY);
+        this.maxFrameSize = StreamFrameSource.DEFAULT_MAX_FRAME_SIZE;
         frameCount = 0;
+        packetizer = null;
+        rewriter = null;
+        duration = 0;
+        reporter = new ConsoleReporter();
+        metrics = new Metrics();
+        maxFailures = 0;
+        timeBudget = 0;
+        byteBudget = 0;
+        progressInterval = 0;
+        cancelled = new AtomicBoolean();
+        stopReason = null;
+        checkpointInterval = 0;
+        resume = false;
+        sampling = null;
+        decode = false;
+        crossCheck = false;
+    }
+
+    /**
+     * Determine the type of the input from the file name.
+     *
+     * @param filename file name, "-" for stdin or "udp:PORT[,PORT...]"
+     * @return "stream", "udp", "mjpeg", "avi", "mov", "pcap" or "invalid"
+     */
+    public static String fileType(String filename) {
+        if (filename.equals("-")) {
+            return "stream";
+        } else if (filename.startsWith("udp:")) {
+            return "udp";
+        } else if (filename.endsWith(".mjpeg") || filename.endsWith(".mjpg")) {
+            return "mjpeg";
+        } else if (filename.endsWith(".avi")) {
+            return "avi";
+        } else if (filename.endsWith(".mov")) {
+            return "mov";
+        } else if (filename.endsWith(".pcap") || filename.endsWith(".pcapng")) {
+            return "pcap";
+        }
+        return "invalid";
+    }
+
+    /**
+     * @return number of images parsed by the last run
+     */
+    public int frameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Set the receiver of the results, by default they are printed to the console.
+     *
+     * @param reporter reporter for the results
+     */
+    public void setReporter(Reporter reporter) {
+        this.reporter = reporter;
+    }
+
+    public Reporter getReporter() {
+        return reporter;
+    }
+
+    /**
+     * Set the metrics the stages of checking the images are counted in,
+     * e.g. to share them between multiple files.
+     *
+     * @param metrics metrics
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop a full parse after a number of failures: images whose metadata
+     * differs or which cannot be parsed, and a first image that is not
+     * conformant to RFC 2435 when checking compliance. Images compared in
+     * parallel are checked in chunks, so a few more may be reported.
+     *
+     * @param maxFailures number of failures, 0 to check all images
+     */
+    public void setMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Stop a full parse after a time.
+     *
+     * @param timeBudget time in milliseconds, 0 for no limit
+     */
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Stop a full parse after a number of bytes of images.
+     *
+     * @param byteBudget number of bytes, 0 for no limit
+     */
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Print the progress of a full parse (bytes, images, rate and estimated
+     * remaining time) to System.err in an interval.
+     *
+     * @param progressInterval interval in milliseconds, 0 for no progress
+     */
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Write the state of a full parse to a checkpoint file next to the
+     * video file (see Checkpoint) in an interval and when the full parse
+     * stops early. The checkpoint file is removed when all images have
+     * been checked.
+     *
+     * @param checkpointInterval interval in milliseconds, 0 for no checkpoints
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Continue a full parse after the images recorded in the checkpoint
+     * file, if there is one matching the video file. The first image is
+     * read again as the reference.
+     *
+     * @param resume true to resume from the checkpoint file
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Decode the Huffman-coded data of every checked image (see
+     * HuffmanScanDecoder), images whose data does not decode fail.
+     *
+     * @param decode true to decode the images
+     */
+    public void setDecode(boolean decode) {
+        this.decode = decode;
+    }
+
+    /**
+     * Compare the metadata of every checked image with the metadata ImageIO
+     * reads from it (see JpegMetadataExtractor.extractMetadataImageIO), to
+     * find errors of the marker parser. This is slow and meant for
+     * debugging.
+     *
+     * @param crossCheck true to compare the metadata with ImageIO
+     */
+    public void setCrossCheck(boolean crossCheck) {
+        this.crossCheck = crossCheck;
+    }
+
+    /**
+     * Check a sample of the images instead of all of them.
+     *
+     * The sampled images are read directly with the index of AVI and
+     * QuickTime files or the sidecar index file. Files of concatenated
+     * images without an index are sampled at evenly distributed byte
+     * positions, their number of images is estimated from the size of the
+     * first one.
+     *
+     * @param sampling selection of the images, null to check all images with a full parse
+     */
+    public void setSampling(Sampling sampling) {
+        this.sampling = sampling;
+    }
+
+    /**
+     * Set the flag that cancels the check, e.g. to cancel multiple checks at
+     * once. A cancelled full parse stops before the next image and reports
+     * the images checked so far, receiving RTP streams stops within a second.
+     *
+     * @param cancelled flag which is set to cancel
+     */
+    public void setCancellation(AtomicBoolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Cancel the check, may be called from any thread.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return true if the last run checked all images, false if it stopped early
+     */
+    public boolean isComplete() {
+        return stopReason == null;
+    }
+
+    /**
+     * @return why the last run stopped early, null if it checked all images
+     */
+    public String stopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Set the time to receive RTP streams when listening on UDP ports.
+     *
+     * @param duration time in milliseconds, 0 to receive until the program is stopped
+     */
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    /**
+     * Split the parsed images into RTP packets.
+     *
+     * @param packetizer packetizer for the images, null to disable packetizing
+     */
+    public void setPacketizer(Rfc2435Packetizer packetizer) {
+        this.packetizer = packetizer;
+    }
+
+    /**
+     * Write the parsed images with normalized RFC 2435 headers.
+     *
+     * @param rewriter rewriter for the images, null to disable rewriting
+     */
+    public void setRewriter(Rfc2435Rewriter rewriter) {
+        this.rewriter = rewriter;
+    }
+
+    /**
+     * Read the MJPEG data from a stream instead of the file.
+     *
+     * @param inputStream stream containing concatenated JPEG images
+     */
+    public void setInputStream(InputStream inputStream) {
+        this.inputStream = inputStream;
+        this.fileExtension = "stream";
     }
 
+    /**
+     * Set the maximum size of an image read from a stream.
+     *
+     * @param maxFrameSize maximum size of an image in bytes
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Set the number of distinct image headers whose metadata is cached
+     * with a full parse.
+     *
+     * @param size maximum number of cached headers
+     */
+    public void setHeaderCacheSize(int size) {
+        this.headerCache = new HeaderCache(size);
+    }
+
+    /**
+     * Use a sidecar index file for a full parse.
+     *
+     * The index is read instead of scanning the file if it is up to date,
+     * extended if the file has grown and written otherwise.
+     *
+     * @param useIndex true to use the sidecar index file
+     */
+    public void setUseIndex(boolean useIndex) {
+        this.useIndex = useIndex;
+    }
+
+    /**
+     * Set the number of threads used for comparing the images
+     * with a full parse.
+     *
+     * With more than one thread, an index of all images is built first
+     * and the images are compared in parallel afterwards.
+     *
+     * @param jobs number of threads, 0 for the number of available processors
+     */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+
+    /**
+     * Read the file using memory mapping instead of buffered copies.
+     *
+     * @param memoryMapped true to use a MappedFileBuffer
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Check the file.
+     *
+     * @return true if the file could be parsed and passed all checks, false otherwise
+     */
     public boolean run() {
-        if (fileExtension == "invalid") {
-            printError("File extension not recognized.");
-            return false;
+        stopReason = null;
+        failures = 0;
+        sampled = 0;
+        metadataMismatches = 0;
+        stuffingViolations = 0;
+        restartErrors = 0;
+        decodeErrors = 0;
+        crossCheckMismatches = 0;
+        bytesChecked = 0;
+        startNanos = System.nanoTime();
+        nextProgress = startNanos + progressInterval * 1000000;
+        reporter.begin(filename);
+        allocationMark = Metrics.allocationMark();
+        boolean passed = check();
+        allocationMark = metrics.allocated(allocationMark);
+        reporter.end(passed, frameCount);
+        reporter.flush();
+        return passed;
+    }
+
+    private boolean check() {
+        if (fileExtension == "udp") {
+            return receive();
         }
         File file = new File(filename);
-        if (!file.exists() || file.isDirectory()) {
-            printError("File does not exist or is a directory: " + filename);
+        if (fileExtension != "stream") {
+            if (!file.exists() || file.isDirectory()) {
+                printError("File does not exist or is a directory: " + filename);
+                return false;
+            }
+            if (!file.isFile()) {
+                fileExtension = "stream"; // e.g. a named pipe
+            } else if (fileExtension == "invalid") {
+                printError("File extension not recognized.");
+                return false;
+            }
+        }
+        fileSize = fileExtension == "stream" ? -1 : file.length();
+        boolean stream = fileExtension == "stream" || fileExtension == "pcap";
+        String invalid = OptionValidator.validate((fullParse ? OptionValidator.FULL_PARSE : 0)
+                | (jobs != 1 || useIndex ? OptionValidator.INDEXED : 0)
+                | (stream ? OptionValidator.STREAM : 0)
+                | (packetizer != null ? OptionValidator.PACKETIZE : 0)
+                | (rewriter != null ? OptionValidator.REWRITE : 0)
+                | (checkpointInterval > 0 || resume ? OptionValidator.CHECKPOINT : 0)
+                | (resume ? OptionValidator.RESUME : 0)
+                | (sampling != null ? OptionValidator.SAMPLING : 0)
+                | (crossCheck ? OptionValidator.CROSS_CHECK : 0));
+        if (invalid != null) {
+            printError(invalid);
             return false;
         }
+        int mode = CheckMode.select(fullParse, sampling != null, jobs, useIndex);
+        boolean checkpoints = fullParse && (checkpointInterval > 0 || resume);
 
         // examine format specific file data (e.g. mov)
 
-        VideoFileBuffer in = null;
+        FrameSource in = null;
         try {
-            in = new VideoFileBuffer(filename);
+            if (fileExtension == "stream") {
+                if (inputStream == null) {
+                    inputStream = new FileInputStream(file);
+                }
+                in = new StreamFrameSource(inputStream, maxFrameSize);
+            } else if (fileExtension == "avi") {
+                in = new AviFrameSource(filename);
+            } else if (fileExtension == "mov") {
+                in = new MovFrameSource(filename);
+            } else if (fileExtension == "pcap") {
+                in = new PcapFrameSource(new FileInputStream(file), maxFrameSize);
+            } else if (memoryMapped) {
+                in = new MappedFileBuffer(filename);
+            } else {
+                in = new VideoFileBuffer(filename);
+            }
         } catch (FileNotFoundException e) {
             System.out.println(e);
             return false;
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
         }
 
-        byte[] data = null;
-        in.seekToSoi();
-        data = in.nextJpeg();
-        JpegRtpMetadata jrm = JpegMetadataExtractor.extractMetadata(data);
-        if (jrm == null) {
+        long start = System.nanoTime();
+        ByteBuffer data = in.nextFrame();
+        if (data == null) {
+            printError("No JPEG image found in file: " + filename);
+            in.close();
             return false;
         }
+        long scanned = System.nanoTime();
+        JpegRtpMetadata jrm = JpegMetadataExtractor.extractMetadata(data, headerCache);
+        long extracted = System.nanoTime();
         frameCount++;
+        if (jrm == null) {
+            frameDone(in, data.remaining(), Reporter.FRAME_ERROR, scanned - start, extracted - scanned, -1);
+            reporter.frame(frameCount, streamId(in), in.frameOffset(), data.remaining(),
+                    HeaderFingerprint.of(data), 0, 0, Reporter.FRAME_ERROR);
+            in.close();
+            return false;
+        }
+        crossCheck(data, jrm, frameCount);
+        int firstViolation = checkStuffing(in, data, jrm, frameCount);
+        String firstRestartError = checkRestarts(in, data, jrm, frameCount);
+        // a restart marker mismatch is reported once, not again by the decoder
+        boolean firstDecoded = firstRestartError != null || checkDecoding(in, data, frameCount);
+        if (!packetize(data, jrm) || !rewrite(in, data, jrm)) {
+            in.close();
+            return false;
+        }
+        int firstStatus = packetized() ? Reporter.FRAME_EQUAL : Reporter.FRAME_ERROR;
+        reporter.frame(frameCount, streamId(in), in.frameOffset(), data.remaining(), jrm.fingerprint,
+                jrm.width, jrm.height, firstStatus);
+        frameDone(in, data.remaining(), firstStatus, scanned - start, extracted - scanned, -1);
+        if (fullParse && maxFailures > 0 && (!firstDecoded || !packetized() || rfc2435Compliance
+                && !jrm.checkRtp2435Conformance(new NullReporter(), firstViolation, firstRestartError))) {
+            failures++; // reported at the end
+        }
 
+        HashMap<Long, JpegRtpMetadata> streams = new HashMap<>(); // reference metadata per RTP stream
+        streams.put(streamId(in), jrm);
         boolean shareMetadata = true;
-        while (fullParse && in.seekToSoi()) {
-            data = in.nextJpeg();
-            JpegRtpMetadata jrm_new = JpegMetadataExtractor.extractMetadata(data);
-            if (jrm_new == null) {
+        checkpoint = null;
+        if (checkpoints) {
+            if (!startCheckpoint(in, jrm, data.remaining(), mode == CheckMode.SEQUENTIAL)) {
+                in.close();
                 return false;
             }
-            boolean equal = jrm.isEqual(jrm_new);
+            shareMetadata = metadataMismatches == 0;
+        }
+        if (mode == CheckMode.SAMPLE) {
+            shareMetadata = validateSample(in, jrm, data.remaining());
+        } else if (mode == CheckMode.PARALLEL) {
+            shareMetadata = validateParallel(in, jrm, data);
+        }
+        while (mode == CheckMode.SEQUENTIAL) {
+            start = System.nanoTime();
+            if (stopping(start) || (data = in.nextFrame()) == null) {
+                break;
+            }
+            scanned = System.nanoTime();
+            JpegRtpMetadata jrm_new = JpegMetadataExtractor.extractMetadata(data, headerCache);
+            extracted = System.nanoTime();
             frameCount++;
+            if (jrm_new == null) {
+                printError("Frame " + frameCount + " could not be parsed");
+                shareMetadata = false;
+                metadataMismatches++;
+                failures++;
+                if (checkpoint != null) {
+                    checkpoint.addFailure(frameCount);
+                }
+                reporter.frame(frameCount, streamId(in), in.frameOffset(), data.remaining(),
+                        HeaderFingerprint.of(data), 0, 0, Reporter.FRAME_ERROR);
+                frameDone(in, data.remaining(), Reporter.FRAME_ERROR, scanned - start, extracted - scanned, -1);
+                continue;
+            }
+            crossCheck(data, jrm_new, frameCount);
+            JpegRtpMetadata reference = streams.putIfAbsent(streamId(in), jrm_new);
+            boolean equal = reference == null || reference.isEqual(jrm_new);
+            boolean stuffed = checkStuffing(in, data, jrm_new, frameCount) == -1;
+            boolean restarts = checkRestarts(in, data, jrm_new, frameCount) == null;
+            long compared = System.nanoTime();
+            boolean decoded = !restarts || checkDecoding(in, data, frameCount);
+            if (!packetize(data, jrm_new) || !rewrite(in, data, jrm_new)) {
+                in.close();
+                return false;
+            }
+            int status = !stuffed || !restarts || !decoded || !packetized() ? Reporter.FRAME_ERROR
+                    : equal ? Reporter.FRAME_EQUAL : Reporter.FRAME_DIFFERENT;
+            reporter.frame(frameCount, streamId(in), in.frameOffset(), data.remaining(), jrm_new.fingerprint,
+                    jrm_new.width, jrm_new.height, status);
             if (!equal) {
-                JpegRtpMetadata.printTestResult(equal, "Frame " + frameCount + " shares metadata");
                 shareMetadata = false;
+                metadataMismatches++;
             }
+            if (status != Reporter.FRAME_EQUAL) {
+                failures++;
+                if (checkpoint != null) {
+                    checkpoint.addFailure(frameCount);
+                }
+            }
+            frameDone(in, data.remaining(), status, scanned - start, extracted - scanned, compared - extracted);
         }
-        if (fullParse) {
+        if (mode == CheckMode.SEQUENTIAL || mode == CheckMode.PARALLEL) {
             System.out.println("====================================");
-            JpegRtpMetadata.printTestResult(shareMetadata, "All frames share metadata");
+            if (stopReason != null) {
+                System.out.println("Full parse stopped after " + frameCount + " frames: " + stopReason);
+                if (checkpoint != null && checkpoint.save(filename)) {
+                    System.out.println("Checkpoint written, continue with --resume");
+                }
+                if (failures == 0) {
+                    reporter.testResult("All frames checked", false);
+                }
+            } else if (checkpoint != null) {
+                Checkpoint.delete(filename);
+            }
+            reporter.testResult("All frames share metadata", shareMetadata);
+            if (rfc2435Compliance) {
+                reporter.testResult("0xff in data of all frames followed by 0x00 or RSTn", stuffingViolations == 0);
+                if (jrm.restartInterval > 0 || restartErrors > 0) {
+                    reporter.testResult("restart markers of all frames match the DRI segment", restartErrors == 0);
+                }
+            }
+            if (decode) {
+                reporter.testResult("Huffman-coded data of all frames decodes", decodeErrors == 0);
+            }
+            System.out.println(headerCache.statistics());
+            System.out.println();
+        }
+        if (mode == CheckMode.SAMPLE) {
+            System.out.println("====================================");
+            if (stopReason != null) {
+                System.out.println("Sampling stopped after " + sampled + " frames: " + stopReason);
+            } else {
+                System.out.println("Sampled " + sampled + " frames, " + failures + " failed");
+            }
+            double[] interval = sampling.interval(failures, sampled);
+            System.out.println(String.format(
+                    "Estimated non-conformance rate: %.3f %% (%.4g %% confidence interval %.3f %% - %.3f %%)",
+                    sampled > 0 ? 100.0 * failures / sampled : 0.0, sampling.confidence() * 100,
+                    interval[0] * 100, interval[1] * 100));
+            reporter.testResult("All sampled frames share metadata", shareMetadata);
+            if (rfc2435Compliance) {
+                reporter.testResult("0xff in data of all sampled frames followed by 0x00 or RSTn",
+                        stuffingViolations == 0);
+                if (jrm.restartInterval > 0 || restartErrors > 0) {
+                    reporter.testResult("restart markers of all sampled frames match the DRI segment",
+                            restartErrors == 0);
+                }
+            }
+            if (decode) {
+                reporter.testResult("Huffman-coded data of all sampled frames decodes", decodeErrors == 0);
+            }
+            System.out.println();
+        }
+        if (decode && mode == CheckMode.FIRST_FRAME) {
+            reporter.testResult("Huffman-coded data decodes", decodeErrors == 0);
+            System.out.println();
+        }
+        if (crossCheck) {
+            reporter.testResult("metadata of the marker parser matches ImageIO", crossCheckMismatches == 0);
+            System.out.println();
+        }
+        boolean passed = shareMetadata && stuffingViolations == 0 && restartErrors == 0 && decodeErrors == 0
+                && crossCheckMismatches == 0;
+        if (in instanceof PcapFrameSource) {
+            PcapFrameSource capture = (PcapFrameSource)in;
+            capture.printStatistics();
+            reporter.testResult("no lost packets or incomplete frames", !capture.lossDetected());
+            passed &= !capture.lossDetected();
+            System.out.println();
+        }
+        if (packetizer != null) {
+            packetizer.printStatistics(reporter);
+            passed &= !packetizer.failed();
+            System.out.println();
+        }
+        if (rewriter != null) {
+            rewriter.printStatistics();
             System.out.println();
         }
 
         if (rfc2435Compliance) {
-            jrm.checkRtp2435Conformance();
+            passed &= jrm.checkRtp2435Conformance(reporter, firstViolation, firstRestartError);
         } else {
-            jrm.printMetadata();
+            reporter.metadata(jrm);
         }
 
         in.close();
-        return false;
+        return passed;
+    }
+
+    /**
+     * Compare the metadata of the remaining images in parallel.
+     *
+     * The first image has already been read from the source.
+     *
+     * @return true if all images share the metadata, false otherwise
+     */
+    private boolean validateParallel(FrameSource in, JpegRtpMetadata jrm, ByteBuffer first) {
+        FrameIndex index = null;
+        if (useIndex) {
+            index = FrameIndex.open(filename, in);
+            if (index == null || index.size() == 0) {
+                return false;
+            }
+        } else {
+            index = new FrameIndex();
+            index.add(in.frameOffset(), first.remaining(), HeaderFingerprint.of(first));
+            index.scan(in);
+        }
+
+        ParallelFrameValidator validator = null;
+        try {
+            validator = new ParallelFrameValidator(filename, index, jobs, headerCache);
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        validator.setMetrics(metrics);
+        validator.setStuffingCheck(rfc2435Compliance);
+        validator.setDecodeCheck(decode);
+
+        boolean shareMetadata = true;
+        int checked = 1;
+        if (checkpoint != null && checkpoint.frames() > 1) {
+            checked = checkpoint.frames();
+            shareMetadata = metadataMismatches == 0;
+            if (checked > index.size()
+                    || index.offset(checked - 1) + index.length(checked - 1) != checkpoint.offset()) {
+                printError("The checkpoint does not match the images of the file, remove "
+                        + filename + Checkpoint.SIDECAR_EXTENSION);
+                validator.close();
+                return false;
+            }
+        }
+        while (checked < index.size() && !stopping(System.nanoTime())) {
+            int end = Math.min(index.size(), checked + PARALLEL_CHUNK);
+            byte[] results = validator.validate(jrm, index.fingerprint(0), checked, end);
+            if (results == null) {
+                validator.close();
+                return false;
+            }
+            for (int i = checked; i < end; i++) {
+                int status = Reporter.FRAME_EQUAL;
+                if (results[i] == ParallelFrameValidator.RESULT_ERROR) {
+                    printError("Frame " + (i+1) + " could not be parsed");
+                    status = Reporter.FRAME_ERROR;
+                    shareMetadata = false;
+                    metadataMismatches++;
+                    failures++;
+                } else if (results[i] == ParallelFrameValidator.RESULT_DIFFERENT) {
+                    status = Reporter.FRAME_DIFFERENT;
+                    shareMetadata = false;
+                    metadataMismatches++;
+                    failures++;
+                } else if (results[i] == ParallelFrameValidator.RESULT_ENTROPY) {
+                    status = Reporter.FRAME_ERROR;
+                    failures++;
+                }
+                int violation = status == Reporter.FRAME_EQUAL ? -1 : validator.stuffingViolation(i);
+                if (violation != -1) {
+                    stuffingError("Frame " + (i+1), index.offset(i) + violation);
+                }
+                String mismatch = status == Reporter.FRAME_EQUAL ? null : validator.restartError(i);
+                if (mismatch != null) {
+                    restartError("Frame " + (i+1), mismatch);
+                }
+                String error = status == Reporter.FRAME_EQUAL ? null : validator.decodeError(i);
+                if (error != null) {
+                    decodeError("Frame " + (i+1), error);
+                }
+                if (checkpoint != null && status != Reporter.FRAME_EQUAL) {
+                    checkpoint.addFailure(i + 1);
+                }
+                // the dimensions of differing images are not known without parsing them again
+                boolean equal = status == Reporter.FRAME_EQUAL;
+                reporter.frame(i + 1, 0, index.offset(i), index.length(i), index.fingerprint(i),
+                        equal ? jrm.width : 0, equal ? jrm.height : 0, status);
+                bytesChecked += index.length(i);
+            }
+            checked = end;
+            progress(index.offset(end - 1) + index.length(end - 1));
+            if (checkpoint != null) {
+                checkpoint.update(index.offset(end - 1) + index.length(end - 1), end, bytesChecked);
+                checkpoint.updateCounts(metadataMismatches, stuffingViolations, restartErrors, decodeErrors);
+                saveCheckpoint();
+            }
+        }
+        validator.close();
+        frameCount = checked;
+        return shareMetadata;
+    }
+
+    /**
+     * Compare the metadata of a sample of the remaining images.
+     *
+     * The first image has already been read from the source and is not part
+     * of the sample. Images that cannot be parsed count as failures. Files
+     * without an index are scanned for their images first, so the images are
+     * always selected by number.
+     *
+     * @param firstLength length of the first image
+     * @return true if all sampled images share the metadata, false otherwise
+     */
+    private boolean validateSample(FrameSource in, JpegRtpMetadata jrm, int firstLength) {
+        IndexedFrameSource indexedSource = in instanceof IndexedFrameSource ? (IndexedFrameSource)in : null;
+        FrameIndex index = null;
+        int population;
+        if (indexedSource != null) {
+            population = indexedSource.indexedFrames();
+        } else if (useIndex) {
+            index = FrameIndex.open(filename, in);
+            if (index == null || index.size() == 0) {
+                return false;
+            }
+            population = index.size();
+        } else {
+            // the images of a file of concatenated images are numbered by a marker scan
+            index = new FrameIndex();
+            index.add(in.frameOffset(), firstLength, HeaderFingerprint.NONE);
+            index.scan(in);
+            population = index.size();
+        }
+        int[] selected = sampling.select(population - 1);
+        System.out.println("Sampling " + selected.length + " of " + (population - 1) + " remaining frames, "
+                + sampling);
+
+        boolean shareMetadata = true;
+        for (int i = 0; i < selected.length && !stopping(System.nanoTime()); i++) {
+            int frame = selected[i] + 1; // 0 is the first image
+            long start = System.nanoTime();
+            boolean positioned;
+            if (indexedSource != null) {
+                positioned = indexedSource.seekFrame(frame);
+            } else {
+                positioned = in.seek(index.offset(frame));
+            }
+            ByteBuffer data = positioned ? in.nextFrame() : null;
+            if (data == null) {
+                printError("Frame " + (frame+1) + " could not be read");
+                shareMetadata = false;
+                failures++;
+                sampled++;
+                continue;
+            }
+            long scanned = System.nanoTime();
+            JpegRtpMetadata jrm_new = JpegMetadataExtractor.extractMetadata(data, headerCache);
+            long extracted = System.nanoTime();
+            frameCount++;
+            sampled++;
+            int status = Reporter.FRAME_ERROR;
+            boolean equal = false;
+            if (jrm_new != null) {
+                crossCheck(data, jrm_new, frame + 1);
+                equal = jrm.isEqual(jrm_new);
+                status = equal ? Reporter.FRAME_EQUAL : Reporter.FRAME_DIFFERENT;
+                boolean stuffed = checkStuffing(in, data, jrm_new, frame + 1) == -1;
+                boolean restarts = checkRestarts(in, data, jrm_new, frame + 1) == null;
+                boolean decoded = !restarts || checkDecoding(in, data, frame + 1);
+                if (!stuffed || !restarts || !decoded) {
+                    status = Reporter.FRAME_ERROR;
+                }
+            }
+            long compared = System.nanoTime();
+            if (!equal) {
+                shareMetadata = false;
+            }
+            if (status != Reporter.FRAME_EQUAL) {
+                failures++;
+            }
+            if (jrm_new == null) {
+                printError("Frame " + (frame+1) + " could not be parsed");
+            }
+            reporter.frame(frame + 1, streamId(in), in.frameOffset(), data.remaining(),
+                    jrm_new != null ? jrm_new.fingerprint : HeaderFingerprint.of(data),
+                    jrm_new != null ? jrm_new.width : 0, jrm_new != null ? jrm_new.height : 0, status);
+            frameDone(in, data.remaining(), status, scanned - start, extracted - scanned,
+                    jrm_new != null ? compared - extracted : -1);
+        }
+        return shareMetadata;
+    }
+
+    /**
+     * Check the byte stuffing of the entropy-coded data of an image if the
+     * compliance with RFC 2435 is checked.
+     *
+     * @param frame number of the image for the error message, 0 if unknown
+     * @return offset of the first 0xff byte in the image not followed by 0x00 or RSTn,
+     *         -1 if there is none or the compliance is not checked
+     */
+    private int checkStuffing(FrameSource in, ByteBuffer data, JpegRtpMetadata jrm, long frame) {
+        if (!rfc2435Compliance) {
+            return -1;
+        }
+        int violation = ByteStuffingValidator.firstViolation(data, jrm.headerLength);
+        if (violation != -1) {
+            stuffingError(frame > 0 ? "Frame " + frame : "Frame at offset " + in.frameOffset(),
+                    in.frameOffset() >= 0 ? in.frameOffset() + violation : violation + " of the image");
+        }
+        return violation;
+    }
+
+    /**
+     * Check the restart markers of an image with a DRI segment if the
+     * compliance with RFC 2435 is checked.
+     *
+     * @param frame number of the image for the error message, 0 if unknown
+     * @return description of the first mismatch, null if there is none or the compliance is not checked
+     */
+    private String checkRestarts(FrameSource in, ByteBuffer data, JpegRtpMetadata jrm, long frame) {
+        if (!rfc2435Compliance) {
+            return null;
+        }
+        String mismatch = RestartIndex.verify(data.slice(), jrm);
+        if (mismatch != null) {
+            restartError(frame > 0 ? "Frame " + frame : "Frame at offset " + in.frameOffset(), mismatch);
+        }
+        return mismatch;
+    }
+
+    /**
+     * Decode the Huffman-coded data of an image if enabled.
+     *
+     * @param frame number of the image for the error message, 0 if unknown
+     * @return false if the data does not decode, true otherwise
+     */
+    private boolean checkDecoding(FrameSource in, ByteBuffer data, long frame) {
+        if (!decode) {
+            return true;
+        }
+        long start = System.nanoTime();
+        String error = HuffmanScanDecoder.verify(data);
+        decodeNanos = System.nanoTime() - start;
+        metrics.record(Metrics.DECODE, decodeNanos);
+        if (error != null) {
+            decodeError(frame > 0 ? "Frame " + frame : "Frame at offset " + in.frameOffset(), error);
+        }
+        return error == null;
+    }
+
+    /**
+     * Compare the metadata of an image with the metadata read by ImageIO
+     * if cross-checking is enabled.
+     */
+    private void crossCheck(ByteBuffer data, JpegRtpMetadata jrm, long frame) {
+        if (!crossCheck) {
+            return;
+        }
+        JpegRtpMetadata reference = JpegMetadataExtractor.extractMetadataImageIO(data);
+        if (reference == null || reference.subsampling == null) {
+            crossCheckMismatches++;
+            printError("Frame " + frame + ": ImageIO cannot read the metadata");
+        } else if (!jrm.isEqual(reference)) {
+            crossCheckMismatches++;
+            printError("Frame " + frame + ": metadata of the marker parser differs from ImageIO");
+        }
+    }
+
+    private void decodeError(String frame, String error) {
+        decodeErrors++;
+        printError(frame + ": " + error);
+    }
+
+    private void restartError(String frame, String mismatch) {
+        restartErrors++;
+        printError(frame + ": " + mismatch);
+    }
+
+    private void stuffingError(String frame, Object offset) {
+        stuffingViolations++;
+        printError(frame + ": 0xff at offset " + offset + " is not followed by 0x00 or RSTn");
+    }
+
+    /**
+     * Write an image with a normalized header if rewriting is enabled.
+     * Images which cannot be rewritten are reported and skipped.
+     *
+     * @return false if the output cannot be written, true otherwise
+     */
+    private boolean rewrite(FrameSource in, ByteBuffer data, JpegRtpMetadata jrm) {
+        if (rewriter == null) {
+            return true;
+        }
+        try {
+            rewriter.rewrite(data.slice(), jrm, in.frameOffset());
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Split an image into RTP packets if packetizing is enabled.
+     *
+     * @return false if the packets cannot be written, true otherwise
+     */
+    private boolean packetize(ByteBuffer data, JpegRtpMetadata jrm) {
+        if (packetizer == null) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            packetizer.packetize(data, jrm);
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        packetizeNanos = System.nanoTime() - start;
+        metrics.record(Metrics.PACKETIZE, packetizeNanos);
+        if (packetizer.error() != null) {
+            printError("Frame " + frameCount + " " + packetizer.error());
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the last image was packetized or packetizing is not enabled
+     */
+    private boolean packetized() {
+        return packetizer == null || packetizer.error() == null;
+    }
+
+    /**
+     * Count the stages of an image in the metrics and record its JFR event.
+     *
+     * @param scan duration of reading the image in nanoseconds
+     * @param extract duration of extracting the metadata
+     * @param compare duration of comparing the metadata, -1 if it was not compared
+     */
+    private void frameDone(FrameSource in, int length, int status,
+            long scan, long extract, long compare) {
+        metrics.frame(length);
+        metrics.record(Metrics.SCAN, scan);
+        metrics.record(Metrics.EXTRACT, extract);
+        if (compare >= 0) {
+            metrics.record(Metrics.COMPARE, compare);
+        }
+        if ((frameCount & 1023) == 0) {
+            allocationMark = metrics.allocated(allocationMark);
+        }
+        bytesChecked += length;
+        if (progressInterval > 0) {
+            progress(in.frameOffset() >= 0 ? in.frameOffset() + length : bytesChecked);
+        }
+        if (checkpoint != null) {
+            checkpoint.update(in.frameOffset() + length, frameCount, bytesChecked);
+            checkpoint.updateCounts(metadataMismatches, stuffingViolations, restartErrors, decodeErrors);
+            saveCheckpoint();
+        }
+        FrameEvent event = new FrameEvent();
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.frame = frameCount;
+            event.offset = in.frameOffset();
+            event.length = length;
+            event.scan = scan;
+            event.extract = extract;
+            event.compare = Math.max(compare, 0);
+            event.packetize = packetizeNanos;
+            event.decode = decodeNanos;
+            event.status = status;
+            event.commit();
+        }
+        packetizeNanos = 0;
+        decodeNanos = 0;
+    }
+
+    /**
+     * Create the checkpoint of a full parse after the first image, or
+     * continue from the checkpoint file when resuming.
+     *
+     * @param length length of the first image
+     * @param seek true to continue reading the source after the checkpoint
+     * @return false if the full parse cannot continue, true otherwise
+     */
+    private boolean startCheckpoint(FrameSource in, JpegRtpMetadata jrm, int length, boolean seek) {
+        if (checkpointInterval <= 0) {
+            checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        }
+        nextCheckpoint = System.nanoTime() + checkpointInterval * 1000000;
+        checkpoint = resume ? Checkpoint.load(filename, jrm.fingerprint) : null;
+        if (checkpoint == null) {
+            try {
+                checkpoint = new Checkpoint(filename, jrm.fingerprint);
+            } catch (IOException e) {
+                System.out.println(e);
+                return false;
+            }
+            checkpoint.update(in.frameOffset() + length, frameCount, bytesChecked);
+            return true;
+        }
+
+        int[] failed = checkpoint.failedFrames();
+        System.out.println("Resuming at frame " + (checkpoint.frames() + 1) + " (offset " + checkpoint.offset()
+                + ") with " + checkpoint.failures() + " failures before");
+        if (failed.length > 0) {
+            StringBuilder out = new StringBuilder("Failed frames before resuming:");
+            for (int i = 0; i < Math.min(failed.length, 20); i++) {
+                out.append(' ').append(failed[i]);
+            }
+            System.out.println(checkpoint.failures() > 20 ? out.append(" ...") : out);
+        }
+        frameCount = checkpoint.frames();
+        bytesChecked = checkpoint.bytes();
+        failures += checkpoint.failures();
+        metadataMismatches = checkpoint.count(Checkpoint.METADATA);
+        stuffingViolations += checkpoint.count(Checkpoint.STUFFING);
+        restartErrors += checkpoint.count(Checkpoint.RESTART);
+        decodeErrors += checkpoint.count(Checkpoint.DECODE);
+        if (seek && !in.seek(checkpoint.offset())) {
+            printError("Cannot continue at offset " + checkpoint.offset());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the checkpoint if the checkpoint interval has passed.
+     */
+    private void saveCheckpoint() {
+        long now = System.nanoTime();
+        if (now < nextCheckpoint) {
+            return;
+        }
+        checkpoint.save(filename);
+        nextCheckpoint = now + checkpointInterval * 1000000;
+    }
+
+    /**
+     * Decide whether the full parse stops before the next image.
+     *
+     * @param now current System.nanoTime
+     * @return true if the full parse stops, the reason is stored in stopReason
+     */
+    private boolean stopping(long now) {
+        if (cancelled.get()) {
+            stopReason = "cancelled";
+        } else if (maxFailures > 0 && failures >= maxFailures) {
+            stopReason = failures + (failures == 1 ? " failure" : " failures");
+        } else if (byteBudget > 0 && bytesChecked >= byteBudget) {
+            stopReason = "byte budget of " + byteBudget + " bytes exhausted";
+        } else if (timeBudget > 0 && now - startNanos >= timeBudget * 1000000) {
+            stopReason = "time budget of " + timeBudget / 1000.0 + " s exhausted";
+        }
+        return stopReason != null;
+    }
+
+    /**
+     * Print the progress if the progress interval has passed.
+     *
+     * @param position position in the file after the last checked image
+     */
+    private void progress(long position) {
+        long now = System.nanoTime();
+        if (progressInterval <= 0 || now < nextProgress) {
+            return;
+        }
+        nextProgress = now + progressInterval * 1000000;
+        double seconds = (now - startNanos) / 1e9;
+        StringBuilder out = new StringBuilder(160);
+        out.append("Progress ").append(filename).append(": ");
+        out.append(String.format("%.1f MB", position / 1e6));
+        if (fileSize > 0) {
+            out.append(String.format(" of %.1f MB (%.1f %%)", fileSize / 1e6, 100.0 * position / fileSize));
+        }
+        out.append(String.format(", %d frames, %.0f frames/s, %.1f MB/s", frameCount, frameCount / seconds,
+                bytesChecked / 1e6 / seconds));
+        if (fileSize > 0 && position > 0) {
+            long remaining = (long)(seconds * (fileSize - position) / position);
+            out.append(String.format(", ETA %d:%02d:%02d", remaining / 3600, remaining / 60 % 60, remaining % 60));
+        }
+        System.err.println(out);
+    }
+
+    /**
+     * Receive and validate RTP streams on the UDP ports given as
+     * "udp:PORT[,PORT...]" instead of the file name.
+     *
+     * @return true if all streams passed the checks, false otherwise
+     */
+    private boolean receive() {
+        String[] list = filename.substring(4).split(",");
+        int[] ports = new int[list.length];
+        try {
+            for (int i = 0; i < list.length; i++) {
+                ports[i] = Integer.parseInt(list[i].trim());
+                if (ports[i] < 1 || ports[i] > 65535) {
+                    throw new NumberFormatException(list[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            printError("Invalid UDP port list: " + filename);
+            return false;
+        }
+
+        RtpReceiver receiver = null;
+        try {
+            receiver = new RtpReceiver(ports, maxFrameSize, headerCache);
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        receiver.setCancellation(cancelled);
+        boolean passed = receiver.run(duration);
+        System.out.println(headerCache.statistics());
+        receiver.close();
+        return passed;
+    }
+
+    /**
+     * Identify the stream of the image last read, the images of different
+     * RTP streams in a capture are compared separately.
+     */
+    private static long streamId(FrameSource in) {
+        return in instanceof PcapFrameSource ? ((PcapFrameSource)in).ssrc() : 0;
     }
 
     private void printError(String errorMessage) {
@@ -102,17 +1212,324 @@ public class MJpegRtpCheck {
     }
 
     public static void main(String[] args) {
+        CountDownLatch finished = new CountDownLatch(1);
+        int exitCode = EXIT_FAILED;
+        try {
+            exitCode = execute(args, finished);
+        } catch (NumberFormatException e) {
+            // an option value that is not a number
+            System.out.println("Error: " + e.getMessage());
+        } finally {
+            finished.countDown();
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Run the program.
+     *
+     * @param args command line arguments
+     * @param finished counted down by the caller when the output is complete
+     * @return exit code (EXIT_*)
+     */
+    private static int execute(String[] args, CountDownLatch finished) {
         ArgumentParser argparse = new ArgumentParser("MJpegRtpCheck", MJpegRtpCheck.VERSION);
         argparse.registerArgument("file");
+        argparse.registerRemainingArguments("files");
         argparse.registerOption("c", "compliance", "check for compliance with RFC 2435");
         argparse.registerOption("f", "full-parse", "parse all images of the file, not just one");
+        argparse.registerOption("i", "index", "use and update a sidecar index file for a full parse");
+        argparse.registerValueOption(null, "cache-size", "N", "number of distinct image headers to cache (default "
+                + HeaderCache.DEFAULT_CAPACITY + ")");
+        argparse.registerOption("m", "mmap", "read the file memory-mapped without copying images");
+        argparse.registerValueOption(null, "max-frame-size", "BYTES", "maximum image size when reading a stream ('-' for stdin) or capture");
+        argparse.registerValueOption("j", "jobs", "N", "compare images with N threads for a full parse (0 = all cores)");
+        argparse.registerValueOption("p", "packetize", "FILE", "split the images into RFC 2435 RTP packets written to a pcap file");
+        argparse.registerValueOption(null, "mtu", "BYTES", "maximum IP packet size for packetizing (default "
+                + Rfc2435Packetizer.DEFAULT_MTU + ")");
+        argparse.registerValueOption(null, "rewrite", "FILE", "write the images of a full parse with RFC 2435 headers to a file of "
+                + "concatenated images, refusing images that cannot be fixed without re-encoding");
+        argparse.registerValueOption(null, "tables", "POLICY", "send quantization tables 'always' (default) or 'once'");
+        argparse.registerValueOption(null, "fps", "N", "frame rate for the RTP timestamps (default 25)");
+        argparse.registerValueOption(null, "duration", "SECONDS", "time to receive RTP streams when the file is 'udp:PORT[,PORT...]'");
+        argparse.registerValueOption(null, "io-limit", "N", "number of files read concurrently when checking "
+                + "directories, patterns or multiple files (default: number of cores)");
+        argparse.registerValueOption(null, "report", "FORMAT", "report format 'console' (default), 'ndjson' or 'binary'");
+        argparse.registerValueOption(null, "report-file", "FILE", "write an ndjson or binary report to a file instead of stdout");
+        argparse.registerValueOption(null, "metrics-file", "FILE", "write stage timings and throughput in the Prometheus "
+                + "text format to a file on exit");
+        argparse.registerValueOption(null, "metrics-interval", "SECONDS", "also write the metrics file in this interval");
+        argparse.registerOption(null, "jmx", "expose the metrics as the JMX MBean MJpegRtpCheck:type=Metrics");
+        argparse.registerOption(null, "fail-fast", "stop a full parse at the first failure");
+        argparse.registerValueOption(null, "max-failures", "N", "stop a full parse after N failures");
+        argparse.registerValueOption(null, "time-budget", "SECONDS", "stop a full parse after a time");
+        argparse.registerValueOption(null, "byte-budget", "BYTES", "stop a full parse after a number of bytes of images");
+        argparse.registerValueOption(null, "progress", "SECONDS", "print the progress of a full parse to stderr in this interval");
+        argparse.registerValueOption(null, "checkpoint", "SECONDS", "write the state of a full parse to FILE"
+                + Checkpoint.SIDECAR_EXTENSION + " in this interval and when it stops early");
+        argparse.registerOption(null, "resume", "continue a full parse from its checkpoint file");
+        argparse.registerOption(null, "decode", "decode the Huffman-coded data of the checked images");
+        argparse.registerOption(null, "cross-check", "compare the metadata of the checked images with ImageIO (slow)");
+        argparse.registerValueOption(null, "sample-every", "N", "check every Nth image instead of a full parse");
+        argparse.registerOption(null, "sample", "check a random sample of the images instead of a full parse");
+        argparse.registerValueOption(null, "sample-confidence", "PERCENT", "confidence level of the estimated "
+                + "non-conformance rate (default: 95)");
+        argparse.registerValueOption(null, "sample-margin", "PERCENT", "margin of the estimated non-conformance rate "
+                + "for the size of a random sample (default: 1)");
+        argparse.registerValueOption(null, "sample-seed", "N", "seed of the random sample (default: random)");
         argparse.parse(args);
 
+        // numeric options are read before anything is opened or started, not in
+        // the worker threads of a batch
+        Integer maxFailures = argparse.isSet("max-failures") ? argparse.getInt("max-failures") : null;
+        Long timeBudget = argparse.isSet("time-budget") ? argparse.getLong("time-budget") : null;
+        Long byteBudget = argparse.isSet("byte-budget") ? argparse.getLong("byte-budget") : null;
+        Long progress = argparse.isSet("progress") ? argparse.getLong("progress") : null;
+        Long checkpoint = argparse.isSet("checkpoint") ? argparse.getLong("checkpoint") : null;
+        Integer cacheSize = argparse.isSet("cache-size") ? argparse.getInt("cache-size") : null;
+        Integer maxFrameSize = argparse.isSet("max-frame-size") ? argparse.getInt("max-frame-size") : null;
+        Integer jobs = argparse.isSet("jobs") ? argparse.getInt("jobs") : null;
+        Long duration = argparse.isSet("duration") ? argparse.getLong("duration") : null;
+
+        // on Ctrl-C or SIGTERM the checks stop and report what they have checked so far
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            cancelled.set(true);
+            try {
+                finished.await(CANCEL_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        String format = argparse.isSet("report") ? argparse.getString("report") : "console";
+        OutputStream report = null;
+        if (format.equals("ndjson") || format.equals("binary")) {
+            try {
+                if (argparse.isSet("report-file")) {
+                    report = new FileOutputStream(argparse.getString("report-file"));
+                } else {
+                    // stdout only carries the records, other messages go to stderr
+                    report = new FileOutputStream(FileDescriptor.out);
+                    System.setOut(System.err);
+                }
+                if (format.equals("binary")) {
+                    BinaryReporter.writeHeader(report);
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+                return EXIT_FAILED;
+            }
+        } else if (!format.equals("console")) {
+            System.out.println("Error: unknown report format: " + format);
+            return EXIT_FAILED;
+        }
+        OutputStream reportOutput = report;
+
+        Metrics metrics = new Metrics();
+        if (argparse.getBoolean("jmx") && !metrics.register()) {
+            return EXIT_FAILED;
+        }
+        if (argparse.isSet("metrics-file")) {
+            long interval = argparse.isSet("metrics-interval") ? argparse.getLong("metrics-interval") * 1000 : 0;
+            metrics.startExport(argparse.getString("metrics-file"), interval);
+        } else if (argparse.isSet("metrics-interval")) {
+            System.out.println("Error: --metrics-interval requires --metrics-file");
+            return EXIT_FAILED;
+        }
+
+        Sampling sampling = null;
+        try {
+            double confidence = argparse.isSet("sample-confidence")
+                    ? argparse.getDouble("sample-confidence") / 100 : Sampling.DEFAULT_CONFIDENCE;
+            if (argparse.isSet("sample-every")) {
+                sampling = Sampling.every(argparse.getInt("sample-every"), confidence);
+            } else if (argparse.getBoolean("sample")) {
+                sampling = Sampling.random(confidence,
+                        argparse.isSet("sample-margin") ? argparse.getDouble("sample-margin") / 100 : Sampling.DEFAULT_MARGIN,
+                        argparse.isSet("sample-seed") ? argparse.getLong("sample-seed") : new Random().nextLong());
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        Sampling selection = sampling;
+
         String file = argparse.getString("file");
         boolean fullParse = argparse.getBoolean("full-parse");
         boolean compliance = argparse.getBoolean("compliance");
-        MJpegRtpCheck mjrc = new MJpegRtpCheck(file, fullParse, compliance);
-        mjrc.run();
+        Function<String, MJpegRtpCheck> factory = name -> {
+            MJpegRtpCheck check = new MJpegRtpCheck(name, fullParse, compliance);
+            check.setMetrics(metrics);
+            check.setCancellation(cancelled);
+            if (argparse.getBoolean("fail-fast")) {
+                check.setMaxFailures(1);
+            }
+            if (maxFailures != null) {
+                check.setMaxFailures(maxFailures);
+            }
+            if (timeBudget != null) {
+                check.setTimeBudget(timeBudget * 1000);
+            }
+            if (byteBudget != null) {
+                check.setByteBudget(byteBudget);
+            }
+            if (progress != null) {
+                check.setProgressInterval(progress * 1000);
+            }
+            if (checkpoint != null) {
+                check.setCheckpointInterval(checkpoint * 1000);
+            }
+            check.setResume(argparse.getBoolean("resume"));
+            check.setSampling(selection);
+            check.setDecode(argparse.getBoolean("decode"));
+            check.setCrossCheck(argparse.getBoolean("cross-check"));
+            if (format.equals("ndjson")) {
+                check.setReporter(new NdjsonReporter(reportOutput));
+            } else if (format.equals("binary")) {
+                check.setReporter(new BinaryReporter(reportOutput));
+            }
+            check.setMemoryMapped(argparse.getBoolean("mmap"));
+            check.setUseIndex(argparse.getBoolean("index"));
+            if (cacheSize != null) {
+                check.setHeaderCacheSize(cacheSize);
+            }
+            if (maxFrameSize != null) {
+                check.setMaxFrameSize(maxFrameSize);
+            }
+            if (jobs != null) {
+                check.setJobs(jobs);
+            }
+            if (duration != null) {
+                check.setDuration(duration * 1000);
+            }
+            return check;
+        };
+
+        List<String> files = new ArrayList<>();
+        files.add(file);
+        files.addAll(argparse.getList("files"));
+        if (files.size() > 1 || BatchValidator.isBatch(file)) {
+            if (argparse.isSet("packetize") || argparse.isSet("rewrite")) {
+                System.out.println("Error: packetizing and rewriting are not supported for multiple files");
+                return EXIT_FAILED;
+            }
+            if (files.contains("-") || files.stream().anyMatch(f -> f.startsWith("udp:"))) {
+                System.out.println("Error: stdin and UDP ports cannot be checked with multiple files");
+                return EXIT_FAILED;
+            }
+            files = BatchValidator.collect(files);
+            if (files == null) {
+                return EXIT_FAILED;
+            }
+            int ioLimit = argparse.isSet("io-limit") ? argparse.getInt("io-limit")
+                    : Runtime.getRuntime().availableProcessors();
+            try {
+                return new BatchValidator(factory, ioLimit).run(files);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                return EXIT_FAILED;
+            }
+        }
+
+        MJpegRtpCheck mjrc = factory.apply(file);
+
+        PcapWriter pcap = null;
+        Rfc2435Packetizer packetizer = null;
+        if (argparse.isSet("packetize")) {
+            int policy = Rfc2435Packetizer.tablePolicy(argparse.isSet("tables") ? argparse.getString("tables") : "always");
+            if (policy < 0) {
+                System.out.println("Error: unknown table policy: " + argparse.getString("tables"));
+                return EXIT_FAILED;
+            }
+            try {
+                pcap = new PcapWriter(argparse.getString("packetize"),
+                        Rfc2435Packetizer.RTP_PORT, Rfc2435Packetizer.RTP_PORT);
+                packetizer = new Rfc2435Packetizer(pcap,
+                        argparse.isSet("mtu") ? argparse.getInt("mtu") : Rfc2435Packetizer.DEFAULT_MTU, policy,
+                        argparse.isSet("fps") ? argparse.getInt("fps") : Rfc2435Packetizer.DEFAULT_FRAME_RATE);
+                mjrc.setPacketizer(packetizer);
+            } catch (IOException e) {
+                System.out.println(e);
+                return EXIT_FAILED;
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                pcap.close();
+                return EXIT_FAILED;
+            }
+        }
+        Rfc2435Rewriter rewriter = null;
+        if (argparse.isSet("rewrite")) {
+            String type = fileType(file);
+            try {
+                rewriter = new Rfc2435Rewriter(argparse.getString("rewrite"),
+                        type == "mjpeg" || type == "avi" || type == "mov" ? file : null);
+            } catch (IOException e) {
+                System.out.println(e);
+                if (pcap != null) {
+                    pcap.close();
+                }
+                return EXIT_FAILED;
+            }
+            mjrc.setRewriter(rewriter);
+        }
+        boolean passed = mjrc.run();
+        if (pcap != null) {
+            pcap.close();
+        }
+        if (rewriter != null) {
+            rewriter.close();
+            passed &= !rewriter.failed();
+        }
+        return exitCode(passed, mjrc.isComplete());
+    }
+
+    /**
+     * Get the exit code for the result of a check.
+     *
+     * @param passed true if the checked images passed
+     * @param complete true if all images were checked
+     * @return EXIT_PASSED, EXIT_FAILED or EXIT_INCOMPLETE
+     */
+    public static int exitCode(boolean passed, boolean complete) {
+        if (!passed) {
+            return EXIT_FAILED;
+        }
+        return complete ? EXIT_PASSED : EXIT_INCOMPLETE;
+    }
+
+    /**
+     * Ignores all results, e.g. to evaluate a test without printing it.
+     */
+    private static class NullReporter implements Reporter {
+        @Override
+        public void begin(String file) {
+        }
+
+        @Override
+        public void frame(long frame, long stream, long offset, int length, long fingerprint, int width,
+                int height, int status) {
+        }
+
+        @Override
+        public void testResult(String test, boolean passed) {
+        }
+
+        @Override
+        public void conformance(boolean conformant) {
+        }
+
+        @Override
+        public void metadata(JpegRtpMetadata jrm) {
+        }
+
+        @Override
+        public void end(boolean passed, long frames) {
+        }
+
+        @Override
+        public void flush() {
+        }
     }
 }
 
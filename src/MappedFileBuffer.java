@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Memory-mapped source for reading multiple JPEGs from a file.
+ *
+ * The file is mapped into memory and the images are handed out as
+ * read-only views of the mapping, so the image data is never copied.
+ * Files larger than the mapping window (e.g. above 2 GiB, the maximum
+ * size of a single mapping) are mapped in windows. A window is remapped
+ * at the start of an image if the image crosses the end of the window.
+ */
+public class MappedFileBuffer implements FrameSource {
+    private FileChannel channel = null;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0; // file offset of the window
+    private long windowSize = 0; // maximum size of a window
+    private long fileSize = 0;
+    private long position = 0; // file offset to continue searching
+    private long frameOffset = -1;
+
+    public static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+
+    /**
+     * Create a MappedFileBuffer for reading images from a file.
+     *
+     * @param filename name of the video file
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileBuffer(String filename) throws IOException {
+        this(filename, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a MappedFileBuffer for reading images from a file
+     * using a custom window size.
+     *
+     * @param filename name of the video file
+     * @param windowSize maximum number of bytes mapped at once, limits the image size
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileBuffer(String filename, long windowSize) throws IOException {
+        if (windowSize < 2 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Close the file. Already returned images stay valid.
+     */
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        channel = null;
+        window = null;
+        position = fileSize;
+    }
+
+    @Override
+    public boolean seek(long offset) {
+        if (channel == null || offset < 0 || offset > fileSize) {
+            return false;
+        }
+        position = offset;
+        return true;
+    }
+
+    @Override
+    public long frameOffset() {
+        return frameOffset;
+    }
+
+    /**
+     * Get the next JPEG image from the file.
+     *
+     * The returned buffer is a read-only view of the mapped file and
+     * stays valid after subsequent calls.
+     *
+     * @return JPEG image, null if there is no further complete image
+     */
+    @Override
+    public ByteBuffer nextFrame() {
+        long soi = findMarker(position, VideoFileBuffer.JPEG_SOI);
+        if (soi == -1) {
+            position = fileSize;
+            return null;
+        }
+
+        long eoi = -1;
+        long from = skipHeader(soi);
+        while (eoi == -1) {
+            if (!mapWindow(soi)) {
+                return null;
+            }
+            eoi = scan(from, VideoFileBuffer.JPEG_EOI);
+            if (eoi == -1) {
+                long windowEnd = windowStart + window.limit();
+                if (windowEnd >= fileSize) {
+                    position = fileSize; // incomplete image at the end of the file
+                    return null;
+                }
+                if (windowStart == soi) {
+                    System.out.println("Error: JPEG image at offset " + soi
+                            + " exceeds the mapping window of " + windowSize + " bytes");
+                    position = fileSize;
+                    return null;
+                }
+                from = Math.max(from, windowEnd - 1); // the marker may straddle the window end
+                window = null; // remap at the begin of the image
+            }
+        }
+
+        eoi += 2; // include EOI marker in data
+        position = eoi;
+        frameOffset = soi;
+
+        ByteBuffer frame = window.duplicate();
+        frame.limit((int)(eoi - windowStart));
+        frame.position((int)(soi - windowStart));
+        return frame.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Skip the header segments of an image by their lengths (see
+     * JpegMarkerParser.isHeaderSegment). The window is remapped at the
+     * begin of the image if the header crosses its end.
+     *
+     * @param soi file offset of the SOI marker of the image
+     * @return file offset to start the search for the EOI marker at
+     */
+    private long skipHeader(long soi) {
+        long pos = soi + 2;
+        while (mapWindow(soi)) {
+            long windowEnd = windowStart + window.limit();
+            while (pos + 4 <= windowEnd && window.get((int)(pos - windowStart)) == VideoFileBuffer.JPEG_MARKER
+                    && JpegMarkerParser.isHeaderSegment(window.get((int)(pos - windowStart) + 1) & 0xFF)) {
+                int idx = (int)(pos - windowStart);
+                pos += 2 + ((window.get(idx+2) & 0xFF) << 8 | (window.get(idx+3) & 0xFF));
+            }
+            if (pos + 4 <= windowEnd || windowEnd >= fileSize || windowStart == soi) {
+                break;
+            }
+            window = null; // remap at the begin of the image
+        }
+        return pos;
+    }
+
+    /**
+     * Search for a marker, moving the window forward if necessary.
+     *
+     * @return file offset of the marker, -1 if not found
+     */
+    private long findMarker(long from, byte marker) {
+        while (from < fileSize - 1) {
+            if (!mapWindow(from)) {
+                return -1;
+            }
+            long pos = scan(from, marker);
+            if (pos != -1) {
+                return pos;
+            }
+            long windowEnd = windowStart + window.limit();
+            if (windowEnd >= fileSize) {
+                break;
+            }
+            from = windowEnd - 1; // the marker may straddle the window end
+            window = null;
+        }
+        return -1;
+    }
+
+    /**
+     * Search for a marker in the current window.
+     *
+     * @return file offset of the marker, -1 if not found
+     */
+    private long scan(long from, byte marker) {
+        int pos = MarkerScanner.find(window, (int)(from - windowStart), window.limit(), marker);
+        return pos == -1 ? -1 : windowStart + pos;
+    }
+
+    /**
+     * Make sure the window contains the given file offset. The window is
+     * just remapped if the offset is not yet mapped, in that case the new
+     * window starts at the given offset.
+     *
+     * @return true if successful, false otherwise
+     */
+    private boolean mapWindow(long start) {
+        if (window != null && start >= windowStart && start < windowStart + window.limit()) {
+            return true;
+        }
+        if (channel == null) {
+            return false;
+        }
+        long size = Math.min(windowSize, fileSize - start);
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        windowStart = start;
+        return true;
+    }
+}
@@ -0,0 +1,153 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Searches JPEG markers (0xFF followed by a marker byte) in image data.
+ *
+ * The search tests eight bytes per step: every long word is checked for
+ * 0xFF bytes with bit operations (SWAR, SIMD within a register) and only
+ * the candidate positions are inspected byte by byte. The scalar search
+ * is used for the remaining bytes and is kept for comparison.
+ */
+public class MarkerScanner {
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private MarkerScanner() {
+    }
+
+    /**
+     * Search for a marker.
+     *
+     * @param data data to search
+     * @param from index to start the search at
+     * @param to end of the data (exclusive)
+     * @param marker marker byte following 0xFF
+     * @return index of the 0xFF byte of the marker, -1 if not found
+     */
+    public static int find(byte[] data, int from, int to, byte marker) {
+        int i = from;
+        for (; i + 8 < to; i += 8) {
+            long candidates = markerBytes((long)LONG_VIEW.get(data, i));
+            while (candidates != 0) {
+                int pos = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (data[pos] == VideoFileBuffer.JPEG_MARKER && data[pos+1] == marker) {
+                    return pos;
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        return findScalar(data, i, to, marker);
+    }
+
+    /**
+     * Search for a marker.
+     *
+     * @param data data to search, absolute indices are used and the buffer is not modified
+     * @param from index to start the search at
+     * @param to end of the data (exclusive)
+     * @param marker marker byte following 0xFF
+     * @return index of the 0xFF byte of the marker, -1 if not found
+     */
+    public static int find(ByteBuffer data, int from, int to, byte marker) {
+        if (data.hasArray()) {
+            int pos = find(data.array(), data.arrayOffset() + from, data.arrayOffset() + to, marker);
+            return pos == -1 ? -1 : pos - data.arrayOffset();
+        }
+        ByteBuffer buf = data.order() == ByteOrder.LITTLE_ENDIAN
+                ? data : data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+        for (; i + 8 < to; i += 8) {
+            long candidates = markerBytes(buf.getLong(i));
+            while (candidates != 0) {
+                int pos = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (buf.get(pos) == VideoFileBuffer.JPEG_MARKER && buf.get(pos+1) == marker) {
+                    return pos;
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        return findScalar(buf, i, to, marker);
+    }
+
+    /**
+     * Search for the next restart marker (RST0 to RST7).
+     *
+     * @param data data to search, absolute indices are used and the buffer is not modified
+     * @param from index to start the search at
+     * @param to end of the data (exclusive)
+     * @return index of the 0xFF byte of the marker, -1 if not found
+     */
+    public static int findRestart(ByteBuffer data, int from, int to) {
+        ByteBuffer buf = data.order() == ByteOrder.LITTLE_ENDIAN
+                ? data : data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+        for (; i + 8 < to; i += 8) {
+            long candidates = markerBytes(buf.getLong(i));
+            while (candidates != 0) {
+                int pos = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (buf.get(pos) == VideoFileBuffer.JPEG_MARKER && (buf.get(pos+1) & 0xF8) == 0xD0) {
+                    return pos;
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        for (; i < to - 1; i++) {
+            if (buf.get(i) == VideoFileBuffer.JPEG_MARKER && (buf.get(i+1) & 0xF8) == 0xD0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Search for a marker one byte at a time.
+     *
+     * @see #find(byte[], int, int, byte)
+     */
+    public static int findScalar(byte[] data, int from, int to, byte marker) {
+        for (int i = from; i < to - 1; i++) {
+            if (data[i] == VideoFileBuffer.JPEG_MARKER) {
+                if (data[i+1] == marker) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Search for a marker one byte at a time.
+     *
+     * @see #find(ByteBuffer, int, int, byte)
+     */
+    public static int findScalar(ByteBuffer data, int from, int to, byte marker) {
+        for (int i = from; i < to - 1; i++) {
+            if (data.get(i) == VideoFileBuffer.JPEG_MARKER) {
+                if (data.get(i+1) == marker) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Mark the 0xFF bytes of a little-endian word.
+     *
+     * The lowest set bit belongs to the first 0xFF byte. Bits of higher
+     * bytes may be false positives (caused by the borrow of the
+     * subtraction), so every candidate has to be verified.
+     *
+     * @return word with the high bit of the candidate bytes set
+     */
+    public static long markerBytes(long word) {
+        long inverted = ~word; // 0xFF bytes become zero bytes
+        return (inverted - ONES) & ~inverted & HIGHS;
+    }
+}
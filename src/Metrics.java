@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Counters and latency histograms of the stages of checking images.
+ *
+ * The stages are reading the next image from the source (SCAN, including
+ * the copy into the image buffer), extracting its metadata (EXTRACT,
+ * fingerprint, cache lookup and parsing of the header), comparing it with
+ * the reference (COMPARE), splitting it into RTP packets (PACKETIZE) and
+ * decoding its Huffman-coded data (DECODE).
+ * The latencies are counted in histograms with power of two buckets, the
+ * counters are LongAdders so the threads comparing images in parallel do
+ * not contend on them.
+ *
+ * The metrics can be read over JMX (see register) and written to a file
+ * in the Prometheus text exposition format (see writePrometheus and
+ * startExport).
+ */
+public class Metrics implements MetricsMBean {
+    public static final int SCAN = 0;
+    public static final int EXTRACT = 1;
+    public static final int COMPARE = 2;
+    public static final int PACKETIZE = 3;
+    public static final int DECODE = 4;
+    public static final String[] STAGES = { "scan", "extract", "compare", "packetize", "decode" };
+
+    /** bucket i counts durations below 2^(i + MIN_BUCKET_SHIFT) ns, the last one all longer */
+    private static final int BUCKETS = 28;
+    private static final int MIN_BUCKET_SHIFT = 8;
+    private static final String OBJECT_NAME = "MJpegRtpCheck:type=Metrics";
+
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final LongAdder[][] buckets = new LongAdder[STAGES.length][BUCKETS];
+    private final LongAdder[] stageNanos = new LongAdder[STAGES.length];
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final long startNanos;
+    private ScheduledExecutorService exporter;
+
+
+    /**
+     * Create empty Metrics, the frame rate is measured from now on.
+     */
+    public Metrics() {
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            stageNanos[stage] = new LongAdder();
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[stage][i] = new LongAdder();
+            }
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Count the duration of a stage.
+     *
+     * @param stage SCAN, EXTRACT, COMPARE, PACKETIZE or DECODE
+     * @param nanos duration in nanoseconds
+     */
+    public void record(int stage, long nanos) {
+        int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(nanos) - MIN_BUCKET_SHIFT);
+        buckets[stage][Math.min(bucket, BUCKETS - 1)].increment();
+        stageNanos[stage].add(nanos);
+    }
+
+    /**
+     * Count an image read from the source.
+     *
+     * @param length length of the image in bytes
+     */
+    public void frame(int length) {
+        frames.increment();
+        bytesRead.add(length);
+    }
+
+    /**
+     * Get the number of bytes the current thread has allocated so far.
+     *
+     * @return allocated bytes, -1 if the JVM does not measure allocations
+     */
+    public static long allocationMark() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)THREADS)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Count the bytes the current thread has allocated since a mark.
+     *
+     * @param mark value of allocationMark
+     * @return new mark
+     */
+    public long allocated(long mark) {
+        long now = allocationMark();
+        if (mark >= 0 && now >= mark) {
+            allocatedBytes.add(now - mark);
+        }
+        return now;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? frames.sum() / seconds : 0;
+    }
+
+    @Override
+    public double getAllocatedBytesPerFrame() {
+        long n = frames.sum();
+        return n > 0 ? (double)allocatedBytes.sum() / n : 0;
+    }
+
+    @Override
+    public String[] getStages() {
+        return STAGES.clone();
+    }
+
+    @Override
+    public long[] getStageCounts() {
+        long[] counts = new long[STAGES.length];
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            counts[stage] = count(stage);
+        }
+        return counts;
+    }
+
+    @Override
+    public double[] getStageMeanMicros() {
+        double[] means = new double[STAGES.length];
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            long n = count(stage);
+            means[stage] = n > 0 ? stageNanos[stage].sum() / 1e3 / n : 0;
+        }
+        return means;
+    }
+
+    @Override
+    public double stagePercentileMicros(String stage, double percentile) {
+        int s = stageIndex(stage);
+        if (s < 0 || percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid stage or percentile: " + stage + ", " + percentile);
+        }
+        long n = count(s);
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets[s][i].sum();
+            if (seen >= rank) {
+                return upperBound(i) * 1e6;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private long count(int stage) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += buckets[stage][i].sum();
+        }
+        return n;
+    }
+
+    private static int stageIndex(String name) {
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            if (STAGES[stage].equals(name)) {
+                return stage;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return upper bound of a histogram bucket in seconds
+     */
+    private static double upperBound(int bucket) {
+        return (1L << (bucket + MIN_BUCKET_SHIFT)) / 1e9;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server as
+     * "MJpegRtpCheck:type=Metrics", e.g. to be watched with JConsole.
+     *
+     * @return false if the MBean could not be registered, true otherwise
+     */
+    public boolean register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.out.println(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Format the metrics in the Prometheus text exposition format.
+     *
+     * @return metrics, one sample per line
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+        out.append("# HELP mjpeg_check_stage_seconds Duration of the stages of checking an image.\n");
+        out.append("# TYPE mjpeg_check_stage_seconds histogram\n");
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            String label = "stage=\"" + STAGES[stage] + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                cumulative += buckets[stage][i].sum();
+                out.append("mjpeg_check_stage_seconds_bucket{").append(label)
+                        .append(",le=\"").append(format(upperBound(i))).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += buckets[stage][BUCKETS - 1].sum();
+            out.append("mjpeg_check_stage_seconds_bucket{").append(label).append(",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            out.append("mjpeg_check_stage_seconds_sum{").append(label).append("} ")
+                    .append(format(stageNanos[stage].sum() / 1e9)).append('\n');
+            out.append("mjpeg_check_stage_seconds_count{").append(label).append("} ")
+                    .append(cumulative).append('\n');
+        }
+        sample(out, "mjpeg_check_frames_total", "counter", "Images read.", frames.sum());
+        sample(out, "mjpeg_check_read_bytes_total", "counter", "Bytes of the images read.", bytesRead.sum());
+        sample(out, "mjpeg_check_allocated_bytes_total", "counter",
+                "Bytes allocated by the threads checking images.", allocatedBytes.sum());
+        sample(out, "mjpeg_check_frames_per_second", "gauge",
+                "Images read per second since the start.", getFramesPerSecond());
+        sample(out, "mjpeg_check_allocated_bytes_per_frame", "gauge",
+                "Bytes allocated per image read.", getAllocatedBytesPerFrame());
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String type, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long)value);
+        }
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format.
+     *
+     * The file is replaced atomically, so a collector (e.g. the textfile
+     * collector of the node exporter) never reads a partial file.
+     *
+     * @param filename name of the file
+     * @return false if the file could not be written, true otherwise
+     */
+    public boolean writePrometheus(String filename) {
+        Path path = Paths.get(filename).toAbsolutePath();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.write(temporary, toPrometheus().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the metrics to a file when the program exits (also when it is
+     * interrupted) and optionally in an interval while it runs.
+     *
+     * @param filename name of the Prometheus file
+     * @param interval interval in milliseconds, 0 to write the file only on exit
+     */
+    public synchronized void startExport(String filename, long interval) {
+        if (interval > 0 && exporter == null) {
+            exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-export");
+                thread.setDaemon(true);
+                return thread;
+            });
+            exporter.scheduleAtFixedRate(() -> writePrometheus(filename), interval, interval, TimeUnit.MILLISECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (this) {
+                if (exporter != null) {
+                    exporter.shutdownNow();
+                    try {
+                        exporter.awaitTermination(1, TimeUnit.SECONDS); // a write in progress
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            writePrometheus(filename);
+        }));
+    }
+}
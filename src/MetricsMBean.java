@@ -0,0 +1,50 @@
+/**
+ * Management interface of the Metrics, the attributes are shown by JMX
+ * clients like JConsole or VisualVM.
+ */
+public interface MetricsMBean {
+    /**
+     * @return number of images read
+     */
+    long getFrames();
+
+    /**
+     * @return number of bytes of the images read
+     */
+    long getBytesRead();
+
+    /**
+     * @return images read per second since the start
+     */
+    double getFramesPerSecond();
+
+    /**
+     * @return bytes allocated by the checking threads per image read
+     */
+    double getAllocatedBytesPerFrame();
+
+    /**
+     * @return names of the stages, in the order of the other stage attributes
+     */
+    String[] getStages();
+
+    /**
+     * @return number of times each stage ran
+     */
+    long[] getStageCounts();
+
+    /**
+     * @return mean duration of each stage in microseconds
+     */
+    double[] getStageMeanMicros();
+
+    /**
+     * Estimate a percentile of the duration of a stage, the result is the
+     * upper bound of the histogram bucket containing it.
+     *
+     * @param stage name of the stage (see getStages)
+     * @param percentile percentile between 0 and 100
+     * @return duration in microseconds
+     */
+    double stagePercentileMicros(String stage, double percentile);
+}
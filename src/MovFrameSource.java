@@ -0,0 +1,418 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Source for reading the JPEG images of the video track of a QuickTime
+ * (MOV) or MP4 file.
+ *
+ * The atoms moov/trak/mdia/minf/stbl of the first video track with the
+ * sample format 'jpeg' or 'mjpa' are parsed and the position of every
+ * sample is computed from the sample size (stsz), chunk offset
+ * (stco/co64) and sample-to-chunk (stsc) tables. The samples are read
+ * with positioned reads.
+ *
+ * Samples in the MJPEG-A format may contain two fields (interlaced
+ * video), each of them a complete JPEG image. The fields are located by
+ * the 'mjpg' APP1 segment of the first field and handed out as separate
+ * images. The images are numbered by field for seekFrame, so the start of
+ * every sample is read once to count its fields when the images are
+ * accessed by number for the first time.
+ */
+public class MovFrameSource implements IndexedFrameSource {
+    private FileChannel channel = null;
+    private long fileSize = 0;
+    private FrameIndex samples = null; // file offset and size of the video samples
+    private int nextSample = 0;
+    private long frameOffset = -1;
+    private ByteBuffer buffer = null;
+    private int secondField = -1; // position of the second field in the buffer
+    private int sampleFormat = 0;
+    private int[] firstImage = null; // number of the first image of every sample (MJPEG-A), and the image count
+
+    private static final int ATOM_MOOV = fourcc("moov");
+    private static final int ATOM_TRAK = fourcc("trak");
+    private static final int ATOM_MDIA = fourcc("mdia");
+    private static final int ATOM_HDLR = fourcc("hdlr");
+    private static final int ATOM_MINF = fourcc("minf");
+    private static final int ATOM_STBL = fourcc("stbl");
+    private static final int ATOM_STSD = fourcc("stsd");
+    private static final int ATOM_STSZ = fourcc("stsz");
+    private static final int ATOM_STCO = fourcc("stco");
+    private static final int ATOM_CO64 = fourcc("co64");
+    private static final int ATOM_STSC = fourcc("stsc");
+    private static final int HANDLER_VIDE = fourcc("vide");
+    public static final int FORMAT_JPEG = fourcc("jpeg");
+    public static final int FORMAT_MJPA = fourcc("mjpa");
+    private static final int APP1_MJPG = fourcc("mjpg");
+    private static final int MJPG_HEADER_SIZE = 4 + 4 + 4 + 4 * 4;
+
+
+    /**
+     * Create a MovFrameSource for reading images from a QuickTime file.
+     *
+     * @param filename name of the QuickTime file
+     * @throws IOException if the file cannot be read or has no MJPEG video track
+     */
+    public MovFrameSource(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        fileSize = channel.size();
+        buffer = ByteBuffer.allocate(1 << 20);
+        try {
+            long[] moov = findAtom(0, fileSize, ATOM_MOOV);
+            if (moov == null) {
+                throw new IOException("No moov atom found in QuickTime file");
+            }
+            for (long pos = moov[0]; pos < moov[1] && samples == null; ) {
+                long[] trak = findAtom(pos, moov[1], ATOM_TRAK);
+                if (trak == null) {
+                    break;
+                }
+                parseTrack(trak[0], trak[1]);
+                pos = trak[1];
+            }
+            if (samples == null) {
+                throw new IOException("No MJPEG video track found in QuickTime file");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        channel = null;
+        buffer = null;
+    }
+
+    @Override
+    public int indexedFrames() {
+        if (samples == null) {
+            return 0;
+        }
+        return sampleFormat == FORMAT_MJPA ? firstImages()[samples.size()] : samples.size();
+    }
+
+    @Override
+    public boolean seekFrame(int frame) {
+        if (channel == null || frame < 0 || frame > indexedFrames()) {
+            return false;
+        }
+        secondField = -1;
+        if (sampleFormat != FORMAT_MJPA) {
+            nextSample = frame;
+            return true;
+        }
+        int sample = Arrays.binarySearch(firstImages(), frame);
+        if (sample >= 0) {
+            nextSample = sample;
+            return true;
+        }
+        // second field: read the sample, its first field is skipped
+        nextSample = -sample - 2;
+        return nextFrame() != null && secondField != -1;
+    }
+
+    @Override
+    public long frameOffset() {
+        return frameOffset;
+    }
+
+    @Override
+    public boolean seek(long offset) {
+        if (channel == null) {
+            return false;
+        }
+        secondField = -1;
+        nextSample = samples.size();
+        for (int i = 0; i < samples.size(); i++) {
+            if (samples.offset(i) >= offset) {
+                nextSample = i;
+                break;
+            }
+        }
+        // an offset within an MJPEG-A sample continues at its second field
+        int sample = nextSample - 1;
+        if (sampleFormat == FORMAT_MJPA && sample >= 0
+                && offset > samples.offset(sample) && offset < samples.offset(sample) + samples.length(sample)) {
+            nextSample = sample;
+            if (nextFrame() == null) {
+                return false;
+            }
+            if (secondField != -1 && samples.offset(sample) + secondField < offset) {
+                secondField = -1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the next JPEG image, i.e. the next sample or field.
+     *
+     * @return JPEG image, null if there is no further image
+     */
+    @Override
+    public ByteBuffer nextFrame() {
+        if (channel == null) {
+            return null;
+        }
+        if (secondField != -1) {
+            frameOffset = samples.offset(nextSample - 1) + secondField;
+            buffer.limit(samples.length(nextSample - 1));
+            buffer.position(secondField);
+            secondField = -1;
+            return buffer.slice();
+        }
+        if (nextSample >= samples.size()) {
+            return null;
+        }
+
+        int sample = nextSample++;
+        int length = samples.length(sample);
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, samples.offset(sample) + buffer.position()) == -1) {
+                    System.out.println("Error: sample " + (sample + 1) + " exceeds the end of the file");
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        }
+        buffer.flip();
+        frameOffset = samples.offset(sample);
+
+        if (sampleFormat == FORMAT_MJPA) {
+            int fieldSize = splitFields(buffer);
+            if (fieldSize > 0) {
+                buffer.limit(fieldSize);
+            }
+        }
+        return buffer.slice();
+    }
+
+    /**
+     * @return number of samples of the video track
+     */
+    public int sampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * @return sample format of the video track (FORMAT_JPEG or FORMAT_MJPA)
+     */
+    public int sampleFormat() {
+        return sampleFormat;
+    }
+
+    /**
+     * Split an MJPEG-A sample into its fields.
+     *
+     * @return size of the first field, 0 if the sample has just one field
+     */
+    private int splitFields(ByteBuffer sample) {
+        int nextField = secondField(sample, sample.limit());
+        if (nextField == -1) {
+            return 0;
+        }
+        secondField = nextField;
+        int fieldSize = sample.getInt(14);
+        return fieldSize > 0 && fieldSize <= nextField ? fieldSize : nextField;
+    }
+
+    /**
+     * Locate the second field of an MJPEG-A sample by the 'mjpg' APP1
+     * segment of the first field.
+     *
+     * @param sample start of the sample, at least MJPG_HEADER_SIZE bytes
+     * @param length length of the sample
+     * @return position of the second field in the sample, -1 if the sample has just one field
+     */
+    private static int secondField(ByteBuffer sample, int length) {
+        if (length < MJPG_HEADER_SIZE || sample.limit() < MJPG_HEADER_SIZE
+                || (sample.get(2) & 0xFF) != 0xFF || (sample.get(3) & 0xFF) != 0xE1) {
+            return -1;
+        }
+        // SOI, APP1 marker and length, reserved (4 bytes), tag 'mjpg'
+        if (sample.getInt(10) != APP1_MJPG) {
+            return -1;
+        }
+        int nextField = sample.getInt(22);
+        if (nextField <= 0 || nextField >= length) {
+            return -1;
+        }
+        return nextField;
+    }
+
+    /**
+     * Count the fields of all MJPEG-A samples when they are needed first.
+     *
+     * @return number of the first image of every sample, followed by the number of images
+     */
+    private int[] firstImages() {
+        if (firstImage != null) {
+            return firstImage;
+        }
+        int[] first = new int[samples.size() + 1];
+        ByteBuffer head = ByteBuffer.allocate(MJPG_HEADER_SIZE);
+        for (int i = 0; i < samples.size(); i++) {
+            int fields = 1;
+            head.clear();
+            head.limit(Math.min(MJPG_HEADER_SIZE, samples.length(i)));
+            try {
+                while (head.hasRemaining()) {
+                    if (channel.read(head, samples.offset(i) + head.position()) == -1) {
+                        break;
+                    }
+                }
+                head.flip();
+                if (secondField(head, samples.length(i)) != -1) {
+                    fields = 2;
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+            first[i + 1] = first[i] + fields;
+        }
+        firstImage = first;
+        return firstImage;
+    }
+
+    private void parseTrack(long pos, long end) throws IOException {
+        long[] mdia = findAtom(pos, end, ATOM_MDIA);
+        if (mdia == null) {
+            return;
+        }
+        long[] hdlr = findAtom(mdia[0], mdia[1], ATOM_HDLR);
+        if (hdlr == null || read(hdlr[0] + 8, 4).getInt(0) != HANDLER_VIDE) {
+            return;
+        }
+        long[] minf = findAtom(mdia[0], mdia[1], ATOM_MINF);
+        long[] stbl = minf == null ? null : findAtom(minf[0], minf[1], ATOM_STBL);
+        if (stbl == null) {
+            return;
+        }
+
+        long[] stsd = findAtom(stbl[0], stbl[1], ATOM_STSD);
+        if (stsd == null || stsd[1] - stsd[0] < 16) {
+            return;
+        }
+        // version/flags, number of entries, first entry: size, format
+        int format = read(stsd[0] + 12, 4).getInt(0);
+        if (format != FORMAT_JPEG && format != FORMAT_MJPA) {
+            return;
+        }
+
+        long[] stsz = findAtom(stbl[0], stbl[1], ATOM_STSZ);
+        long[] stsc = findAtom(stbl[0], stbl[1], ATOM_STSC);
+        long[] stco = findAtom(stbl[0], stbl[1], ATOM_STCO);
+        boolean co64 = false;
+        if (stco == null) {
+            stco = findAtom(stbl[0], stbl[1], ATOM_CO64);
+            co64 = true;
+        }
+        if (stsz == null || stsc == null || stco == null) {
+            throw new IOException("Incomplete sample table in QuickTime file");
+        }
+
+        ByteBuffer sz = read(stsz[0], (int)(stsz[1] - stsz[0]));
+        int constantSize = sz.getInt(4);
+        int sampleCount = sz.getInt(8);
+        ByteBuffer sc = read(stsc[0], (int)(stsc[1] - stsc[0]));
+        int scEntries = sc.getInt(4);
+        ByteBuffer co = read(stco[0], (int)(stco[1] - stco[0]));
+        int chunkCount = co.getInt(4);
+        if (constantSize == 0 && 12 + 4L * sampleCount > sz.limit()
+                || 8 + 12L * scEntries > sc.limit()
+                || 8 + (co64 ? 8L : 4L) * chunkCount > co.limit()) {
+            throw new IOException("Truncated sample table in QuickTime file");
+        }
+
+        FrameIndex index = new FrameIndex();
+        int sample = 0;
+        for (int e = 0; e < scEntries && sample < sampleCount; e++) {
+            int firstChunk = sc.getInt(8 + e * 12);
+            int samplesPerChunk = sc.getInt(8 + e * 12 + 4);
+            int lastChunk = e + 1 < scEntries ? sc.getInt(8 + (e + 1) * 12) - 1 : chunkCount;
+            for (int chunk = firstChunk; chunk <= lastChunk && chunk <= chunkCount; chunk++) {
+                long offset = co64 ? co.getLong(8 + (chunk - 1) * 8)
+                                   : co.getInt(8 + (chunk - 1) * 4) & 0xFFFFFFFFL;
+                for (int i = 0; i < samplesPerChunk && sample < sampleCount; i++, sample++) {
+                    int size = constantSize != 0 ? constantSize : sz.getInt(12 + sample * 4);
+                    if (size > 0 && offset + size <= fileSize) {
+                        index.add(offset, size, HeaderFingerprint.NONE);
+                    }
+                    offset += size;
+                }
+            }
+        }
+        samples = index;
+        sampleFormat = format;
+    }
+
+    /**
+     * Find a child atom.
+     *
+     * @return {begin of the atom data, end of the atom}, null if not found
+     */
+    private long[] findAtom(long pos, long end, int type) throws IOException {
+        while (pos + 8 <= end) {
+            ByteBuffer hdr = read(pos, 16);
+            long size = hdr.getInt(0) & 0xFFFFFFFFL;
+            int header = 8;
+            if (size == 1) { // 64 bit size
+                size = hdr.getLong(8);
+                header = 16;
+            } else if (size == 0) { // atom extends to the end
+                size = end - pos;
+            }
+            if (size < header) {
+                return null;
+            }
+            long atomEnd = Math.min(pos + size, end);
+            if (hdr.getInt(4) == type) {
+                return new long[] { pos + header, atomEnd };
+            }
+            pos = atomEnd;
+        }
+        return null;
+    }
+
+    /**
+     * Read a structure of the file, missing bytes at the end of a
+     * truncated file are read as zeros.
+     */
+    private ByteBuffer read(long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.limit((int)Math.max(0, Math.min(length, fileSize - pos)));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) == -1) {
+                break;
+            }
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private static int fourcc(String s) {
+        return s.charAt(0) << 24 | s.charAt(1) << 16 | s.charAt(2) << 8 | s.charAt(3);
+    }
+}
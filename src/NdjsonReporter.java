@@ -0,0 +1,237 @@
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Writes the results as newline-delimited JSON, one object per line:
+ *
+ * <pre>
+ * {"type":"file","file":"a.avi"}
+ * {"type":"frame","file":"a.avi","frame":1,"stream":0,"offset":4096,"length":81234,
+ *  "fingerprint":"8f3a...","width":1920,"height":1080,"status":"equal"}
+ * {"type":"test","file":"a.avi","test":"Baseline DCT sequential","passed":true}
+ * {"type":"conformance","file":"a.avi","conformant":true}
+ * {"type":"metadata","file":"a.avi","baseline":true,...,"subsampling":"4:2:0"}
+ * {"type":"end","file":"a.avi","passed":true,"frames":1500}
+ * </pre>
+ *
+ * (the frame record is a single line). The status of a frame is "equal",
+ * "different" or "error", width and height are 0 if the image could not
+ * be parsed. The records are encoded directly into the output buffer, a
+ * frame record does not allocate.
+ */
+public class NdjsonReporter extends StreamReporter {
+    private byte[] file = new byte[0]; // escaped file name
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] STATUS = {
+        ascii("equal"), ascii("different"), ascii("error")
+    };
+    private static final byte[] FRAME = ascii("{\"type\":\"frame\",\"file\":\"");
+
+
+    /**
+     * Create a NdjsonReporter.
+     *
+     * @param out output, shared outputs are synchronized on
+     */
+    public NdjsonReporter(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void begin(String file) {
+        this.file = escape(file);
+        start("file");
+        end();
+    }
+
+    @Override
+    public void frame(long frame, long stream, long offset, int size, long fingerprint, int width, int height,
+            int status) {
+        ensure(FRAME.length + file.length + 256);
+        put(FRAME);
+        put(file);
+        putAscii("\",\"frame\":");
+        putLong(frame);
+        putAscii(",\"stream\":");
+        putLong(stream);
+        putAscii(",\"offset\":");
+        putLong(offset);
+        putAscii(",\"length\":");
+        putLong(size);
+        putAscii(",\"fingerprint\":\"");
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            buffer[length++] = HEX[(int)(fingerprint >>> shift) & 0xF];
+        }
+        putAscii("\",\"width\":");
+        putLong(width);
+        putAscii(",\"height\":");
+        putLong(height);
+        putAscii(",\"status\":\"");
+        put(STATUS[status]);
+        putAscii("\"");
+        end();
+    }
+
+    @Override
+    public void testResult(String test, boolean passed) {
+        byte[] name = escape(test);
+        start("test");
+        ensure(name.length + 64);
+        putAscii(",\"test\":\"");
+        put(name);
+        putAscii("\",\"passed\":");
+        putAscii(passed ? "true" : "false");
+        end();
+    }
+
+    @Override
+    public void conformance(boolean conformant) {
+        start("conformance");
+        putAscii(",\"conformant\":");
+        putAscii(conformant ? "true" : "false");
+        end();
+    }
+
+    @Override
+    public void metadata(JpegRtpMetadata jrm) {
+        start("metadata");
+        ensure(512);
+        putAscii(",\"baseline\":");
+        putAscii(jrm.baseline ? "true" : "false");
+        putAscii(",\"huffman\":");
+        putAscii(jrm.huffman ? "true" : "false");
+        putAscii(",\"scans\":");
+        putLong(jrm.numSOS);
+        putAscii(",\"width\":");
+        putLong(jrm.width);
+        putAscii(",\"height\":");
+        putLong(jrm.height);
+        putAscii(",\"precision\":");
+        putLong(jrm.samplePrecision);
+        putAscii(",\"pixelAspectRatio\":");
+        putAscii(Double.isFinite(jrm.pixelAspectRatio) ? Double.toString(jrm.pixelAspectRatio) : "null");
+        putAscii(",\"components\":");
+        putLong(jrm.numFrameComponents);
+        putAscii(",\"quantizationTables\":");
+        putLong(jrm.numDQT);
+        putAscii(",\"q\":");
+        if (jrm.qFactor > 0) {
+            putLong(jrm.qFactor);
+        } else {
+            putAscii("null");
+        }
+        putAscii(",\"inBandTableBytes\":");
+        putLong(jrm.qFactor > 0 ? 0 : Rfc2435Tables.inBandLength(jrm));
+        putAscii(",\"huffmanTables\":");
+        putLong(jrm.numDHT);
+        putAscii(",\"restartInterval\":");
+        putLong(jrm.restartInterval);
+        putAscii(",\"subsampling\":\"");
+        putLong(jrm.subsampling[0][0]);
+        putAscii(":");
+        putLong(jrm.subsampling[0][1]);
+        putAscii(":");
+        putLong(jrm.subsampling[0][2]);
+        putAscii("\"");
+        end();
+    }
+
+    @Override
+    public void end(boolean passed, long frames) {
+        start("end");
+        putAscii(",\"passed\":");
+        putAscii(passed ? "true" : "false");
+        putAscii(",\"frames\":");
+        putLong(frames);
+        end();
+        flush();
+    }
+
+    /**
+     * Start a record with its type and the file.
+     */
+    private void start(String type) {
+        ensure(file.length + 64);
+        putAscii("{\"type\":\"");
+        putAscii(type);
+        putAscii("\",\"file\":\"");
+        put(file);
+        putAscii("\"");
+    }
+
+    private void end() {
+        ensure(2);
+        buffer[length++] = '}';
+        buffer[length++] = '\n';
+        recordDone();
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Append a string of ASCII characters, the caller has ensured the space.
+     */
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer[length++] = (byte)s.charAt(i);
+        }
+    }
+
+    /**
+     * Append the decimal digits of a number, the caller has ensured the space.
+     */
+    private void putLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                putAscii("-9223372036854775808");
+                return;
+            }
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Encode a string as UTF-8 escaped for a JSON string.
+     */
+    private static byte[] escape(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        byte[] escaped = new byte[6 * bytes.length];
+        int n = 0;
+        for (byte b : bytes) {
+            if (b == '"' || b == '\\') {
+                escaped[n++] = '\\';
+                escaped[n++] = b;
+            } else if (b >= 0 && b < 0x20) {
+                escaped[n++] = '\\';
+                escaped[n++] = 'u';
+                escaped[n++] = '0';
+                escaped[n++] = '0';
+                escaped[n++] = HEX[b >> 4];
+                escaped[n++] = HEX[b & 0xF];
+            } else {
+                escaped[n++] = b;
+            }
+        }
+        return Arrays.copyOf(escaped, n);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Rejects combinations of options a check does not support.
+ *
+ * The options of a check are given as a set of flags. Every rule of the
+ * table names flags that cannot be set together, and optionally a flag
+ * that the other flags require. The first matching rule gives the error
+ * message.
+ */
+public class OptionValidator {
+    /** all images are checked (-f) */
+    public static final int FULL_PARSE = 1;
+    /** the images are indexed, several jobs or an index file */
+    public static final int INDEXED = 1 << 1;
+    /** the input is a stream or a capture, it cannot be read twice */
+    public static final int STREAM = 1 << 2;
+    /** the images are packetized into a capture */
+    public static final int PACKETIZE = 1 << 3;
+    /** the images are rewritten */
+    public static final int REWRITE = 1 << 4;
+    /** checkpoints are written or a check is resumed */
+    public static final int CHECKPOINT = 1 << 5;
+    /** a check is resumed from a checkpoint */
+    public static final int RESUME = 1 << 6;
+    /** a sample of the images is checked */
+    public static final int SAMPLING = 1 << 7;
+    /** the metadata is compared with ImageIO */
+    public static final int CROSS_CHECK = 1 << 8;
+
+    private static final Rule[] RULES = {
+        new Rule(FULL_PARSE | INDEXED | STREAM, 0,
+                "Parallel parsing and index files are not supported for streams and captures."),
+        new Rule(FULL_PARSE | INDEXED | PACKETIZE, 0,
+                "Packetizing and rewriting are not supported with parallel parsing or index files."),
+        new Rule(FULL_PARSE | INDEXED | REWRITE, 0,
+                "Packetizing and rewriting are not supported with parallel parsing or index files."),
+        new Rule(FULL_PARSE | CHECKPOINT | STREAM, 0,
+                "Checkpoints are not supported for streams and captures."),
+        new Rule(PACKETIZE | RESUME, 0,
+                "Packetizing and rewriting are not supported when resuming a full parse."),
+        new Rule(REWRITE | RESUME, 0,
+                "Packetizing and rewriting are not supported when resuming a full parse."),
+        new Rule(REWRITE, FULL_PARSE,
+                "Rewriting requires a full parse (-f)."),
+        new Rule(SAMPLING | FULL_PARSE, 0,
+                "Sampling and a full parse cannot be combined."),
+        new Rule(SAMPLING | STREAM, 0,
+                "Sampling is not supported for streams and captures."),
+        new Rule(SAMPLING | PACKETIZE, 0,
+                "Packetizing, rewriting and checkpoints are not supported with sampling."),
+        new Rule(SAMPLING | REWRITE, 0,
+                "Packetizing, rewriting and checkpoints are not supported with sampling."),
+        new Rule(SAMPLING | CHECKPOINT, 0,
+                "Packetizing, rewriting and checkpoints are not supported with sampling."),
+        new Rule(FULL_PARSE | INDEXED | CROSS_CHECK, 0,
+                "Cross-checking with ImageIO is not supported with parallel parsing or index files."),
+    };
+
+    private OptionValidator() {
+    }
+
+    /**
+     * Check a combination of options.
+     *
+     * @param options flags of the options of a check
+     * @return error message of the first rule the options break, null if
+     *         the combination is supported
+     */
+    public static String validate(int options) {
+        for (Rule rule : RULES) {
+            if ((options & rule.combination) == rule.combination
+                    && (rule.required == 0 || (options & rule.required) == 0)) {
+                return rule.message;
+            }
+        }
+        return null;
+    }
+
+    private static class Rule {
+        /** flags that cannot be set together */
+        final int combination;
+        /** flag the combination requires, 0 if none */
+        final int required;
+        final String message;
+
+        Rule(int combination, int required, String message) {
+            this.combination = combination;
+            this.required = required;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+
+/**
+ * Compares the metadata of indexed JPEG images with a reference in parallel.
+ *
+ * Every image is read with a positioned read, so the images can be
+ * processed independently on the threads of a ForkJoinPool. The results
+ * are collected per image and can be reported in image order afterwards.
+ * Images whose header fingerprint equals the one of the reference are
+ * not read at all.
+ */
+public class ParallelFrameValidator {
+    private String filename = null;
+    private FileChannel channel = null;
+    private FrameIndex index = null;
+    private ForkJoinPool pool = null;
+    private JpegRtpMetadata reference = null;
+    private long referenceFingerprint = HeaderFingerprint.NONE;
+    private HeaderCache cache = null;
+    private byte[] results = null;
+    private ThreadLocal<ByteBuffer> readBuffer = null;
+    private Metrics metrics = new Metrics();
+    private boolean stuffingCheck = false;
+    private ConcurrentHashMap<Integer, Integer> stuffingViolations = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Integer, String> restartErrors = new ConcurrentHashMap<>();
+    private boolean decodeCheck = false;
+    private ConcurrentHashMap<Integer, String> decodeErrors = new ConcurrentHashMap<>();
+
+    public static final byte RESULT_EQUAL = 0;
+    public static final byte RESULT_DIFFERENT = 1;
+    public static final byte RESULT_ERROR = 2;
+    /** metadata is equal, but the entropy-coded data is not stuffed correctly or does not decode */
+    public static final byte RESULT_ENTROPY = 3;
+
+
+    /**
+     * Create a ParallelFrameValidator for the images of a file.
+     *
+     * @param filename name of the video file
+     * @param index index of the images in the file
+     * @param parallelism number of threads, 0 for the number of available processors
+     * @param cache cache of already parsed headers
+     * @throws IOException if the file cannot be opened
+     */
+    public ParallelFrameValidator(String filename, FrameIndex index, int parallelism,
+            HeaderCache cache) throws IOException {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        this.filename = filename;
+        this.index = index;
+        this.cache = cache;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        pool = new ForkJoinPool(parallelism);
+        readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 20));
+    }
+
+    /**
+     * Set the metrics the stages of comparing the images are counted in.
+     *
+     * @param metrics metrics
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Check the byte stuffing and the restart markers of the entropy-coded
+     * data of every image as well (see ByteStuffingValidator, RestartIndex).
+     *
+     * All images are read then, even if their header equals the one of the
+     * reference.
+     *
+     * @param stuffingCheck true to check the byte stuffing
+     */
+    public void setStuffingCheck(boolean stuffingCheck) {
+        this.stuffingCheck = stuffingCheck;
+    }
+
+    /**
+     * Get the byte stuffing violation of a compared image.
+     *
+     * @param frame number of the image, starting at 0
+     * @return offset of the first 0xff byte in the image not followed by 0x00 or RSTn, -1 if there is none
+     */
+    public int stuffingViolation(int frame) {
+        return stuffingViolations.getOrDefault(frame, -1);
+    }
+
+    /**
+     * Get the restart marker mismatch of a compared image.
+     *
+     * @param frame number of the image, starting at 0
+     * @return description of the mismatch, null if there is none
+     */
+    public String restartError(int frame) {
+        return restartErrors.get(frame);
+    }
+
+    /**
+     * Decode the Huffman-coded data of every image as well (see
+     * HuffmanScanDecoder).
+     *
+     * All images are read then, even if their header equals the one of the
+     * reference.
+     *
+     * @param decodeCheck true to decode the images
+     */
+    public void setDecodeCheck(boolean decodeCheck) {
+        this.decodeCheck = decodeCheck;
+    }
+
+    /**
+     * Get the decoding error of a compared image.
+     *
+     * @param frame number of the image, starting at 0
+     * @return description of the error, null if the image decoded or was not decoded
+     */
+    public String decodeError(int frame) {
+        return decodeErrors.get(frame);
+    }
+
+    /**
+     * Close the file and shut down the threads.
+     */
+    public void close() {
+        pool.shutdown();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Compare the metadata of a range of images with the reference metadata.
+     *
+     * The images can be compared in several calls (e.g. to stop early), the
+     * results of all calls are collected in the same array.
+     *
+     * @param reference metadata all images are compared with
+     * @param referenceFingerprint header fingerprint of the reference image
+     * @param first number of the first image to compare, starting at 0
+     * @param end number of the image after the last one to compare
+     * @return result per image (RESULT_*), images not compared yet are RESULT_EQUAL
+     */
+    public byte[] validate(JpegRtpMetadata reference, long referenceFingerprint, int first, int end) {
+        this.reference = reference;
+        this.referenceFingerprint = referenceFingerprint;
+        if (results == null) {
+            results = new byte[index.size()];
+        }
+        try {
+            pool.submit(() -> IntStream.range(first, end)
+                    .parallel()
+                    .forEach(this::validateFrame)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.out.println(e.getCause());
+            return null;
+        }
+        return results;
+    }
+
+    private void validateFrame(int frame) {
+        metrics.frame(index.length(frame));
+        if (!stuffingCheck && !decodeCheck && referenceFingerprint != HeaderFingerprint.NONE
+                && index.fingerprint(frame) == referenceFingerprint) {
+            results[frame] = RESULT_EQUAL; // identical header
+            return;
+        }
+        FrameEvent event = new FrameEvent();
+        long mark = Metrics.allocationMark();
+        results[frame] = compare(frame, event);
+        metrics.allocated(mark);
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.frame = frame + 1;
+            event.offset = index.offset(frame);
+            event.length = index.length(frame);
+            event.status = results[frame] == RESULT_ENTROPY ? Reporter.FRAME_ERROR : results[frame];
+            event.commit();
+        }
+    }
+
+    /**
+     * Read an image, extract its metadata and compare it with the reference.
+     *
+     * @param event event the durations of the stages are stored in
+     * @return RESULT_*
+     */
+    private byte compare(int frame, FrameEvent event) {
+        long start = System.nanoTime();
+        ByteBuffer data = read(frame);
+        long scanned = System.nanoTime();
+        event.scan = scanned - start;
+        metrics.record(Metrics.SCAN, event.scan);
+        if (data == null) {
+            return RESULT_ERROR;
+        }
+        JpegRtpMetadata jrm = JpegMetadataExtractor.extractMetadata(data, cache);
+        long extracted = System.nanoTime();
+        event.extract = extracted - scanned;
+        metrics.record(Metrics.EXTRACT, event.extract);
+        if (jrm == null) {
+            return RESULT_ERROR;
+        }
+        boolean equal = reference.isEqual(jrm);
+        int violation = stuffingCheck ? ByteStuffingValidator.firstViolation(data, jrm.headerLength) : -1;
+        String mismatch = stuffingCheck ? RestartIndex.verify(data.slice(), jrm) : null;
+        event.compare = System.nanoTime() - extracted;
+        metrics.record(Metrics.COMPARE, event.compare);
+        String error = null;
+        if (decodeCheck && mismatch == null) { // a restart marker mismatch is not reported twice
+            long decoded = System.nanoTime();
+            error = HuffmanScanDecoder.verify(data);
+            event.decode = System.nanoTime() - decoded;
+            metrics.record(Metrics.DECODE, event.decode);
+        }
+        if (violation != -1) {
+            stuffingViolations.put(frame, violation);
+        }
+        if (mismatch != null) {
+            restartErrors.put(frame, mismatch);
+        }
+        if (error != null) {
+            decodeErrors.put(frame, error);
+        }
+        if (violation != -1 || mismatch != null || error != null) {
+            return equal ? RESULT_ENTROPY : RESULT_DIFFERENT;
+        }
+        return equal ? RESULT_EQUAL : RESULT_DIFFERENT;
+    }
+
+    /**
+     * Read an image into the buffer of the current thread.
+     *
+     * @return image, null in case of an error
+     */
+    private ByteBuffer read(int frame) {
+        int length = index.length(frame);
+        ByteBuffer buf = readBuffer.get();
+        if (buf.capacity() < length) {
+            // room for larger images, the doubled size would overflow from 1 GiB on
+            buf = ByteBuffer.allocateDirect(length < 1 << 30 ? Integer.highestOneBit(length) << 1 : length);
+            readBuffer.set(buf);
+        }
+        buf.clear();
+        buf.limit(length);
+        long pos = index.offset(frame);
+        try {
+            while (buf.hasRemaining()) {
+                int readBytes = channel.read(buf, pos + buf.position());
+                if (readBytes == -1) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        }
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Source for reading the JPEG images of RTP streams (RFC 2435) from a
+ * packet capture in the pcap or pcapng format.
+ *
+ * The RTP packets (payload type 26) are demultiplexed by their SSRC and
+ * every stream is reassembled by its own RtpJpegReassembler. The images
+ * of all streams are handed out in the order of their completion, the
+ * SSRC of the last image is available by ssrc().
+ */
+public class PcapFrameSource implements FrameSource {
+    private PcapReader reader = null;
+    private LinkedHashMap<Long, RtpJpegReassembler> streams = new LinkedHashMap<>();
+    private int maxFrameSize;
+    private long ssrc = -1;
+    private long frameOffset = -1;
+    private long otherPackets = 0;
+
+    private static final int PAYLOAD_TYPE_JPEG = 26;
+
+
+    /**
+     * Create a PcapFrameSource.
+     *
+     * @param in stream of the capture file
+     * @param maxFrameSize maximum size of the entropy-coded data of an image
+     * @throws IOException if the stream cannot be read or is no capture file
+     */
+    public PcapFrameSource(InputStream in, int maxFrameSize) throws IOException {
+        reader = new PcapReader(in);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    public void close() {
+        if (reader != null) {
+            reader.close();
+        }
+        reader = null;
+    }
+
+    /**
+     * @return offset of the record which completed the last image
+     */
+    @Override
+    public long frameOffset() {
+        return frameOffset;
+    }
+
+    /**
+     * A capture is read sequentially, seeking is not supported.
+     *
+     * @return false
+     */
+    @Override
+    public boolean seek(long offset) {
+        return false;
+    }
+
+    /**
+     * Get the next completely reassembled JPEG image of any stream.
+     *
+     * @return JPEG image, null at the end of the capture
+     */
+    @Override
+    public ByteBuffer nextFrame() {
+        if (reader == null) {
+            return null;
+        }
+        try {
+            while (reader.next()) {
+                ByteBuffer packet = reader.payload();
+                int pos = packet.position();
+                if (packet.remaining() < 12 || (packet.get(pos) & 0xC0) != 0x80
+                        || (packet.get(pos + 1) & 0x7F) != PAYLOAD_TYPE_JPEG) {
+                    otherPackets++;
+                    continue;
+                }
+                long id = packet.getInt(pos + 8) & 0xFFFFFFFFL;
+                RtpJpegReassembler stream = streams.get(id);
+                if (stream == null) {
+                    stream = new RtpJpegReassembler(id, maxFrameSize);
+                    streams.put(id, stream);
+                }
+                ByteBuffer frame = stream.push(packet, reader.timestamp());
+                if (frame != null) {
+                    ssrc = id;
+                    frameOffset = reader.recordOffset();
+                    return frame;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        for (RtpJpegReassembler stream : streams.values()) {
+            stream.flush();
+        }
+        return null;
+    }
+
+    /**
+     * @return SSRC of the stream of the last image
+     */
+    public long ssrc() {
+        return ssrc;
+    }
+
+    /**
+     * @return true if any stream lost packets or images
+     */
+    public boolean lossDetected() {
+        for (RtpJpegReassembler stream : streams.values()) {
+            if (stream.lostPackets() > 0 || stream.droppedFrames() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Print the statistics of the capture and of every RTP stream.
+     */
+    public void printStatistics() {
+        if (reader != null) {
+            System.out.println("capture: " + reader.records() + " records, " + reader.skipped()
+                    + " without UDP, " + otherPackets + " UDP packets without RTP/JPEG");
+        }
+        for (RtpJpegReassembler stream : streams.values()) {
+            stream.printStatistics();
+        }
+    }
+}
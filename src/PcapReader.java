@@ -0,0 +1,434 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Reads the UDP packets of a capture file in the pcap or pcapng format.
+ *
+ * The file is read sequentially with a fixed record buffer, so captures
+ * of any size are read in constant memory. The link types Ethernet
+ * (including VLAN tags), raw IP, Linux cooked capture (v1 and v2) and
+ * BSD loopback are decoded, as well as IPv4 and IPv6. Fragmented IP
+ * packets and all other records are skipped.
+ */
+public class PcapReader {
+    private InputStream in;
+    private boolean pcapng = false;
+    private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+    private boolean nanoseconds = false; // time stamp resolution of a pcap file
+    private int linkType = 0;
+    private int[] interfaceLinkTypes = new int[16];
+    private long[] interfaceResolution = new long[16]; // time stamp units per second
+    private int interfaces = 0;
+
+    private byte[] record = new byte[MAX_RECORD_SIZE];
+    private ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+    private ByteBuffer packetBuffer = ByteBuffer.wrap(record).order(ByteOrder.BIG_ENDIAN);
+    private ByteBuffer payload = null;
+    private long timestamp = 0;
+    private int sourcePort = 0;
+    private int destinationPort = 0;
+    private long position = 0; // file offset of the next record
+    private long recordOffset = 0;
+    private long records = 0;
+    private long skipped = 0;
+
+    private static final int MAX_RECORD_SIZE = 262144;
+    private static final int PCAP_MAGIC = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NANO = 0xA1B23C4D;
+    private static final int PCAPNG_SHB = 0x0A0D0D0A;
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final int PCAPNG_IDB = 1;
+    private static final int PCAPNG_SPB = 3;
+    private static final int PCAPNG_EPB = 6;
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LOOP = 108;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    private static final int LINKTYPE_IPV6 = 229;
+    private static final int LINKTYPE_LINUX_SLL2 = 276;
+
+
+    /**
+     * Create a PcapReader and read the file header.
+     *
+     * @param in stream of the capture file
+     * @throws IOException if the stream cannot be read or is no capture file
+     */
+    public PcapReader(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in, 1 << 16);
+        readFully(record, 0, 8);
+        position = 8;
+        int magic = packetBuffer.getInt(0);
+        if (magic == PCAPNG_SHB) {
+            pcapng = true;
+            readSectionHeader();
+            return;
+        }
+        if (magic == PCAP_MAGIC || magic == PCAP_MAGIC_NANO) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else if (Integer.reverseBytes(magic) == PCAP_MAGIC || Integer.reverseBytes(magic) == PCAP_MAGIC_NANO) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else {
+            throw new IOException("Not a pcap or pcapng file");
+        }
+        nanoseconds = magic == PCAP_MAGIC_NANO || Integer.reverseBytes(magic) == PCAP_MAGIC_NANO;
+        readFully(record, 8, 16);
+        position = 24;
+        linkType = recordBuffer.order(order).getInt(20) & 0xFFFF;
+    }
+
+    /**
+     * Read the next UDP packet.
+     *
+     * @return true if a packet was read, false at the end of the file
+     * @throws IOException if the file cannot be read or is truncated
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            recordOffset = position;
+            if (!(pcapng ? nextBlock() : nextRecord())) {
+                return false;
+            }
+            records++;
+            if (payload != null && decodeUdp()) {
+                return true;
+            }
+            skipped++;
+        }
+    }
+
+    /**
+     * @return UDP payload of the last packet, valid until the next call
+     */
+    public ByteBuffer payload() {
+        return payload;
+    }
+
+    /**
+     * @return capture time of the last packet in microseconds
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public int sourcePort() {
+        return sourcePort;
+    }
+
+    public int destinationPort() {
+        return destinationPort;
+    }
+
+    /**
+     * @return file offset of the record of the last packet
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * @return number of read records
+     */
+    public long records() {
+        return records;
+    }
+
+    /**
+     * @return number of skipped records (no UDP packets or truncated)
+     */
+    public long skipped() {
+        return skipped;
+    }
+
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Read a record of a pcap file.
+     */
+    private boolean nextRecord() throws IOException {
+        if (!readHeader(16)) {
+            return false;
+        }
+        long seconds = recordBuffer.getInt(0) & 0xFFFFFFFFL;
+        long fraction = recordBuffer.getInt(4) & 0xFFFFFFFFL;
+        int captured = recordBuffer.getInt(8);
+        timestamp = seconds * 1000000 + (nanoseconds ? fraction / 1000 : fraction);
+        if (captured < 0) {
+            throw new IOException("Invalid pcap record at offset " + recordOffset);
+        }
+        readPacket(captured, linkType);
+        return true;
+    }
+
+    /**
+     * Read the blocks of a pcapng file up to the next packet block.
+     */
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            recordOffset = position;
+            if (!readHeader(8)) {
+                return false;
+            }
+            payload = null;
+            int type = recordBuffer.getInt(0);
+            int length = recordBuffer.getInt(4);
+            if (type == PCAPNG_SHB) {
+                readSectionHeader();
+                continue;
+            }
+            if (length < 12 || (length & 3) != 0) {
+                throw new IOException("Invalid pcapng block at offset " + recordOffset);
+            }
+            int body = length - 12; // without type, length and trailing length
+            if (type == PCAPNG_EPB && body >= 20) {
+                readBody(20);
+                int id = recordBuffer.getInt(0);
+                long time = (recordBuffer.getInt(4) & 0xFFFFFFFFL) << 32 | (recordBuffer.getInt(8) & 0xFFFFFFFFL);
+                int captured = recordBuffer.getInt(12);
+                if (id < 0 || id >= interfaces || captured < 0 || captured > body - 20) {
+                    skip(body - 20 + 4);
+                    return true;
+                }
+                timestamp = toMicroseconds(time, interfaceResolution[id]);
+                readPacket(captured, interfaceLinkTypes[id]);
+                skip(body - 20 - captured + 4);
+                return true;
+            } else if (type == PCAPNG_SPB && body >= 4 && interfaces > 0) {
+                readBody(4);
+                int captured = Math.min(recordBuffer.getInt(0), body - 4);
+                readPacket(captured, interfaceLinkTypes[0]);
+                skip(body - 4 - captured + 4);
+                return true;
+            } else if (type == PCAPNG_IDB && body >= 8 && body <= MAX_RECORD_SIZE) {
+                readBody(body);
+                if (interfaces < interfaceLinkTypes.length) {
+                    interfaceLinkTypes[interfaces] = recordBuffer.getShort(0) & 0xFFFF;
+                    interfaceResolution[interfaces] = readResolution(8, body);
+                    interfaces++;
+                }
+                skip(4);
+            } else {
+                skip(body + 4);
+            }
+        }
+    }
+
+    /**
+     * Read the remainder of a section header block, which determines the
+     * byte order of the following blocks. The block type and length have
+     * already been read.
+     */
+    private void readSectionHeader() throws IOException {
+        readFully(record, 8, 4);
+        position += 4;
+        int byteOrderMagic = packetBuffer.getInt(8);
+        order = byteOrderMagic == PCAPNG_BYTE_ORDER_MAGIC ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        recordBuffer.order(order);
+        int length = recordBuffer.getInt(4);
+        if (length < 28 || (length & 3) != 0) {
+            throw new IOException("Invalid pcapng section header");
+        }
+        skip(length - 12);
+        interfaces = 0;
+    }
+
+    /**
+     * Find the option if_tsresol in the options of an interface description block.
+     *
+     * @return time stamp units per second
+     */
+    private long readResolution(int idx, int end) {
+        while (idx + 4 <= end) {
+            int code = recordBuffer.getShort(idx) & 0xFFFF;
+            int length = recordBuffer.getShort(idx + 2) & 0xFFFF;
+            if (code == 0) {
+                break;
+            }
+            if (code == 9 && length >= 1 && idx + 4 < end) {
+                int value = record[idx + 4] & 0xFF;
+                int exponent = value & 0x7F;
+                if ((value & 0x80) != 0) {
+                    return exponent < 63 ? 1L << exponent : 1000000;
+                }
+                long resolution = 1;
+                for (int i = 0; i < exponent && i < 18; i++) {
+                    resolution *= 10;
+                }
+                return resolution;
+            }
+            idx += 4 + ((length + 3) & ~3);
+        }
+        return 1000000;
+    }
+
+    private static long toMicroseconds(long time, long resolution) {
+        if (resolution == 1000000) {
+            return time;
+        }
+        return (long)(time * (1000000.0 / resolution));
+    }
+
+    /**
+     * Read the captured bytes of a packet and locate the IP packet.
+     */
+    private void readPacket(int captured, int link) throws IOException {
+        payload = null;
+        if (captured > MAX_RECORD_SIZE) {
+            skip(captured);
+            return;
+        }
+        readFully(record, 0, captured);
+        position += captured;
+
+        int ip = -1;
+        ByteBuffer pkt = packetBuffer;
+        pkt.clear();
+        pkt.limit(captured);
+        if (link == LINKTYPE_ETHERNET) {
+            int idx = 12;
+            while (idx + 2 <= captured) {
+                int etherType = pkt.getShort(idx) & 0xFFFF;
+                if (etherType == 0x8100 || etherType == 0x88A8) { // VLAN tag
+                    idx += 4;
+                    continue;
+                }
+                if (etherType == 0x0800 || etherType == 0x86DD) {
+                    ip = idx + 2;
+                }
+                break;
+            }
+        } else if (link == LINKTYPE_RAW || link == LINKTYPE_IPV4 || link == LINKTYPE_IPV6) {
+            ip = 0;
+        } else if (link == LINKTYPE_LINUX_SLL) {
+            ip = 16;
+        } else if (link == LINKTYPE_LINUX_SLL2) {
+            ip = 20;
+        } else if (link == LINKTYPE_NULL || link == LINKTYPE_LOOP) {
+            ip = 4;
+        }
+        if (ip < 0 || ip >= captured) {
+            return;
+        }
+        pkt.position(ip);
+        payload = pkt;
+    }
+
+    /**
+     * Decode the IP and UDP header of the packet in the payload buffer and
+     * limit the payload buffer to the UDP payload.
+     *
+     * @return true if the packet is an unfragmented UDP packet
+     */
+    private boolean decodeUdp() {
+        ByteBuffer pkt = payload;
+        int ip = pkt.position();
+        int limit = pkt.limit();
+        int version = (pkt.get(ip) & 0xF0) >> 4;
+        int udp;
+        int end;
+        if (version == 4) {
+            int headerLength = (pkt.get(ip) & 0x0F) * 4;
+            if (ip + 20 > limit || headerLength < 20) {
+                return false;
+            }
+            int flagsOffset = pkt.getShort(ip + 6) & 0xFFFF;
+            if ((flagsOffset & 0x3FFF) != 0 || (pkt.get(ip + 9) & 0xFF) != 17) {
+                return false; // fragment or no UDP
+            }
+            udp = ip + headerLength;
+            end = Math.min(limit, ip + (pkt.getShort(ip + 2) & 0xFFFF));
+        } else if (version == 6) {
+            if (ip + 40 > limit) {
+                return false;
+            }
+            int next = pkt.get(ip + 6) & 0xFF;
+            udp = ip + 40;
+            end = Math.min(limit, udp + (pkt.getShort(ip + 4) & 0xFFFF));
+            while (next == 0 || next == 43 || next == 60) { // hop-by-hop, routing, destination options
+                if (udp + 8 > end) {
+                    return false;
+                }
+                next = pkt.get(udp) & 0xFF;
+                udp += 8 + 8 * (pkt.get(udp + 1) & 0xFF);
+            }
+            if (next != 17) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        if (udp + 8 > end) {
+            return false;
+        }
+        sourcePort = pkt.getShort(udp) & 0xFFFF;
+        destinationPort = pkt.getShort(udp + 2) & 0xFFFF;
+        int udpEnd = Math.min(end, udp + (pkt.getShort(udp + 4) & 0xFFFF));
+        if (udpEnd < udp + 8) {
+            return false;
+        }
+        pkt.limit(udpEnd);
+        pkt.position(udp + 8);
+        return true;
+    }
+
+    /**
+     * Read a record or block header.
+     *
+     * @return false at the end of the file
+     */
+    private boolean readHeader(int length) throws IOException {
+        int n = in.read(record, 0, length);
+        if (n == -1) {
+            return false;
+        }
+        if (n < length) {
+            readFully(record, n, length - n);
+        }
+        position += length;
+        recordBuffer.order(order);
+        return true;
+    }
+
+    private void readBody(int length) throws IOException {
+        readFully(record, 0, length);
+        position += length;
+    }
+
+    private void readFully(byte[] b, int off, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(b, off, length);
+            if (n == -1) {
+                throw new EOFException("Truncated capture file at offset " + (position + off));
+            }
+            off += n;
+            length -= n;
+        }
+    }
+
+    private void skip(long bytes) throws IOException {
+        position += bytes;
+        while (bytes > 0) {
+            long n = in.skip(bytes);
+            if (n <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Truncated capture file at offset " + position);
+                }
+                n = 1;
+            }
+            bytes -= n;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Writes UDP packets into a pcap file.
+ *
+ * The packets are stored with link type RAW (IPv4 header followed by
+ * the UDP header and payload). All packets are sent from a fixed source
+ * to a fixed destination on the loopback address. The output is
+ * collected in a large buffer, so writing a packet does not allocate.
+ */
+public class PcapWriter {
+    private FileChannel channel = null;
+    private ByteBuffer out = null;
+    private int srcPort;
+    private int dstPort;
+    private int ipId = 0;
+    private long packets = 0;
+    private long bytes = 0;
+
+    private static final int PCAP_MAGIC = 0xA1B2C3D4;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int SNAPLEN = 65535;
+    public static final int IP_HEADER_SIZE = 20;
+    public static final int UDP_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int LOOPBACK = 0x7F000001;
+
+
+    /**
+     * Create a PcapWriter.
+     *
+     * @param filename name of the pcap file, an existing file is replaced
+     * @param srcPort UDP source port
+     * @param dstPort UDP destination port
+     * @throws IOException if the file cannot be written
+     */
+    public PcapWriter(String filename, int srcPort, int dstPort) throws IOException {
+        this.srcPort = srcPort;
+        this.dstPort = dstPort;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        out = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+        out.putInt(PCAP_MAGIC);
+        out.putShort((short)2); // version 2.4
+        out.putShort((short)4);
+        out.putInt(0); // time zone
+        out.putInt(0); // accuracy of time stamps
+        out.putInt(SNAPLEN);
+        out.putInt(LINKTYPE_RAW);
+    }
+
+    /**
+     * Write a UDP packet. The payload is composed of a header and a part
+     * of a second buffer, so the payload data does not need to be
+     * assembled before.
+     *
+     * @param timestamp capture time in microseconds
+     * @param header first part of the payload from position to limit
+     * @param data second part of the payload, absolute indices are used
+     * @param offset index of the second part in data
+     * @param length length of the second part
+     * @throws IOException if the file cannot be written
+     */
+    public void write(long timestamp, ByteBuffer header, ByteBuffer data, int offset, int length)
+            throws IOException {
+        int udpLength = UDP_HEADER_SIZE + header.remaining() + length;
+        int ipLength = IP_HEADER_SIZE + udpLength;
+        if (out.remaining() < RECORD_HEADER_SIZE + ipLength) {
+            flush();
+        }
+        if (out.remaining() < RECORD_HEADER_SIZE + ipLength) {
+            throw new IOException("Packet too large: " + ipLength + " bytes");
+        }
+
+        out.order(ByteOrder.nativeOrder());
+        out.putInt((int)(timestamp / 1000000));
+        out.putInt((int)(timestamp % 1000000));
+        out.putInt(ipLength);
+        out.putInt(ipLength);
+
+        out.order(ByteOrder.BIG_ENDIAN);
+        int ipStart = out.position();
+        out.put((byte)0x45); // version 4, header length 5 words
+        out.put((byte)0);
+        out.putShort((short)ipLength);
+        out.putShort((short)ipId++);
+        out.putShort((short)0x4000); // don't fragment
+        out.put((byte)64); // ttl
+        out.put((byte)17); // udp
+        out.putShort((short)0); // checksum, computed below
+        out.putInt(LOOPBACK);
+        out.putInt(LOOPBACK);
+        out.putShort(ipStart + 10, ipChecksum(ipStart));
+
+        out.putShort((short)srcPort);
+        out.putShort((short)dstPort);
+        out.putShort((short)udpLength);
+        out.putShort((short)0); // no checksum
+
+        out.put(header.duplicate());
+        ByteBuffer part = data.duplicate();
+        part.limit(offset + length);
+        part.position(offset);
+        out.put(part);
+
+        packets++;
+        bytes += ipLength;
+    }
+
+    /**
+     * Write all buffered packets to the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Write all buffered packets and close the file.
+     */
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        channel = null;
+    }
+
+    /**
+     * @return number of written packets
+     */
+    public long packets() {
+        return packets;
+    }
+
+    /**
+     * @return number of written bytes on IP level
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    private short ipChecksum(int start) {
+        int sum = 0;
+        for (int i = 0; i < IP_HEADER_SIZE; i += 2) {
+            sum += out.getShort(start + i) & 0xFFFF;
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
+        return (short)~sum;
+    }
+}
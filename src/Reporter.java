@@ -0,0 +1,73 @@
+/**
+ * Receives the results of checking a file.
+ *
+ * The console output for humans (ConsoleReporter) and the machine-readable
+ * formats (NdjsonReporter, BinaryReporter) implement this interface. A
+ * reporter is used for one file at a time by one thread: begin, any
+ * number of frame, testResult, conformance and metadata calls, end.
+ */
+public interface Reporter {
+    /** the image shares the metadata of the first image */
+    public static final int FRAME_EQUAL = 0;
+    /** the metadata of the image differs from the first image */
+    public static final int FRAME_DIFFERENT = 1;
+    /** the image could not be parsed */
+    public static final int FRAME_ERROR = 2;
+
+    /**
+     * Start the results of a file.
+     *
+     * @param file name of the file
+     */
+    void begin(String file);
+
+    /**
+     * Report a parsed image.
+     *
+     * @param frame number of the image, from 1
+     * @param stream identifier of the stream (SSRC of a capture), 0 for files
+     * @param offset offset of the image in the file, -1 if unknown
+     * @param length length of the image in bytes
+     * @param fingerprint fingerprint of the header (see HeaderFingerprint)
+     * @param width width of the image, 0 if it could not be parsed
+     * @param height height of the image, 0 if it could not be parsed
+     * @param status FRAME_EQUAL, FRAME_DIFFERENT or FRAME_ERROR
+     */
+    void frame(long frame, long stream, long offset, int length, long fingerprint, int width, int height,
+            int status);
+
+    /**
+     * Report the result of a test of the file.
+     *
+     * @param test description of the test
+     * @param passed true if the test passed
+     */
+    void testResult(String test, boolean passed);
+
+    /**
+     * Report the result of the RFC 2435 conformance tests.
+     *
+     * @param conformant true if all tests passed
+     */
+    void conformance(boolean conformant);
+
+    /**
+     * Report the metadata of the first image.
+     *
+     * @param jrm metadata
+     */
+    void metadata(JpegRtpMetadata jrm);
+
+    /**
+     * End the results of a file.
+     *
+     * @param passed true if the file passed all checks
+     * @param frames number of parsed images
+     */
+    void end(boolean passed, long frames);
+
+    /**
+     * Write buffered results.
+     */
+    void flush();
+}
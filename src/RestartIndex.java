@@ -0,0 +1,169 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+
+/**
+ * Index of the restart markers in the entropy-coded data of a JPEG image.
+ *
+ * The data from the end of the header up to the EOI marker is searched
+ * eight bytes per step like in the MarkerScanner, the positions of the
+ * restart markers RST0-RST7 are recorded in one pass. The index divides
+ * the scan into its restart intervals, which can be decoded independently
+ * (HuffmanScanDecoder) or sent in separate RTP packets (Rfc2435Packetizer).
+ * Interval k spans from intervalStart(k) to intervalEnd(k), the restart
+ * marker following it is not included.
+ */
+public class RestartIndex {
+    private int scanStart;
+    private int scanEnd;
+    private int[] markers = new int[16];
+    private int count = 0;
+    private int sequenceError = -1; // first marker out of sequence
+    private int sequenceNumber; // its number n of RSTn
+
+    private RestartIndex(int scanStart) {
+        this.scanStart = scanStart;
+    }
+
+    /**
+     * Build the index of an image.
+     *
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param headerLength offset of the entropy-coded data (see JpegRtpMetadata)
+     * @return index of the restart markers up to the EOI marker or the end of the data
+     */
+    public static RestartIndex scan(ByteBuffer data, int headerLength) {
+        RestartIndex index = new RestartIndex(headerLength);
+        ByteBuffer buf = data.order() == ByteOrder.LITTLE_ENDIAN
+                ? data : data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int to = data.limit();
+        int i = headerLength;
+        for (; i + 8 < to; i += 8) {
+            long candidates = MarkerScanner.markerBytes(buf.getLong(i));
+            while (candidates != 0) {
+                int pos = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (buf.get(pos) == VideoFileBuffer.JPEG_MARKER && index.marker(buf, pos)) {
+                    return index;
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        for (; i < to - 1; i++) {
+            if (buf.get(i) == VideoFileBuffer.JPEG_MARKER && index.marker(buf, i)) {
+                return index;
+            }
+        }
+        index.scanEnd = to;
+        return index;
+    }
+
+    /**
+     * Record a restart marker or the end of the scan.
+     *
+     * @param pos index of a 0xFF byte
+     * @return true if the scan ends at the EOI marker at pos
+     */
+    private boolean marker(ByteBuffer data, int pos) {
+        byte b = data.get(pos+1);
+        if (b == VideoFileBuffer.JPEG_EOI) {
+            scanEnd = pos;
+            return true;
+        }
+        if ((b & 0xF8) == 0xD0) {
+            if (sequenceError == -1 && (b & 0x07) != (count & 7)) {
+                sequenceError = count;
+                sequenceNumber = b & 0x07;
+            }
+            if (count == markers.length) {
+                markers = Arrays.copyOf(markers, count * 2);
+            }
+            markers[count++] = pos;
+        }
+        return false;
+    }
+
+    /**
+     * Check the restart markers against the restart interval and the
+     * number of MCUs of the image: RST0 to RST7 follow in turn and there
+     * is one marker between every two intervals.
+     *
+     * @param restartInterval MCUs per restart interval from the DRI segment, 0 for none
+     * @param mcus number of MCUs of the scan
+     * @return null if the markers match, otherwise a description of the first mismatch
+     */
+    public String check(int restartInterval, int mcus) {
+        if (restartInterval == 0) {
+            return count == 0 ? null
+                    : String.format("restart marker without DRI segment at image offset %d", markers[0]);
+        }
+        if (sequenceError != -1) {
+            return String.format("restart marker RST%d instead of RST%d after interval %d at image offset %d",
+                    sequenceNumber, sequenceError & 7, sequenceError + 1, markers[sequenceError]);
+        }
+        int intervals = (mcus + restartInterval - 1) / restartInterval;
+        if (count < intervals - 1) {
+            return String.format("%d restart markers instead of %d (%d MCUs, interval %d), last one at image offset %d",
+                    count, Math.max(0, intervals - 1), mcus, restartInterval,
+                    count > 0 ? markers[count-1] : scanStart);
+        }
+        if (count > intervals - 1) {
+            return String.format("%d restart markers instead of %d (%d MCUs, interval %d), marker %d at image offset %d",
+                    count, Math.max(0, intervals - 1), mcus, restartInterval, intervals, markers[Math.max(0, intervals - 1)]);
+        }
+        return null;
+    }
+
+    /**
+     * Check the restart markers of an image if it has restart intervals.
+     *
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param jrm metadata of the image
+     * @return null if the image has no DRI segment or its markers match, otherwise a description
+     *         of the first mismatch
+     */
+    public static String verify(ByteBuffer data, JpegRtpMetadata jrm) {
+        if (jrm.restartInterval == 0) {
+            return null;
+        }
+        return scan(data, jrm.headerLength).check(jrm.restartInterval, jrm.mcus);
+    }
+
+    /**
+     * @return number of restart markers
+     */
+    public int markers() {
+        return count;
+    }
+
+    /**
+     * @return number of restart intervals, i.e. the number of markers + 1
+     */
+    public int intervals() {
+        return count + 1;
+    }
+
+    /**
+     * @param k number of the interval, starting at 0
+     * @return index of the first byte of the interval
+     */
+    public int intervalStart(int k) {
+        return k == 0 ? scanStart : markers[k-1] + 2;
+    }
+
+    /**
+     * @param k number of the interval, starting at 0
+     * @return index after the last byte of the interval, i.e. of its restart marker
+     *         or of the EOI marker
+     */
+    public int intervalEnd(int k) {
+        return k == count ? scanEnd : markers[k];
+    }
+
+    /**
+     * @return index of the EOI marker, the end of the data if there is none
+     */
+    public int scanEnd() {
+        return scanEnd;
+    }
+}
@@ -0,0 +1,392 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Splits JPEG images into RTP packets with the payload format of RFC 2435.
+ *
+ * Every packet consists of the RTP header, the main JPEG header, the
+ * restart marker header (only for images with restart intervals) and a
+ * fragment of the entropy-coded data. The packets of images with restart
+ * intervals (types 64-127) are split at the restart markers if they match
+ * the DRI segment (see RestartIndex): a packet carries whole intervals, an
+ * interval larger than a packet is split into fragments marked as first
+ * and last (RFC 2435 section 3.1.7). A receiver can then decode the
+ * intervals of an image whose other packets were lost. The first packet of an image
+ * additionally carries the Quantization Table header with the tables of
+ * the image, unless they are the tables of RFC 2435 Appendix A for a Q of
+ * 1 to 99 (see Rfc2435Tables.qFactor) and only Q is sent. Other tables are
+ * sent depending on the table policy:
+ * <ul>
+ *   <li>TABLES_ALWAYS: Q = 255, the tables are sent with every image</li>
+ *   <li>TABLES_ONCE: Q = 128..254, the tables are sent with the first image
+ *       and whenever they change, otherwise the table length is 0</li>
+ * </ul>
+ *
+ * The packets are written to a PcapWriter if one is given. The packet
+ * counts and the header overhead are collected for all images.
+ */
+public class Rfc2435Packetizer {
+    private PcapWriter out;
+    private int maxPayload;
+    private int tablePolicy;
+    private long frameInterval; // RTP timestamp increment, 90 kHz clock
+    private long startTime; // capture time of the first packet in microseconds
+    private double frameRate;
+
+    private ByteBuffer header = ByteBuffer.allocate(RTP_HEADER_SIZE + JPEG_HEADER_SIZE
+            + RESTART_HEADER_SIZE + QTABLE_HEADER_SIZE + 2 * 128);
+    private int restartInterval;
+    private RestartIndex restartIndex; // null if the packets are not aligned to the intervals
+    private int interval; // restart interval at the current fragment offset
+    private byte[] tables = new byte[2 * 128];
+    private byte[] sentTables = new byte[2 * 128];
+    private int sentTableLength = 0;
+    private int dynamicQ = Q_STATIC_FIRST;
+
+    private int sequence = 0;
+    private long frames = 0;
+    private long packets = 0;
+    private int minPackets = Integer.MAX_VALUE;
+    private int maxPackets = 0;
+    private int lastPackets = 0;
+    private long dataBytes = 0;
+    private long headerBytes = 0;
+    private long tableFrames = 0;
+    private long standardFrames = 0;
+    private long inBandBytes = 0; // tables of all images if they were sent in-band
+    private long overflowFrames = 0;
+    private long skippedFrames = 0;
+    private long unalignedFrames = 0;
+    private String error = null; // why the last image was skipped or exceeded the fragment offset
+
+    public static final int TABLES_ALWAYS = 0;
+    public static final int TABLES_ONCE = 1;
+    public static final int DEFAULT_MTU = 1500;
+    public static final double DEFAULT_FRAME_RATE = 25.0;
+    public static final int RTP_PORT = 5004;
+    public static final int RTP_HEADER_SIZE = 12;
+    public static final int JPEG_HEADER_SIZE = 8;
+    public static final int RESTART_HEADER_SIZE = 4;
+    public static final int QTABLE_HEADER_SIZE = 4;
+    public static final int MAX_FRAGMENT_OFFSET = (1 << 24) - 1;
+
+    private static final int PAYLOAD_TYPE_JPEG = 26;
+    private static final int SSRC = 0x4D4A5047; // "MJPG"
+    private static final int Q_STATIC_FIRST = 128;
+    private static final int Q_STATIC_LAST = 254;
+    private static final int Q_DYNAMIC = 255;
+    private static final int RESTART_COUNT_NONE = 0x3FFF;
+
+
+    /**
+     * Create a Rfc2435Packetizer.
+     *
+     * @param out destination of the packets, null to only count them
+     * @param mtu maximum size of an IP packet in bytes
+     * @param tablePolicy TABLES_ALWAYS or TABLES_ONCE
+     * @param frameRate images per second for the RTP timestamps
+     */
+    public Rfc2435Packetizer(PcapWriter out, int mtu, int tablePolicy, double frameRate) {
+        maxPayload = mtu - PcapWriter.IP_HEADER_SIZE - PcapWriter.UDP_HEADER_SIZE;
+        if (maxPayload < RTP_HEADER_SIZE + JPEG_HEADER_SIZE + RESTART_HEADER_SIZE + 1) {
+            throw new IllegalArgumentException("MTU too small: " + mtu);
+        }
+        if (tablePolicy != TABLES_ALWAYS && tablePolicy != TABLES_ONCE) {
+            throw new IllegalArgumentException("Invalid table policy: " + tablePolicy);
+        }
+        if (!(frameRate > 0)) {
+            throw new IllegalArgumentException("Invalid frame rate: " + frameRate);
+        }
+        this.out = out;
+        this.tablePolicy = tablePolicy;
+        this.frameRate = frameRate;
+        this.frameInterval = Math.round(90000 / frameRate);
+        this.startTime = System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * Parse the name of a table policy.
+     *
+     * @param name "always" or "once"
+     * @return TABLES_ALWAYS or TABLES_ONCE, -1 if the name is unknown
+     */
+    public static int tablePolicy(String name) {
+        if (name.equals("always")) {
+            return TABLES_ALWAYS;
+        } else if (name.equals("once")) {
+            return TABLES_ONCE;
+        }
+        return -1;
+    }
+
+    /**
+     * Split an image into packets.
+     *
+     * Images which cannot be represented by the payload format (e.g.
+     * other subsampling or more than 2040 pixels width or height) are
+     * skipped, error() tells why.
+     *
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param jrm metadata of the image
+     * @return number of packets, 0 if the image was skipped
+     * @throws IOException if the packets cannot be written
+     */
+    public int packetize(ByteBuffer data, JpegRtpMetadata jrm) throws IOException {
+        error = null;
+        lastPackets = 0;
+        int type = jpegType(jrm);
+        int width = (jrm.width + 7) / 8;
+        int height = (jrm.height + 7) / 8;
+        if (type < 0 || width > 255 || height > 255 || width == 0 || height == 0) {
+            error = "cannot be represented by RFC 2435 (type, width or height)";
+            skippedFrames++;
+            return 0;
+        }
+        byte[] lum = Rfc2435Tables.quantizationTable(jrm, 0);
+        byte[] chm = Rfc2435Tables.quantizationTable(jrm, 1);
+        if (lum == null || chm == null) {
+            error = "has no quantization tables for its components";
+            skippedFrames++;
+            return 0;
+        }
+        int begin = jrm.headerLength;
+        int end = data.limit();
+        if (end - begin >= 2 && data.get(end-2) == VideoFileBuffer.JPEG_MARKER
+                && (data.get(end-1) & 0xFF) == JpegMarkerParser.EOI) {
+            end -= 2; // the EOI marker is not transmitted
+        }
+
+        restartInterval = jrm.restartInterval;
+        restartIndex = null;
+        interval = 0;
+        if (restartInterval > 0) {
+            type += 64;
+            RestartIndex index = RestartIndex.scan(data, begin);
+            if (index.scanEnd() == end && index.check(restartInterval, jrm.mcus) == null) {
+                restartIndex = index;
+            } else {
+                unalignedFrames++;
+            }
+        }
+
+        int precision = (lum.length == 64 ? 0 : 1) | (chm.length == 64 ? 0 : 2);
+        int tableLength = 0;
+        int q = jrm.qFactor;
+        if (q > 0) {
+            standardFrames++;
+        } else {
+            System.arraycopy(lum, 0, tables, 0, lum.length);
+            System.arraycopy(chm, 0, tables, lum.length, chm.length);
+            tableLength = lum.length + chm.length;
+            q = Q_DYNAMIC;
+            if (tablePolicy == TABLES_ONCE) {
+                if (!tablesChanged(tableLength)) {
+                    tableLength = 0;
+                }
+                q = dynamicQ;
+            }
+        }
+        inBandBytes += QTABLE_HEADER_SIZE + lum.length + chm.length;
+        int firstHeader = RTP_HEADER_SIZE + JPEG_HEADER_SIZE + (q >= Q_STATIC_FIRST ? QTABLE_HEADER_SIZE : 0)
+                + tableLength + (restartInterval > 0 ? RESTART_HEADER_SIZE : 0);
+        if (firstHeader >= maxPayload) {
+            error = "headers do not fit into the MTU";
+            skippedFrames++;
+            return 0;
+        }
+
+        long rtpTimestamp = (frames * frameInterval) & 0xFFFFFFFFL;
+        long captureTime = startTime + Math.round(frames * 1000000 / frameRate);
+        if (end - begin > MAX_FRAGMENT_OFFSET + 1) {
+            error = "exceeds the fragment offset of RFC 2435 (" + (end - begin) + " bytes of data)";
+            overflowFrames++;
+        }
+
+        int count = 0;
+        int offset = begin;
+        do {
+            header.clear();
+            header.put((byte)0x80); // version 2, no padding, extension or CSRC
+            header.putShort(2, (short)sequence++);
+            header.putInt(4, (int)rtpTimestamp);
+            header.putInt(8, SSRC);
+            header.position(RTP_HEADER_SIZE);
+
+            int fragmentOffset = offset - begin;
+            header.putInt(fragmentOffset & MAX_FRAGMENT_OFFSET); // type-specific = 0
+            header.put((byte)type);
+            header.put((byte)q);
+            header.put((byte)width);
+            header.put((byte)height);
+            int restartHeader = header.position();
+            if (restartInterval > 0) {
+                header.putShort((short)restartInterval);
+                header.putShort((short)0xFFFF); // F = L = 1, count 0x3FFF: not aligned to intervals
+            }
+            if (fragmentOffset == 0 && q >= Q_STATIC_FIRST) {
+                header.put((byte)0);
+                header.put((byte)precision);
+                header.putShort((short)tableLength);
+                header.put(tables, 0, tableLength);
+            }
+            int length = Math.min(maxPayload - header.position(), end - offset);
+            if (restartIndex != null) {
+                length = alignFragment(offset, length, end, restartHeader + 2);
+            }
+            offset += length;
+            if (offset == end) {
+                header.put(1, (byte)(0x80 | PAYLOAD_TYPE_JPEG)); // marker: last packet of the image
+            } else {
+                header.put(1, (byte)PAYLOAD_TYPE_JPEG);
+            }
+            header.flip();
+
+            if (out != null) {
+                out.write(captureTime, header, data, offset - length, length);
+            }
+            headerBytes += header.limit();
+            count++;
+        } while (offset < end);
+
+        if (tableLength > 0) {
+            tableFrames++;
+        }
+        dataBytes += end - begin;
+        frames++;
+        packets += count;
+        minPackets = Math.min(minPackets, count);
+        maxPackets = Math.max(maxPackets, count);
+        lastPackets = count;
+        return count;
+    }
+
+    /**
+     * @return number of packets of the last image, 0 if it was skipped
+     */
+    public int lastPackets() {
+        return lastPackets;
+    }
+
+    /**
+     * @return why the last image was skipped or exceeded the fragment offset, null if it was packetized
+     */
+    public String error() {
+        return error;
+    }
+
+    /**
+     * @return true if any image could not be packetized or exceeded the fragment offset
+     */
+    public boolean failed() {
+        return skippedFrames > 0 || overflowFrames > 0;
+    }
+
+    /**
+     * Print the packet statistics of all images and report whether all
+     * images were packetized.
+     *
+     * @param reporter receiver of the test results
+     */
+    public void printStatistics(Reporter reporter) {
+        System.out.println("RTP packets (MTU payload " + maxPayload + " bytes, tables "
+                + (tablePolicy == TABLES_ALWAYS ? "always" : "once") + "):");
+        System.out.println("  frames:            " + frames + (skippedFrames > 0 ? " (" + skippedFrames + " skipped)" : ""));
+        if (frames > 0) {
+            System.out.println("  packets:           " + packets);
+            System.out.println(String.format("  packets per frame: min %d, avg %.1f, max %d",
+                    minPackets, (double)packets / frames, maxPackets));
+            System.out.println(String.format("  header overhead:   %d bytes (%.2f %% of %d data bytes, %.1f bytes per frame)",
+                    headerBytes, 100.0 * headerBytes / Math.max(1, dataBytes), dataBytes,
+                    (double)headerBytes / frames));
+            System.out.println("  frames with tables: " + tableFrames);
+            System.out.println("  frames with Q 1-99: " + standardFrames + " (Appendix A tables, not sent)");
+            System.out.println(String.format("  in-band tables:    %.1f bytes per frame if sent with every frame",
+                    (double)inBandBytes / frames));
+            if (unalignedFrames > 0) {
+                System.out.println("  frames with restart markers not matching the DRI segment (packets not aligned): "
+                        + unalignedFrames);
+            }
+            long ipOverhead = packets * (PcapWriter.IP_HEADER_SIZE + PcapWriter.UDP_HEADER_SIZE);
+            System.out.println(String.format("  bit rate:          %.2f Mbit/s including IP/UDP at %.2f frames/s",
+                    (dataBytes + headerBytes + ipOverhead) * 8.0 * frameRate / frames / 1e6, frameRate));
+        }
+        reporter.testResult("all frames packetized" + (skippedFrames > 0 ? " (" + skippedFrames + " skipped)" : ""),
+                skippedFrames == 0);
+        reporter.testResult("max. 2^24 bytes data per frame"
+                + (overflowFrames > 0 ? " (" + overflowFrames + " frames exceed)" : ""), overflowFrames == 0);
+    }
+
+    /**
+     * Determine the RFC 2435 type of an image (without restart markers).
+     *
+     * @return 0 for 4:2:2, 1 for 4:2:0, -1 if not representable
+     */
+    private static int jpegType(JpegRtpMetadata jrm) {
+        if (jrm.numFrameComponents != 3 || jrm.subsampling == null) {
+            return -1;
+        }
+        byte[] s = jrm.subsampling[0];
+        if (s[0] == 4 && s[1] == 2 && s[2] == 2) {
+            return 0;
+        }
+        if (s[0] == 4 && s[1] == 2 && s[2] == 0) {
+            return 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Shorten a fragment to whole restart intervals, or to a part of one
+     * interval if it does not fit into the packet, and set the F and L bits
+     * and the restart count of the restart marker header accordingly.
+     *
+     * @param offset begin of the fragment in the image
+     * @param length maximum length of the fragment
+     * @param end end of the entropy-coded data
+     * @param countIndex index of the F, L and restart count field in the header
+     * @return length of the fragment
+     */
+    private int alignFragment(int offset, int length, int end, int countIndex) {
+        int last = restartIndex.intervals() - 1;
+        while (interval < last && offset >= restartIndex.intervalStart(interval + 1)) {
+            interval++;
+        }
+        int intervalEnd = interval < last ? restartIndex.intervalStart(interval + 1) : end;
+        boolean first = offset == restartIndex.intervalStart(interval);
+        int bits = 0xC000; // F = L = 1: whole intervals
+        if (first && offset + length >= intervalEnd) {
+            int k = interval + 1;
+            while (k <= last && offset + length >= (k < last ? restartIndex.intervalStart(k + 1) : end)) {
+                k++;
+            }
+            length = (k <= last ? restartIndex.intervalStart(k) : end) - offset;
+        } else {
+            length = Math.min(length, intervalEnd - offset);
+            bits = (first ? 0x8000 : 0) | (offset + length == intervalEnd ? 0x4000 : 0);
+        }
+        header.putShort(countIndex, (short)(bits | interval % RESTART_COUNT_NONE));
+        return length;
+    }
+
+    /**
+     * Compare the tables of the image to the tables sent last and select
+     * a new static Q value if they differ.
+     *
+     * @param length length of the tables of the image
+     * @return true if the tables have to be sent
+     */
+    private boolean tablesChanged(int length) {
+        if (sentTableLength == length
+                && Arrays.equals(sentTables, 0, length, tables, 0, length)) {
+            return false;
+        }
+        if (sentTableLength > 0) {
+            dynamicQ = dynamicQ == Q_STATIC_LAST ? Q_STATIC_FIRST : dynamicQ + 1;
+        }
+        System.arraycopy(tables, 0, sentTables, 0, length);
+        sentTableLength = length;
+        return true;
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Writes JPEG images with their headers normalized to the layout of
+ * RFC 2435 Appendix B into a file of concatenated images.
+ *
+ * The header of every image is replaced by the header an RFC 2435
+ * receiver reconstructs (see Rfc2435Tables.makeHeaders): APPn segments
+ * other than JFIF, COM segments and unused tables are dropped, the JFIF
+ * pixel density is set to 1:1 and the tables are written in one segment
+ * per table. The entropy-coded data is copied unchanged, directly from
+ * the source file with FileChannel.transferTo if the image is stored
+ * there in one piece, otherwise from the buffer of the image.
+ *
+ * Images which cannot be fixed without decoding and encoding them again
+ * (other coding process, sampling or Huffman tables, non-square pixels)
+ * are refused and not written.
+ */
+public class Rfc2435Rewriter {
+    private FileChannel out;
+    private FileChannel source; // null if the images are not read from a file
+
+    private long frames = 0;
+    private long refusedFrames = 0;
+    private long densityFixed = 0;
+    private long headerBytesIn = 0;
+    private long headerBytesOut = 0;
+    private long dataBytes = 0;
+    private long nanos = 0;
+
+    private static final int MAX_DIMENSION = 2040;
+
+
+    /**
+     * Create a Rfc2435Rewriter.
+     *
+     * @param filename name of the output file, an existing file is replaced
+     * @param source name of the file the images are read from, null if their file offsets
+     *        do not address the image data (streams, captures)
+     * @throws IOException if the files cannot be opened or the output is the source
+     */
+    public Rfc2435Rewriter(String filename, String source) throws IOException {
+        Path path = Paths.get(filename);
+        if (source != null) {
+            Path sourcePath = Paths.get(source);
+            if (Files.exists(path) && Files.isSameFile(path, sourcePath)) {
+                throw new IOException("the output file is the input file: " + filename);
+            }
+            this.source = FileChannel.open(sourcePath, StandardOpenOption.READ);
+        }
+        out = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Write an image with the normalized header.
+     *
+     * @param data JPEG image starting at index 0, the buffer is not modified
+     * @param jrm metadata of the image
+     * @param fileOffset file offset of the image in the source file, -1 if unknown
+     * @return true if the image was written, false if it was refused
+     * @throws IOException if the image cannot be written
+     */
+    public boolean rewrite(ByteBuffer data, JpegRtpMetadata jrm, long fileOffset) throws IOException {
+        long start = System.nanoTime();
+        long frame = frames + refusedFrames + 1;
+        String reason = refusal(jrm);
+        int type = reason == null ? scanLayout(data, jrm) : -1;
+        if (reason == null && type < 0) {
+            reason = "sampling factors, scan components or their tables differ from RFC 2435";
+        }
+        int end = reason == null ? dataEnd(data, jrm.headerLength) : -1;
+        if (reason == null && end == -1) {
+            reason = "no EOI marker at the end of the image";
+        }
+        if (reason != null) {
+            System.out.println("Error: frame " + frame + " cannot be rewritten: " + reason);
+            refusedFrames++;
+            return false;
+        }
+
+        byte[] lum = Rfc2435Tables.quantizationTable(jrm, 0);
+        byte[] chm = Rfc2435Tables.quantizationTable(jrm, 1);
+        byte[] tables = Arrays.copyOf(lum, lum.length + chm.length);
+        System.arraycopy(chm, 0, tables, lum.length, chm.length);
+        int precision = (lum.length == 64 ? 0 : 1) | (chm.length == 64 ? 0 : 2);
+        if (jrm.restartInterval > 0) {
+            type += 64;
+        }
+        byte[] header = Rfc2435Tables.makeHeaders(type, jrm.width, jrm.height, tables, precision,
+                jrm.restartInterval);
+        if (jrm.pixelAspectRatio != 1.0) {
+            densityFixed++;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        long length = end - jrm.headerLength;
+        if (source != null && fileOffset >= 0) {
+            long position = fileOffset + jrm.headerLength;
+            long done = 0;
+            while (done < length) {
+                long n = source.transferTo(position + done, length - done, out);
+                if (n <= 0) {
+                    throw new IOException("unexpected end of the source file at offset " + (position + done));
+                }
+                done += n;
+            }
+        } else {
+            ByteBuffer entropy = data.duplicate();
+            entropy.limit(end).position(jrm.headerLength);
+            while (entropy.hasRemaining()) {
+                out.write(entropy);
+            }
+        }
+
+        frames++;
+        headerBytesIn += jrm.headerLength;
+        headerBytesOut += header.length;
+        dataBytes += length;
+        nanos += System.nanoTime() - start;
+        return true;
+    }
+
+    /**
+     * Determine why an image cannot be rewritten from its metadata.
+     *
+     * @return reason, null if the metadata allows a lossless rewrite
+     */
+    private static String refusal(JpegRtpMetadata jrm) {
+        if (!jrm.baseline || !jrm.huffman || jrm.numSOS != 1) {
+            return "not a single-scan baseline image";
+        }
+        if (jrm.samplePrecision != 8 || jrm.numFrameComponents != 3) {
+            return "not 8 bit samples in three components";
+        }
+        if (jrm.width == 0 || jrm.height == 0 || jrm.width > MAX_DIMENSION || jrm.height > MAX_DIMENSION) {
+            return "width or height larger than " + MAX_DIMENSION;
+        }
+        if (jrm.pixelAspectRatio != 1.0 && jrm.pixelAspectRatio != 0.0 && !Double.isNaN(jrm.pixelAspectRatio)) {
+            return "non-square pixels (aspect ratio " + jrm.pixelAspectRatio + ")";
+        }
+        if (!jrm.hasStandardHuffmanTables()) {
+            return "Huffman tables differ from Annex K.3";
+        }
+        byte[] lum = Rfc2435Tables.quantizationTable(jrm, 0);
+        byte[] chm = Rfc2435Tables.quantizationTable(jrm, 1);
+        if (lum == null || chm == null || !Arrays.equals(chm, Rfc2435Tables.quantizationTable(jrm, 2))) {
+            return "quantization tables missing or different for the chrominance components";
+        }
+        return null;
+    }
+
+    /**
+     * Check that the scan decodes with the header of RFC 2435 Appendix B:
+     * sampling factors 2x1 or 2x2 for the first and 1x1 for the other
+     * components, the components in the order of the SOF segment with
+     * the Huffman tables 0, 1 and 1, and all coefficients in the scan.
+     *
+     * @return RFC 2435 type 0 (4:2:2) or 1 (4:2:0), -1 if the layout differs
+     */
+    private static int scanLayout(ByteBuffer data, JpegRtpMetadata jrm) {
+        int type = -1;
+        int[] ids = new int[3];
+        int idx = 2;
+        while (idx + 4 <= jrm.headerLength) {
+            int marker = data.get(idx+1) & 0xFF;
+            if (marker == 0xFF) { // fill byte
+                idx++;
+                continue;
+            }
+            int length = (data.get(idx+2) & 0xFF) << 8 | (data.get(idx+3) & 0xFF);
+            int seg = idx + 4;
+            if (marker == JpegMarkerParser.SOF0) {
+                if (length < 17) {
+                    return -1;
+                }
+                int sampling = data.get(seg + 7) & 0xFF;
+                type = sampling == 0x21 ? 0 : sampling == 0x22 ? 1 : -1;
+                for (int i = 0; i < 3; i++) {
+                    ids[i] = data.get(seg + 6 + 3*i) & 0xFF;
+                    if (i > 0 && (data.get(seg + 7 + 3*i) & 0xFF) != 0x11) {
+                        return -1;
+                    }
+                }
+            } else if (marker == JpegMarkerParser.SOS) {
+                if (length < 12 || (data.get(seg) & 0xFF) != 3) {
+                    return -1;
+                }
+                for (int i = 0; i < 3; i++) {
+                    int selectors = data.get(seg + 2 + 2*i) & 0xFF;
+                    if ((data.get(seg + 1 + 2*i) & 0xFF) != ids[i] || selectors != (i == 0 ? 0x00 : 0x11)) {
+                        return -1;
+                    }
+                }
+                boolean spectral = data.get(seg + 7) == 0 && data.get(seg + 8) == 63 && data.get(seg + 9) == 0;
+                return spectral ? type : -1;
+            }
+            idx += 2 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end of the image data, allowing padding after the EOI
+     * marker as in AVI chunks.
+     *
+     * @return index after the EOI marker, -1 if the image does not end with one
+     */
+    private static int dataEnd(ByteBuffer data, int headerLength) {
+        int end = data.limit();
+        while (end - 2 >= headerLength && data.get(end-1) == 0) {
+            end--;
+        }
+        if (end - 2 >= headerLength && data.get(end-2) == VideoFileBuffer.JPEG_MARKER
+                && (data.get(end-1) & 0xFF) == JpegMarkerParser.EOI) {
+            return end;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if any image was refused
+     */
+    public boolean failed() {
+        return refusedFrames > 0;
+    }
+
+    /**
+     * Print the statistics of all images.
+     */
+    public void printStatistics() {
+        System.out.println("Rewritten with RFC 2435 headers:");
+        System.out.println("  frames:            " + frames + (refusedFrames > 0 ? " (" + refusedFrames + " refused)" : ""));
+        if (frames == 0) {
+            return;
+        }
+        System.out.println("  density fixed:     " + densityFixed + " frames");
+        System.out.println(String.format("  header bytes:      %.1f per frame before, %.1f after",
+                (double)headerBytesIn / frames, (double)headerBytesOut / frames));
+        System.out.println(String.format("  data copied:       %d bytes (%s), %.1f MiB/s",
+                dataBytes, source != null ? "transferTo" : "buffer",
+                dataBytes / 1048576.0 / Math.max(1e-9, nanos / 1e9)));
+        JpegRtpMetadata.printTestResult(refusedFrames == 0, "all frames rewritten losslessly"
+                + (refusedFrames > 0 ? " (" + refusedFrames + " frames refused)" : ""));
+    }
+
+    /**
+     * Close the output and the source file.
+     */
+    public void close() {
+        try {
+            out.close();
+            if (source != null) {
+                source.close();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Reconstruction of JPEG headers from the fields of the RFC 2435 payload
+ * header, following RFC 2435 Appendix A (quantization tables) and
+ * Appendix B (headers).
+ *
+ * The reconstructed header additionally contains an APP0 (JFIF) segment
+ * with square pixels, as RFC 2435 requires square pixels.
+ *
+ * In the other direction the Q value of an image is inferred from its
+ * quantization tables: the table pairs of Q 1 to 99 are computed once and
+ * kept in a hash map, so the tables of an image are looked up with a
+ * single hash computation instead of being compared to all 99 pairs.
+ */
+public class Rfc2435Tables {
+    /* tables of ISO10918-1 Annex K.1 and K.2 in zigzag order, see RFC 2435 Appendix A */
+    private static final int[] LUMA_QUANTIZER = {
+        16, 11, 12, 14, 12, 10, 16, 14,
+        13, 14, 18, 17, 16, 19, 24, 40,
+        26, 24, 22, 22, 24, 49, 35, 37,
+        29, 40, 58, 51, 61, 60, 57, 51,
+        56, 55, 64, 72, 92, 78, 64, 68,
+        87, 69, 55, 56, 80, 109, 81, 87,
+        95, 98, 103, 104, 103, 62, 77, 113,
+        121, 112, 100, 120, 92, 101, 103, 99 };
+
+    private static final int[] CHROMA_QUANTIZER = {
+        17, 18, 18, 24, 21, 24, 47, 26,
+        26, 47, 99, 66, 56, 66, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99 };
+
+    /** upper bound of the length of a header created by makeHeaders() */
+    public static final int MAX_HEADER_LENGTH = 1024;
+
+    /** luminance and chrominance table of Q 1 to 99 (8 bit values, zigzag order) to Q */
+    private static final HashMap<ByteBuffer, Integer> STANDARD_TABLES = new HashMap<>();
+
+    static {
+        for (int q = 1; q <= 99; q++) {
+            byte[] tables = new byte[128];
+            makeTables(q, tables);
+            STANDARD_TABLES.putIfAbsent(ByteBuffer.wrap(tables), q);
+        }
+    }
+
+    private Rfc2435Tables() {
+    }
+
+    /**
+     * Compute the quantization tables for a Q value of 1 to 127
+     * (RFC 2435 Appendix A).
+     *
+     * @param q Q value of the payload header
+     * @param tables destination of the luminance and the chrominance table
+     *               (64 bytes each, zigzag order)
+     */
+    public static void makeTables(int q, byte[] tables) {
+        int factor = Math.max(1, Math.min(q, 99));
+        int scale = q < 50 ? 5000 / factor : 200 - factor * 2;
+        for (int i = 0; i < 64; i++) {
+            int lq = (LUMA_QUANTIZER[i] * scale + 50) / 100;
+            int cq = (CHROMA_QUANTIZER[i] * scale + 50) / 100;
+            tables[i] = (byte)Math.max(1, Math.min(lq, 255));
+            tables[64 + i] = (byte)Math.max(1, Math.min(cq, 255));
+        }
+    }
+
+    /**
+     * Infer the Q value of an image from its quantization tables.
+     *
+     * The tables match if the luminance table (first component) and the
+     * chrominance table (second and third component) have the values of
+     * the tables computed for a Q of 1 to 99. Tables with 16 bit precision
+     * match if all their values fit into 8 bits, the receiver restores the
+     * same values from Q.
+     *
+     * @param jrm metadata with the quantization tables of the image
+     * @return Q value of 1 to 99, 0 if the tables have to be sent in-band (Q 128 to 255)
+     */
+    public static int qFactor(JpegRtpMetadata jrm) {
+        byte[] lum = quantizationTable(jrm, 0);
+        byte[] chm = quantizationTable(jrm, 1);
+        if (lum == null || chm == null) {
+            return 0;
+        }
+        for (int i = 2; i < jrm.quantizationSelectors.length; i++) {
+            if (!Arrays.equals(chm, quantizationTable(jrm, i))) {
+                return 0; // RFC 2435 has one chrominance table
+            }
+        }
+        byte[] values = new byte[128];
+        if (!tableValues(lum, values, 0) || !tableValues(chm, values, 64)) {
+            return 0;
+        }
+        Integer q = STANDARD_TABLES.get(ByteBuffer.wrap(values));
+        return q == null ? 0 : q;
+    }
+
+    /**
+     * Get the quantization table of a frame component.
+     *
+     * @param jrm metadata with the quantization tables of the image
+     * @param component index of the component in the SOF segment
+     * @return table as stored in the DQT segment (64 or 128 bytes), null if there is none
+     */
+    public static byte[] quantizationTable(JpegRtpMetadata jrm, int component) {
+        int[] selectors = jrm.quantizationSelectors;
+        if (selectors == null || component >= selectors.length
+                || selectors[component] >= jrm.quantizationTables.length) {
+            return null;
+        }
+        return jrm.quantizationTables[selectors[component]];
+    }
+
+    /**
+     * Get the number of bytes the quantization tables of an image take in
+     * the first packet if they are sent in-band (Q 128 to 255).
+     *
+     * @param jrm metadata with the quantization tables of the image
+     * @return length of the Quantization Table header and the tables, 0 if the tables are missing
+     */
+    public static int inBandLength(JpegRtpMetadata jrm) {
+        byte[] lum = quantizationTable(jrm, 0);
+        byte[] chm = quantizationTable(jrm, 1);
+        if (lum == null || chm == null) {
+            return 0;
+        }
+        return Rfc2435Packetizer.QTABLE_HEADER_SIZE + lum.length + chm.length;
+    }
+
+    /**
+     * Copy the values of a table with 8 or 16 bit precision as bytes.
+     *
+     * @return false if a value does not fit into 8 bits
+     */
+    private static boolean tableValues(byte[] table, byte[] values, int offset) {
+        if (table.length == 64) {
+            System.arraycopy(table, 0, values, offset, 64);
+            return true;
+        }
+        for (int i = 0; i < 64; i++) {
+            if (table[2*i] != 0) {
+                return false;
+            }
+            values[offset + i] = table[2*i + 1];
+        }
+        return true;
+    }
+
+    /**
+     * Create the JPEG header of an image (RFC 2435 Appendix B).
+     *
+     * @param type type of the payload header (0, 1, 64 or 65)
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     * @param tables luminance table followed by chrominance table (zigzag order)
+     * @param precision precision field of the Quantization Table header
+     *                  (bit 0: luminance, bit 1: chrominance table has 16 bit values)
+     * @param restartInterval restart interval, 0 for none
+     * @return header from SOI up to and including the SOS segment
+     */
+    public static byte[] makeHeaders(int type, int width, int height, byte[] tables,
+            int precision, int restartInterval) {
+        ByteBuffer hdr = ByteBuffer.allocate(MAX_HEADER_LENGTH);
+        hdr.put((byte)0xFF).put((byte)JpegMarkerParser.SOI);
+
+        hdr.put((byte)0xFF).put((byte)JpegMarkerParser.APP0);
+        hdr.putShort((short)16);
+        hdr.put(new byte[] { 'J', 'F', 'I', 'F', 0, 1, 1 });
+        hdr.put((byte)0); // no units, pixel aspect ratio only
+        hdr.putShort((short)1).putShort((short)1);
+        hdr.put((byte)0).put((byte)0); // no thumbnail
+
+        int lumLength = (precision & 1) == 0 ? 64 : 128;
+        int chmLength = (precision & 2) == 0 ? 64 : 128;
+        putQuantizationTable(hdr, 0, precision & 1, tables, 0, lumLength);
+        putQuantizationTable(hdr, 1, (precision >> 1) & 1, tables, lumLength, chmLength);
+
+        if (restartInterval > 0) {
+            hdr.put((byte)0xFF).put((byte)0xDD);
+            hdr.putShort((short)4);
+            hdr.putShort((short)restartInterval);
+        }
+
+        hdr.put((byte)0xFF).put((byte)JpegMarkerParser.SOF0);
+        hdr.putShort((short)17);
+        hdr.put((byte)8);
+        hdr.putShort((short)height);
+        hdr.putShort((short)width);
+        hdr.put((byte)3);
+        hdr.put((byte)1).put((byte)((type & 63) == 0 ? 0x21 : 0x22)).put((byte)0);
+        hdr.put((byte)2).put((byte)0x11).put((byte)1);
+        hdr.put((byte)3).put((byte)0x11).put((byte)1);
+
+        putHuffmanTable(hdr, 0x00, JpegRtpMetadata.LUM_DC_CODELENS, JpegRtpMetadata.LUM_DC_SYMBOLS);
+        putHuffmanTable(hdr, 0x10, JpegRtpMetadata.LUM_AC_CODELENS, JpegRtpMetadata.LUM_AC_SYMBOLS);
+        putHuffmanTable(hdr, 0x01, JpegRtpMetadata.CHM_DC_CODELENS, JpegRtpMetadata.CHM_DC_SYMBOLS);
+        putHuffmanTable(hdr, 0x11, JpegRtpMetadata.CHM_AC_CODELENS, JpegRtpMetadata.CHM_AC_SYMBOLS);
+
+        hdr.put((byte)0xFF).put((byte)JpegMarkerParser.SOS);
+        hdr.putShort((short)12);
+        hdr.put((byte)3);
+        hdr.put((byte)1).put((byte)0x00);
+        hdr.put((byte)2).put((byte)0x11);
+        hdr.put((byte)3).put((byte)0x11);
+        hdr.put((byte)0).put((byte)63).put((byte)0); // spectral selection, successive approximation
+
+        byte[] header = new byte[hdr.position()];
+        hdr.flip();
+        hdr.get(header);
+        return header;
+    }
+
+    private static void putQuantizationTable(ByteBuffer hdr, int id, int precision,
+            byte[] tables, int offset, int length) {
+        hdr.put((byte)0xFF).put((byte)JpegMarkerParser.DQT);
+        hdr.putShort((short)(3 + length));
+        hdr.put((byte)(precision << 4 | id));
+        hdr.put(tables, offset, length);
+    }
+
+    private static void putHuffmanTable(ByteBuffer hdr, int classAndId, byte[] codelens, byte[] symbols) {
+        hdr.put((byte)0xFF).put((byte)JpegMarkerParser.DHT);
+        hdr.putShort((short)(3 + codelens.length + symbols.length));
+        hdr.put((byte)classAndId);
+        hdr.put(codelens);
+        hdr.put(symbols);
+    }
+}
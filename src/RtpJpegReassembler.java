@@ -0,0 +1,497 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Reassembles the JPEG images of one RTP stream (one SSRC) with the
+ * payload format of RFC 2435.
+ *
+ * The fragments of an image are copied to their fragment offset in a
+ * reassembly buffer, so fragments may arrive in any order. The byte
+ * ranges received are recorded, a fragment overlapping data already
+ * received is ignored, and an image is complete when the received ranges
+ * cover all bytes up to the end of the packet with the marker bit. The
+ * JPEG header is reconstructed from the payload header (see Rfc2435Tables)
+ * in front of the data and the EOI marker is appended, so the image is
+ * handed out without a further copy. A packet with a new timestamp starts
+ * the next image, the previous image stays open until the timestamp
+ * changes again, so packets reordered across an image boundary complete
+ * it. The two reassembly buffers are reused for all images of the stream.
+ *
+ * Packet loss is determined from the sequence numbers as in RFC 3550,
+ * packets arriving after a packet with a higher sequence number are
+ * counted as reordered. The sequence numbers of the last SEQ_WINDOW
+ * packets are recorded, a packet whose sequence number was received
+ * before is counted as duplicate and ignored, older packets are counted
+ * as lost.
+ */
+public class RtpJpegReassembler {
+    private long ssrc;
+    private int maxFrameSize;
+
+    private Frame current; // image with the last timestamp
+    private Frame previous; // image before it, open for late packets
+    private long latency = 0;
+
+    private byte[][] staticTables = new byte[128][]; // tables of Q 128..255 sent in-band
+    private int[] staticPrecision = new int[128];
+    private byte[] header = null; // header of the last image
+    private int headerType = -1;
+    private int headerWidth;
+    private int headerHeight;
+    private int headerRestartInterval;
+    private int headerPrecision;
+    private byte[] headerTables = new byte[2 * 128];
+
+    private boolean firstPacket = true;
+    private long maxSeq; // extended highest sequence number
+    private long baseSeq;
+    private long[] seen = new long[SEQ_WINDOW / 64]; // received sequence numbers up to maxSeq
+    private long packets = 0;
+    private long duplicates = 0;
+    private long reordered = 0;
+    private long overlapping = 0;
+    private long frames = 0;
+    private long droppedFrames = 0;
+    private long oversizeFragments = 0;
+    private long unsupported = 0;
+    private long missingTables = 0;
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1 << 24;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final int HEADER_RESERVE = Rfc2435Tables.MAX_HEADER_LENGTH;
+    private static final int SEQ_WINDOW = 1024;
+
+
+    /**
+     * An image being reassembled: its buffer, the fields of its payload
+     * headers and the byte ranges of the fragments received.
+     */
+    private static class Frame {
+        byte[] buffer;
+        boolean active = false; // false when the image is completed or dropped
+        long timestamp = -1;
+        boolean bad;
+        int frameEnd;
+        boolean headerSeen;
+        long firstPacketTime;
+
+        int type;
+        int q;
+        int width;
+        int height;
+        int restartInterval;
+        int precision;
+        byte[] tables = new byte[2 * 128];
+
+        int[] ranges = new int[16]; // start and end of the received ranges, sorted and disjoint
+        int rangeCount;
+
+        Frame(int size) {
+            buffer = new byte[size];
+        }
+
+        void start(long ts, long time) {
+            active = true;
+            timestamp = ts;
+            bad = false;
+            frameEnd = -1;
+            headerSeen = false;
+            firstPacketTime = time;
+            rangeCount = 0;
+        }
+
+        /**
+         * Add the range of a fragment to the received ranges.
+         *
+         * @return true if the range is new, false if it overlaps data already received
+         */
+        boolean add(int start, int end) {
+            if (start == end) {
+                return true;
+            }
+            int i = 0;
+            while (i < rangeCount && ranges[2*i+1] <= start) {
+                i++;
+            }
+            if (i < rangeCount && ranges[2*i] < end) {
+                return false;
+            }
+            boolean left = i > 0 && ranges[2*i-1] == start;
+            boolean right = i < rangeCount && ranges[2*i] == end;
+            if (left && right) {
+                ranges[2*i-1] = ranges[2*i+1];
+                System.arraycopy(ranges, 2*i+2, ranges, 2*i, 2 * (rangeCount - i - 1));
+                rangeCount--;
+            } else if (left) {
+                ranges[2*i-1] = end;
+            } else if (right) {
+                ranges[2*i] = start;
+            } else {
+                if (2 * rangeCount == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+                }
+                System.arraycopy(ranges, 2*i, ranges, 2*i+2, 2 * (rangeCount - i));
+                ranges[2*i] = start;
+                ranges[2*i+1] = end;
+                rangeCount++;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the header and all data up to the marker packet are received
+         */
+        boolean complete() {
+            return headerSeen && frameEnd >= 0
+                    && (frameEnd == 0 ? rangeCount == 0 : rangeCount == 1 && ranges[0] == 0 && ranges[1] == frameEnd);
+        }
+    }
+
+
+    /**
+     * Create a RtpJpegReassembler.
+     *
+     * @param ssrc SSRC of the stream
+     * @param maxFrameSize maximum size of the entropy-coded data of an image
+     */
+    public RtpJpegReassembler(long ssrc, int maxFrameSize) {
+        this.ssrc = ssrc;
+        this.maxFrameSize = maxFrameSize;
+        current = new Frame(HEADER_RESERVE + Math.min(maxFrameSize, INITIAL_SIZE) + 2);
+        previous = new Frame(HEADER_RESERVE + Math.min(maxFrameSize, INITIAL_SIZE) + 2);
+    }
+
+    /**
+     * Process an RTP packet of the stream.
+     *
+     * @param packet RTP packet from position to limit, the buffer is not modified
+     * @param time arrival time of the packet in microseconds
+     * @return completed JPEG image, valid until the next call; null if no image was completed
+     */
+    public ByteBuffer push(ByteBuffer packet, long time) {
+        int pos = packet.position();
+        int limit = packet.limit();
+        if (limit - pos < 12) {
+            return null;
+        }
+
+        /* RTP header */
+        int seq = packet.getShort(pos + 2) & 0xFFFF;
+        long ts = packet.getInt(pos + 4) & 0xFFFFFFFFL;
+        boolean marker = (packet.get(pos + 1) & 0x80) != 0;
+        int delta = 1;
+        if (firstPacket) {
+            maxSeq = seq;
+            baseSeq = seq;
+            firstPacket = false;
+            setSeen(maxSeq);
+        } else {
+            delta = (short)(seq - (int)(maxSeq & 0xFFFF));
+            if (delta > 0) {
+                advance(delta);
+            } else if (-delta >= SEQ_WINDOW) {
+                return null; // too late to tell it from a duplicate, counted as lost
+            } else if (isSeen(maxSeq + delta)) {
+                duplicates++;
+                return null;
+            } else {
+                setSeen(maxSeq + delta);
+                reordered++;
+            }
+        }
+        packets++;
+
+        int payload = pos + 12 + 4 * (packet.get(pos) & 0x0F);
+        if ((packet.get(pos) & 0x10) != 0 && payload + 4 <= limit) { // header extension
+            payload += 4 + 4 * (packet.getShort(payload + 2) & 0xFFFF);
+        }
+        if ((packet.get(pos) & 0x20) != 0) { // padding
+            limit -= packet.get(limit - 1) & 0xFF;
+        }
+        if (payload + 8 > limit) {
+            return null;
+        }
+
+        Frame frame = frame(ts, delta, time);
+        if (frame == null) {
+            return null; // late packet of an image which is already completed or dropped
+        }
+
+        /* main JPEG header */
+        int fragmentOffset = packet.getInt(payload) & 0xFFFFFF;
+        int fragmentType = packet.get(payload + 4) & 0xFF;
+        int fragmentQ = packet.get(payload + 5) & 0xFF;
+        int data = payload + 8;
+        if ((fragmentType & 63) > 1 || fragmentType > 127) {
+            unsupported++;
+            frame.bad = true;
+        }
+        if (fragmentType >= 64 && fragmentType <= 127) {
+            if (data + 4 > limit) {
+                return null;
+            }
+            if (fragmentOffset == 0) {
+                frame.restartInterval = packet.getShort(data) & 0xFFFF;
+            }
+            data += 4;
+        }
+
+        if (fragmentOffset == 0 && !frame.bad) {
+            frame.type = fragmentType;
+            frame.q = fragmentQ;
+            frame.width = (packet.get(payload + 6) & 0xFF) * 8;
+            frame.height = (packet.get(payload + 7) & 0xFF) * 8;
+            if (frame.type < 64) {
+                frame.restartInterval = 0;
+            }
+            data = readTables(packet, data, limit, frame);
+            if (data < 0) {
+                frame.bad = true;
+            } else {
+                frame.headerSeen = true;
+            }
+        }
+
+        if (!frame.bad) {
+            int length = limit - data;
+            if (fragmentOffset + length > maxFrameSize || length < 0) {
+                oversizeFragments++;
+                frame.bad = true;
+            } else if (!frame.add(fragmentOffset, fragmentOffset + length)) {
+                overlapping++;
+            } else {
+                ensureCapacity(frame, fragmentOffset + length);
+                copy(packet, data, frame.buffer, HEADER_RESERVE + fragmentOffset, length);
+                if (marker) {
+                    frame.frameEnd = fragmentOffset + length;
+                }
+            }
+        }
+
+        if (marker && frame.bad) {
+            droppedFrames++;
+            frame.active = false;
+            return null;
+        }
+        if (!frame.complete()) {
+            return null;
+        }
+
+        byte[] hdr = header(frame);
+        int start = HEADER_RESERVE - hdr.length;
+        System.arraycopy(hdr, 0, frame.buffer, start, hdr.length);
+        frame.buffer[HEADER_RESERVE + frame.frameEnd] = VideoFileBuffer.JPEG_MARKER;
+        frame.buffer[HEADER_RESERVE + frame.frameEnd + 1] = VideoFileBuffer.JPEG_EOI;
+        frames++;
+        latency = time - frame.firstPacketTime;
+        frame.active = false;
+        return ByteBuffer.wrap(frame.buffer, start, hdr.length + frame.frameEnd + 2).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Find the image a packet belongs to. A packet with a new timestamp
+     * starts the next image, the image before the previous one is dropped
+     * if it is incomplete.
+     *
+     * @param delta sequence number of the packet minus the highest sequence number before it
+     * @return image of the packet, null if it is a late packet of an image completed or dropped
+     */
+    private Frame frame(long ts, int delta, long time) {
+        if (ts == current.timestamp) {
+            return current.active ? current : null;
+        }
+        if (ts == previous.timestamp) {
+            return previous.active ? previous : null;
+        }
+        if (delta < 0) {
+            return null;
+        }
+        if (previous.active) {
+            droppedFrames++; // the marker or a fragment of the image was lost
+        }
+        Frame frame = previous;
+        previous = current;
+        current = frame;
+        frame.start(ts, time);
+        return frame;
+    }
+
+    /**
+     * Drop the images being reassembled, e.g. at the end of the capture.
+     */
+    public void flush() {
+        for (Frame frame : new Frame[] { previous, current }) {
+            if (frame.active) {
+                droppedFrames++;
+                frame.active = false;
+            }
+        }
+    }
+
+    public long ssrc() {
+        return ssrc;
+    }
+
+    /**
+     * @return time between the first packet and the completion of the last image in microseconds
+     */
+    public long latency() {
+        return latency;
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    public long droppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return number of lost packets (expected minus received packets)
+     */
+    public long lostPackets() {
+        if (firstPacket) {
+            return 0;
+        }
+        return Math.max(0, maxSeq - baseSeq + 1 - packets);
+    }
+
+    public long reorderedPackets() {
+        return reordered;
+    }
+
+    /**
+     * Print the statistics of the stream.
+     */
+    public void printStatistics() {
+        System.out.println(String.format("RTP stream SSRC 0x%08X:", ssrc));
+        System.out.println("  packets:            " + packets + " (" + lostPackets() + " lost, "
+                + reordered + " reordered, " + duplicates + " duplicates)");
+        System.out.println("  frames:             " + frames + " (" + droppedFrames + " incomplete or dropped)");
+        System.out.println("  oversize fragments: " + oversizeFragments);
+        if (overlapping > 0) {
+            System.out.println("  overlapping:        " + overlapping + " fragments ignored");
+        }
+        if (unsupported > 0 || missingTables > 0) {
+            System.out.println("  unsupported types:  " + unsupported + " packets");
+            System.out.println("  missing tables:     " + missingTables + " frames");
+        }
+    }
+
+    /**
+     * Read the Quantization Table header or compute the tables from Q.
+     *
+     * @return index of the data following the header, -1 if the tables are not available
+     */
+    private int readTables(ByteBuffer packet, int data, int limit, Frame frame) {
+        int q = frame.q;
+        if (q < 128) {
+            frame.precision = 0;
+            Rfc2435Tables.makeTables(q, frame.tables);
+            return data;
+        }
+        if (data + 4 > limit) {
+            return -1;
+        }
+        int tablePrecision = packet.get(data + 1) & 0xFF;
+        int length = packet.getShort(data + 2) & 0xFFFF;
+        data += 4;
+        if (length == 0) {
+            if (q == 255 || staticTables[q - 128] == null) {
+                missingTables++;
+                return -1;
+            }
+            frame.precision = staticPrecision[q - 128];
+            System.arraycopy(staticTables[q - 128], 0, frame.tables, 0, staticTables[q - 128].length);
+            return data;
+        }
+        int expected = ((tablePrecision & 1) == 0 ? 64 : 128) + ((tablePrecision & 2) == 0 ? 64 : 128);
+        if (length != expected || data + length > limit) {
+            missingTables++;
+            return -1;
+        }
+        frame.precision = tablePrecision & 3;
+        copy(packet, data, frame.tables, 0, length);
+        if (q < 255) {
+            staticTables[q - 128] = Arrays.copyOf(frame.tables, length);
+            staticPrecision[q - 128] = frame.precision;
+        }
+        return data + length;
+    }
+
+    /**
+     * Get the header of an image, it is only rebuilt if the
+     * fields differ from the last image.
+     */
+    private byte[] header(Frame frame) {
+        int type = frame.type;
+        int width = frame.width;
+        int height = frame.height;
+        int restartInterval = frame.restartInterval;
+        int precision = frame.precision;
+        byte[] tables = frame.tables;
+        int tableLength = ((precision & 1) == 0 ? 64 : 128) + ((precision & 2) == 0 ? 64 : 128);
+        if (header == null || headerType != type || headerWidth != width || headerHeight != height
+                || headerRestartInterval != restartInterval || headerPrecision != precision
+                || !Arrays.equals(headerTables, 0, tableLength, tables, 0, tableLength)) {
+            header = Rfc2435Tables.makeHeaders(type, width, height, tables, precision, restartInterval);
+            headerType = type;
+            headerWidth = width;
+            headerHeight = height;
+            headerRestartInterval = restartInterval;
+            headerPrecision = precision;
+            System.arraycopy(tables, 0, headerTables, 0, tableLength);
+        }
+        return header;
+    }
+
+    /**
+     * Copy bytes of a packet, packets in heap buffers are copied without
+     * creating a view of the buffer.
+     */
+    private static void copy(ByteBuffer packet, int index, byte[] dst, int offset, int length) {
+        if (packet.hasArray()) {
+            System.arraycopy(packet.array(), packet.arrayOffset() + index, dst, offset, length);
+        } else {
+            ByteBuffer src = packet.duplicate();
+            src.limit(index + length);
+            src.position(index);
+            src.get(dst, offset, length);
+        }
+    }
+
+    private void ensureCapacity(Frame frame, int dataLength) {
+        int required = HEADER_RESERVE + dataLength + 2;
+        if (required > frame.buffer.length) {
+            int size = Math.max(required, Math.min(2 * (frame.buffer.length - HEADER_RESERVE - 2), maxFrameSize)
+                    + HEADER_RESERVE + 2);
+            frame.buffer = Arrays.copyOf(frame.buffer, size);
+        }
+    }
+
+    /**
+     * Advance the highest sequence number, the sequence numbers skipped
+     * are marked as not received.
+     */
+    private void advance(int delta) {
+        if (delta >= SEQ_WINDOW) {
+            Arrays.fill(seen, 0L);
+        } else {
+            for (long s = maxSeq + 1; s < maxSeq + delta; s++) {
+                seen[(int)(s & (SEQ_WINDOW - 1)) >>> 6] &= ~(1L << s);
+            }
+        }
+        maxSeq += delta;
+        setSeen(maxSeq);
+    }
+
+    private void setSeen(long s) {
+        seen[(int)(s & (SEQ_WINDOW - 1)) >>> 6] |= 1L << s;
+    }
+
+    private boolean isSeen(long s) {
+        return (seen[(int)(s & (SEQ_WINDOW - 1)) >>> 6] & 1L << s) != 0;
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Receives RTP streams with the payload format of RFC 2435 on UDP ports
+ * and validates their images continuously.
+ *
+ * All ports are served by one thread with non-blocking channels and a
+ * selector. Every packet is received into the same buffer and copied
+ * into the reassembly buffer of its stream, so the receive path does not
+ * allocate per packet. The first image of every stream is checked for
+ * compliance with RFC 2435, all further images are compared to its
+ * metadata. The frame rate, the packet loss and the reassembly latency
+ * of every stream are printed periodically.
+ */
+public class RtpReceiver {
+    private Selector selector = null;
+    private ArrayList<DatagramChannel> channels = new ArrayList<>();
+    private ByteBuffer packet = ByteBuffer.allocate(65536);
+    private HeaderCache headerCache;
+    private int maxFrameSize;
+    private long reportInterval = DEFAULT_REPORT_INTERVAL;
+
+    /* open addressing hash table of the streams by SSRC */
+    private long[] keys = new long[64];
+    private Stream[] values = new Stream[64];
+    private ArrayList<Stream> streams = new ArrayList<>();
+    private long otherPackets = 0;
+    private AtomicBoolean cancelled = new AtomicBoolean();
+
+    public static final long DEFAULT_REPORT_INTERVAL = 1000; // milliseconds
+    private static final int PAYLOAD_TYPE_JPEG = 26;
+    private static final int RECEIVE_BUFFER_SIZE = 1 << 22;
+    private static final int MAX_PACKETS_PER_CHANNEL = 64; // per selection, for fairness
+
+    private static class Stream {
+        RtpJpegReassembler reassembler;
+        int port;
+        JpegRtpMetadata reference = null;
+        long errors = 0;
+        long metadataChanges = 0;
+        long latencySum = 0;
+        long latencyMax = 0;
+        long latencyCount = 0;
+        long reportedFrames = 0;
+        long reportedLost = 0;
+    }
+
+
+    /**
+     * Create a RtpReceiver listening on the given ports of all interfaces.
+     *
+     * @param ports UDP ports
+     * @param maxFrameSize maximum size of the entropy-coded data of an image
+     * @param headerCache cache for the metadata of the image headers
+     * @throws IOException if a port cannot be opened
+     */
+    public RtpReceiver(int[] ports, int maxFrameSize, HeaderCache headerCache) throws IOException {
+        this.maxFrameSize = maxFrameSize;
+        this.headerCache = headerCache;
+        selector = Selector.open();
+        try {
+            for (int port : ports) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+                channel.bind(new InetSocketAddress(port));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, port);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set the interval of the statistics output.
+     *
+     * @param reportInterval interval in milliseconds
+     */
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    /**
+     * Set the flag that stops receiving, it is checked at least once per
+     * statistics interval.
+     *
+     * @param cancelled flag which is set to stop
+     */
+    public void setCancellation(AtomicBoolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Receive and validate the streams.
+     *
+     * @param duration time to receive in milliseconds, 0 to receive until the thread is interrupted
+     *                 or receiving is cancelled
+     * @return true if all streams were compliant, complete and shared their metadata
+     */
+    public boolean run(long duration) {
+        long start = System.currentTimeMillis();
+        long end = duration > 0 ? start + duration : Long.MAX_VALUE;
+        long lastReport = start;
+        long now = start;
+        while (now < end && !Thread.currentThread().isInterrupted() && !cancelled.get()) {
+            try {
+                selector.select(Math.max(1, Math.min(lastReport + reportInterval, end) - now));
+            } catch (IOException e) {
+                System.out.println(e);
+                break;
+            }
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                receive((DatagramChannel)key.channel(), (Integer)key.attachment());
+            }
+            now = System.currentTimeMillis();
+            if (now - lastReport >= reportInterval) {
+                report((now - lastReport) / 1000.0, (now - start) / 1000.0);
+                lastReport = now;
+            }
+        }
+
+        System.out.println("====================================");
+        boolean passed = true;
+        for (Stream stream : streams) {
+            stream.reassembler.printStatistics();
+            System.out.println("  metadata changes:   " + stream.metadataChanges);
+            if (stream.errors > 0 || stream.metadataChanges > 0
+                    || stream.reassembler.lostPackets() > 0 || stream.reassembler.droppedFrames() > 0) {
+                passed = false;
+            }
+        }
+        if (otherPackets > 0) {
+            System.out.println(otherPackets + " UDP packets without RTP/JPEG");
+        }
+        passed &= !streams.isEmpty();
+        JpegRtpMetadata.printTestResult(passed, streams.size() + " RTP streams complete and sharing metadata");
+        return passed;
+    }
+
+    /**
+     * Close all ports.
+     */
+    public void close() {
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        channels.clear();
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        selector = null;
+    }
+
+    private void receive(DatagramChannel channel, int port) {
+        for (int i = 0; i < MAX_PACKETS_PER_CHANNEL; i++) {
+            packet.clear();
+            try {
+                if (channel.receive(packet) == null) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+                return;
+            }
+            packet.flip();
+            if (packet.remaining() < 12 || (packet.get(0) & 0xC0) != 0x80
+                    || (packet.get(1) & 0x7F) != PAYLOAD_TYPE_JPEG) {
+                otherPackets++;
+                continue;
+            }
+            long ssrc = packet.getInt(8) & 0xFFFFFFFFL;
+            Stream stream = stream(ssrc, port);
+            ByteBuffer frame = stream.reassembler.push(packet, System.nanoTime() / 1000);
+            if (frame != null) {
+                validate(stream, frame);
+            }
+        }
+    }
+
+    /**
+     * Check an image of a stream, the first image of a stream is checked
+     * for compliance and becomes the reference for the following images.
+     */
+    private void validate(Stream stream, ByteBuffer frame) {
+        long latency = stream.reassembler.latency();
+        stream.latencySum += latency;
+        stream.latencyMax = Math.max(stream.latencyMax, latency);
+        stream.latencyCount++;
+
+        JpegRtpMetadata jrm = JpegMetadataExtractor.extractMetadata(frame, headerCache);
+        long frameNumber = stream.reassembler.frames();
+        if (jrm == null) {
+            stream.errors++;
+            return;
+        }
+        if (stream.reference == null) {
+            stream.reference = jrm;
+            System.out.println(String.format("New RTP stream SSRC 0x%08X on port %d:",
+                    stream.reassembler.ssrc(), stream.port));
+            int violation = ByteStuffingValidator.firstViolation(frame, jrm.headerLength);
+            if (violation != -1) {
+                System.out.println("Error: 0xff at offset " + violation + " of frame " + frameNumber
+                        + " is not followed by 0x00 or RSTn");
+            }
+            String mismatch = RestartIndex.verify(frame.slice(), jrm);
+            if (mismatch != null) {
+                System.out.println("Error: frame " + frameNumber + ": " + mismatch);
+            }
+            if (!jrm.checkRtp2435Conformance(violation, mismatch)) {
+                stream.errors++;
+            }
+            System.out.println();
+        } else if (!stream.reference.isEqual(jrm)) {
+            stream.metadataChanges++;
+            JpegRtpMetadata.printTestResult(false, String.format("SSRC 0x%08X frame %d shares metadata",
+                    stream.reassembler.ssrc(), frameNumber));
+        }
+    }
+
+    /**
+     * Print the statistics of all streams since the last report.
+     */
+    private void report(double seconds, double elapsed) {
+        for (Stream stream : streams) {
+            RtpJpegReassembler r = stream.reassembler;
+            long frames = r.frames() - stream.reportedFrames;
+            long lost = r.lostPackets() - stream.reportedLost;
+            System.out.println(String.format("[%8.1f s] SSRC 0x%08X: %6.1f frames/s, %d lost packets, "
+                    + "latency avg %.2f ms, max %.2f ms", elapsed, r.ssrc(), frames / seconds, lost,
+                    stream.latencyCount == 0 ? 0.0 : stream.latencySum / 1000.0 / stream.latencyCount,
+                    stream.latencyMax / 1000.0));
+            stream.reportedFrames = r.frames();
+            stream.reportedLost = r.lostPackets();
+            stream.latencySum = 0;
+            stream.latencyMax = 0;
+            stream.latencyCount = 0;
+        }
+    }
+
+    /**
+     * Look up the stream of a SSRC, a new stream is created for an unknown SSRC.
+     */
+    private Stream stream(long ssrc, int port) {
+        int mask = keys.length - 1;
+        int i = Long.hashCode(ssrc * 0x9E3779B97F4A7C15L) & mask;
+        while (values[i] != null) {
+            if (keys[i] == ssrc) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+
+        Stream stream = new Stream();
+        stream.reassembler = new RtpJpegReassembler(ssrc, maxFrameSize);
+        stream.port = port;
+        keys[i] = ssrc;
+        values[i] = stream;
+        streams.add(stream);
+        if (streams.size() * 2 > keys.length) {
+            long[] oldKeys = keys;
+            Stream[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Stream[oldKeys.length * 2];
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int k = Long.hashCode(oldKeys[j] * 0x9E3779B97F4A7C15L) & (keys.length - 1);
+                    while (values[k] != null) {
+                        k = (k + 1) & (keys.length - 1);
+                    }
+                    keys[k] = oldKeys[j];
+                    values[k] = oldValues[j];
+                }
+            }
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+
+/**
+ * Selection of the images checked in sampling mode and the estimate of
+ * the non-conformance rate from the result.
+ *
+ * Either every Nth image is checked (systematic sampling), or a random
+ * sample whose size is chosen so the non-conformance rate is estimated
+ * within a margin at a confidence level (worst case p = 0.5, with the
+ * finite population correction). The rate is reported with its Wilson
+ * score interval, which stays meaningful when no or all sampled images
+ * fail.
+ */
+public class Sampling {
+    private int every;
+    private double confidence;
+    private double margin;
+    private long seed;
+
+    public static final double DEFAULT_CONFIDENCE = 0.95;
+    public static final double DEFAULT_MARGIN = 0.01;
+
+
+    private Sampling(int every, double confidence, double margin, long seed) {
+        this.every = every;
+        this.confidence = confidence;
+        this.margin = margin;
+        this.seed = seed;
+    }
+
+    /**
+     * Check every Nth image.
+     *
+     * @param every distance of the checked images
+     * @param confidence confidence level of the interval of the estimate, e.g. 0.95
+     * @return sampling
+     */
+    public static Sampling every(int every, double confidence) {
+        if (every < 1 || !(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Invalid sampling interval or confidence level: "
+                    + every + ", " + confidence);
+        }
+        return new Sampling(every, confidence, 0, 0);
+    }
+
+    /**
+     * Check a random sample of the images.
+     *
+     * @param confidence confidence level, e.g. 0.95
+     * @param margin margin of the estimated rate, e.g. 0.01
+     * @param seed seed of the random selection, the same seed selects the same images
+     * @return sampling
+     */
+    public static Sampling random(double confidence, double margin, long seed) {
+        if (!(confidence > 0 && confidence < 1) || !(margin > 0 && margin < 1)) {
+            throw new IllegalArgumentException("Invalid confidence level or margin: " + confidence + ", " + margin);
+        }
+        return new Sampling(0, confidence, margin, seed);
+    }
+
+    /**
+     * Select the images to check.
+     *
+     * @param population number of images to select from
+     * @return numbers of the selected images in ascending order, starting at 0
+     */
+    public int[] select(int population) {
+        if (every > 0) {
+            int[] frames = new int[(population + every - 1) / every];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = i * every;
+            }
+            return frames;
+        }
+        int size = sampleSize(population);
+        // Floyd's algorithm: size distinct numbers with size random draws
+        Random random = new Random(seed);
+        HashSet<Integer> selected = new HashSet<>(size * 2);
+        for (int j = population - size; j < population; j++) {
+            int frame = random.nextInt(j + 1);
+            if (!selected.add(frame)) {
+                selected.add(j);
+            }
+        }
+        int[] frames = new int[selected.size()];
+        int i = 0;
+        for (int frame : selected) {
+            frames[i++] = frame;
+        }
+        Arrays.sort(frames);
+        return frames;
+    }
+
+    /**
+     * Get the size of a random sample for the confidence level and margin.
+     *
+     * @param population number of images
+     * @return number of images to check
+     */
+    public int sampleSize(int population) {
+        double z = normalQuantile(1 - (1 - confidence) / 2);
+        double n0 = z * z * 0.25 / (margin * margin);
+        double n = n0 / (1 + (n0 - 1) / population);
+        return (int)Math.min(population, Math.ceil(n));
+    }
+
+    /**
+     * Get the Wilson score interval of a rate.
+     *
+     * @param failures number of failed images
+     * @param n number of checked images
+     * @return lower and upper bound of the rate
+     */
+    public double[] interval(long failures, long n) {
+        if (n == 0) {
+            return new double[] { 0, 1 };
+        }
+        double z = normalQuantile(1 - (1 - confidence) / 2);
+        double p = (double)failures / n;
+        double z2n = z * z / n;
+        double center = (p + z2n / 2) / (1 + z2n);
+        double half = z / (1 + z2n) * Math.sqrt(p * (1 - p) / n + z2n / (4 * n));
+        return new double[] { Math.max(0, center - half), Math.min(1, center + half) };
+    }
+
+    /**
+     * @return confidence level of the interval
+     */
+    public double confidence() {
+        return confidence;
+    }
+
+    /**
+     * @return description of the sampling, e.g. "1 in 10 images"
+     */
+    @Override
+    public String toString() {
+        if (every > 0) {
+            return "1 in " + every + " images";
+        }
+        return String.format("random sample for %.4g %% confidence and a margin of %.4g %% (seed %d)",
+                confidence * 100, margin * 100, seed);
+    }
+
+    /**
+     * Quantile function of the standard normal distribution (rational
+     * approximation by P. J. Acklam, relative error below 1.2e-9).
+     *
+     * @param p probability between 0 and 1
+     * @return quantile
+     */
+    static double normalQuantile(double p) {
+        final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+        final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01 };
+        final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+        final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00 };
+        final double low = 0.02425;
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - low) {
+            return -normalQuantile(1 - p);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Source for reading multiple JPEGs from a stream, e.g. stdin or a pipe.
+ *
+ * The stream is read into a ring buffer of fixed size which is reused
+ * for the whole stream, so the memory usage does not depend on the
+ * length of the stream. Images are handed out as views of the ring
+ * buffer. Only images wrapping around the end of the ring buffer are
+ * copied into a scratch buffer of the same fixed size.
+ *
+ * Images larger than the configured maximum size end the stream with
+ * an error.
+ */
+public class StreamFrameSource implements FrameSource {
+    private InputStream in = null;
+    private byte[] ring = null;
+    private byte[] scratch = null;
+    private int head = 0; // ring index of the first stored byte
+    private int count = 0; // number of stored bytes
+    private long headPosition = 0; // stream offset of the first stored byte
+    private long frameOffset = -1;
+    private int maxFrameSize = 0;
+    private boolean eof = false;
+    private boolean failed = false;
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1 << 24;
+    private static final int READ_SIZE = 65536;
+
+
+    /**
+     * Create a StreamFrameSource with the default maximum image size.
+     *
+     * @param in stream to read the images from
+     */
+    public StreamFrameSource(InputStream in) {
+        this(in, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * Create a StreamFrameSource.
+     *
+     * @param in stream to read the images from
+     * @param maxFrameSize maximum size of an image in bytes
+     */
+    public StreamFrameSource(InputStream in, int maxFrameSize) {
+        if (maxFrameSize < 4 || maxFrameSize > Integer.MAX_VALUE - READ_SIZE) {
+            throw new IllegalArgumentException("Invalid maximum image size: " + maxFrameSize);
+        }
+        this.in = in;
+        this.maxFrameSize = maxFrameSize;
+        ring = new byte[maxFrameSize + READ_SIZE];
+        scratch = new byte[maxFrameSize];
+    }
+
+    /**
+     * Close the stream.
+     */
+    @Override
+    public void close() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        in = null;
+        ring = null;
+        scratch = null;
+        count = 0;
+        eof = true;
+    }
+
+    @Override
+    public long frameOffset() {
+        return frameOffset;
+    }
+
+    /**
+     * Skip forward to the given stream offset, a stream cannot be
+     * read backwards.
+     *
+     * @return true if successful, false otherwise
+     */
+    @Override
+    public boolean seek(long offset) {
+        if (offset < headPosition || in == null) {
+            return false;
+        }
+        while (headPosition + count < offset && !eof) {
+            discard(count);
+            fill();
+        }
+        discard((int)Math.min(count, offset - headPosition));
+        return headPosition == offset;
+    }
+
+    /**
+     * Check whether reading was stopped because of an oversized image
+     * or a read error.
+     *
+     * @return true if reading failed, false otherwise
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    /**
+     * Get the next JPEG image from the stream.
+     *
+     * @return JPEG image, null if there is no further complete image
+     */
+    @Override
+    public ByteBuffer nextFrame() {
+        if (in == null || failed) {
+            return null;
+        }
+
+        int soi = -1;
+        while ((soi = find(0, VideoFileBuffer.JPEG_SOI)) == -1) {
+            // a marker byte at the end may belong to a marker straddling the read
+            discard(count > 0 && at(count-1) == VideoFileBuffer.JPEG_MARKER ? count-1 : count);
+            if (!fill()) {
+                return null;
+            }
+        }
+        discard(soi);
+
+        int eoi = -1;
+        int from = skipHeader();
+        while ((eoi = find(from, VideoFileBuffer.JPEG_EOI)) == -1) {
+            from = Math.max(from, count - 1);
+            if (count >= maxFrameSize) {
+                System.out.println("Error: JPEG image at stream offset " + headPosition
+                        + " exceeds the maximum image size of " + maxFrameSize + " bytes");
+                failed = true;
+                return null;
+            }
+            if (!fill()) {
+                return null; // incomplete image at the end of the stream
+            }
+        }
+
+        int length = eoi + 2; // include EOI marker in data
+        if (length > maxFrameSize) {
+            System.out.println("Error: JPEG image at stream offset " + headPosition
+                    + " exceeds the maximum image size of " + maxFrameSize + " bytes");
+            failed = true;
+            return null;
+        }
+        ByteBuffer frame = null;
+        if (head + length <= ring.length) {
+            frame = ByteBuffer.wrap(ring, head, length).slice();
+        } else {
+            int first = ring.length - head;
+            System.arraycopy(ring, head, scratch, 0, first);
+            System.arraycopy(ring, 0, scratch, first, length - first);
+            frame = ByteBuffer.wrap(scratch, 0, length).slice();
+        }
+        frameOffset = headPosition;
+        discard(length);
+        return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * Skip the header segments of the image at the first stored byte by
+     * their lengths (see JpegMarkerParser.isHeaderSegment), reading more
+     * data if the header is not complete yet.
+     *
+     * @return index to start the search for the EOI marker at
+     */
+    private int skipHeader() {
+        int pos = 2;
+        while (true) {
+            while (pos + 4 <= count && at(pos) == VideoFileBuffer.JPEG_MARKER
+                    && JpegMarkerParser.isHeaderSegment(at(pos+1) & 0xFF)) {
+                pos += 2 + ((at(pos+2) & 0xFF) << 8 | (at(pos+3) & 0xFF));
+            }
+            if (pos + 4 <= count || count >= maxFrameSize || !fill()) {
+                return pos;
+            }
+        }
+    }
+
+    /**
+     * Search for a marker in the stored bytes.
+     *
+     * @param from index relative to the first stored byte
+     * @return index of the marker relative to the first stored byte, -1 if not found
+     */
+    private int find(int from, byte marker) {
+        if (from >= count - 1) {
+            return -1;
+        }
+        int end = head + count;
+        if (end <= ring.length) {
+            int pos = MarkerScanner.find(ring, head + from, end, marker);
+            return pos == -1 ? -1 : pos - head;
+        }
+
+        // the stored bytes wrap around the end of the ring
+        if (head + from < ring.length) {
+            int pos = MarkerScanner.find(ring, head + from, ring.length, marker);
+            if (pos != -1) {
+                return pos - head;
+            }
+            if (ring[ring.length-1] == VideoFileBuffer.JPEG_MARKER && ring[0] == marker) {
+                return ring.length - 1 - head;
+            }
+            from = ring.length - head;
+        }
+        int pos = MarkerScanner.find(ring, head + from - ring.length, end - ring.length, marker);
+        return pos == -1 ? -1 : pos + ring.length - head;
+    }
+
+    private byte at(int index) {
+        return ring[(head + index) % ring.length];
+    }
+
+    private void discard(int bytes) {
+        head = (head + bytes) % ring.length;
+        count -= bytes;
+        headPosition += bytes;
+        if (count == 0) {
+            head = 0; // keep the data contiguous as long as possible
+        }
+    }
+
+    /**
+     * Read more data into the free space of the ring.
+     *
+     * @return true if data was read, false at the end of the stream or in case of an error
+     */
+    private boolean fill() {
+        if (eof || count == ring.length) {
+            return false;
+        }
+        int tail = (head + count) % ring.length;
+        int free = tail >= head ? ring.length - tail : head - tail;
+        if (count == 0) {
+            free = ring.length - tail;
+        }
+        try {
+            int readBytes = in.read(ring, tail, Math.min(free, READ_SIZE));
+            if (readBytes == -1) {
+                eof = true;
+                return false;
+            }
+            count += readBytes;
+        } catch (IOException e) {
+            System.out.println(e);
+            failed = true;
+            return false;
+        }
+        return true;
+    }
+}
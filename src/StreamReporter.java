@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Base of the machine-readable reporters: the records are encoded into a
+ * reusable buffer which is written to the output when it is nearly full
+ * and at the end of a file.
+ *
+ * Multiple reporters may share the output (e.g. when checking files
+ * concurrently), the buffer is always written in one piece and only
+ * contains complete records.
+ */
+public abstract class StreamReporter implements Reporter {
+    private OutputStream out;
+    protected byte[] buffer = new byte[BUFFER_SIZE];
+    protected int length = 0;
+    private boolean failed = false;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int FLUSH_THRESHOLD = BUFFER_SIZE - 4096;
+
+
+    /**
+     * Create a StreamReporter.
+     *
+     * @param out output, writes are synchronized on it
+     */
+    protected StreamReporter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Called after every record, writes the buffer if it is nearly full.
+     */
+    protected void recordDone() {
+        if (length >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    /**
+     * Make room for a number of bytes, records larger than the usual
+     * threshold (e.g. long file names) grow the buffer.
+     */
+    protected void ensure(int bytes) {
+        if (length + bytes > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, length + bytes)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (length == 0) {
+            return;
+        }
+        try {
+            synchronized (out) {
+                out.write(buffer, 0, length);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!failed) {
+                System.out.println(e);
+            }
+            failed = true;
+        }
+        length = 0;
+    }
+}
@@ -1,6 +1,7 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 
@@ -10,11 +11,13 @@ import java.util.Arrays;
  * The buffer reads from a file and stores the remaining data
  * in a temporary buffer.
  */
-public class VideoFileBuffer {
+public class VideoFileBuffer implements FrameSource {
     private RandomAccessFile in = null;
     private byte[] buffer = null;
     private int bufferSize = 0; // size of whole buffer
     private int bufferOffset = 0; // for reading new data
+    private long filePosition = 0; // file offset of the end of the buffered data
+    private long frameOffset = -1;
     private boolean eof = false;
 
     // public static final byte JPEG_ZERO = 0x00;
@@ -23,6 +26,9 @@ public class VideoFileBuffer {
     public static final byte JPEG_EOI = (byte)0xD9;
     public static final byte JPEG_DHT = (byte)0xC4;
 
+    /** maximum size the buffer grows to for skipping the header of an image */
+    private static final int MAX_HEADER_SIZE = 1 << 20;
+
 
     /**
      * Create a VideoFileBuffer for reading image data and video meta data
@@ -41,6 +47,7 @@ public class VideoFileBuffer {
     /**
      * Close all streams.
      */
+    @Override
     public void close() {
         in = null;
         buffer = null;
@@ -49,6 +56,46 @@ public class VideoFileBuffer {
         eof = true;
     }
 
+    @Override
+    public long frameOffset() {
+        return frameOffset;
+    }
+
+    @Override
+    public boolean seek(long offset) {
+        if (in == null) {
+            return false;
+        }
+        try {
+            in.seek(offset);
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+        filePosition = offset;
+        bufferOffset = 0;
+        eof = false;
+        fillBuffer();
+        return true;
+    }
+
+    /**
+     * Get the next JPEG image from the file.
+     *
+     * The image is copied out of the buffer, so the returned buffer
+     * stays valid after subsequent calls.
+     *
+     * @return JPEG image, null if there is no further complete image
+     */
+    @Override
+    public ByteBuffer nextFrame() {
+        byte[] data = nextJpeg();
+        if (data == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(data);
+    }
+
     /**
      * Get the next JPEG image from the file.
      *
@@ -58,25 +105,25 @@ public class VideoFileBuffer {
         if (!seekToSoi()) {
             return null;
         }
+        frameOffset = filePosition - bufferOffset;
 
         byte[] data = new byte[0];
         int eoiPos = -1;
+        int from = skipHeader();
 
         do {
-            for (int i = 0; i < bufferOffset-1; i++) {
-                if (buffer[i] == JPEG_MARKER) {
-                    if (buffer[i+1] == JPEG_EOI) {
-                        eoiPos = i;
-                        break;
-                    }
-                }
-            }
+            eoiPos = MarkerScanner.find(buffer, from, bufferOffset, JPEG_EOI);
+            from = 0;
             if (eoiPos == -1) {
-                byte[] newData = new byte[data.length + bufferOffset];
+                int keep = keepMarkerByte();
+                byte[] newData = new byte[data.length + bufferOffset - keep];
                 System.arraycopy(data, 0, newData, 0, data.length);
-                System.arraycopy(buffer, 0, newData, data.length, bufferOffset);
+                System.arraycopy(buffer, 0, newData, data.length, bufferOffset - keep);
                 data = newData;
-                bufferOffset = 0;
+                if (keep == 1) {
+                    buffer[0] = JPEG_MARKER;
+                }
+                bufferOffset = keep;
                 if (!fillBuffer()) {
                     break;
                 }
@@ -94,7 +141,7 @@ public class VideoFileBuffer {
         data = newData;
 
         buffer = Arrays.copyOfRange(buffer, eoiPos, eoiPos + bufferSize);
-        bufferOffset = bufferSize - eoiPos;
+        bufferOffset -= eoiPos;
         fillBuffer();
 
         return data;
@@ -109,19 +156,16 @@ public class VideoFileBuffer {
         int soiPos = -1;
         
         do {
-            for (int i = 0; i < bufferOffset-1; i++) {
-                if (buffer[i] == JPEG_MARKER) {
-                    if (buffer[i+1] == JPEG_SOI) {
-                        soiPos = i;
-                        break;
-                    }
-                }
-            }
+            soiPos = MarkerScanner.find(buffer, 0, bufferOffset, JPEG_SOI);
             if (eof) {
                 break;
             }
             if (soiPos == -1) {
-                bufferOffset = 0;
+                int keep = keepMarkerByte();
+                if (keep == 1) {
+                    buffer[0] = JPEG_MARKER;
+                }
+                bufferOffset = keep;
                 fillBuffer();
             }
         } while (soiPos == -1);
@@ -132,13 +176,51 @@ public class VideoFileBuffer {
 
         if (soiPos != 0) {
             buffer = Arrays.copyOfRange(buffer, soiPos, soiPos + bufferSize);
-            bufferOffset = bufferSize - soiPos;
+            bufferOffset -= soiPos;
             fillBuffer();
         }
 
         return true;
     }
 
+    /**
+     * Skip the header segments of the image at the begin of the buffer by
+     * their lengths (see JpegMarkerParser.isHeaderSegment). The buffer
+     * grows if the header does not fit, up to MAX_HEADER_SIZE.
+     *
+     * @return index to start the search for the EOI marker at
+     */
+    private int skipHeader() {
+        int pos = 2;
+        while (true) {
+            while (pos + 4 <= bufferOffset && buffer[pos] == JPEG_MARKER
+                    && JpegMarkerParser.isHeaderSegment(buffer[pos+1] & 0xFF)) {
+                pos += 2 + ((buffer[pos+2] & 0xFF) << 8 | (buffer[pos+3] & 0xFF));
+            }
+            if (pos + 4 <= bufferOffset || eof || bufferSize >= MAX_HEADER_SIZE) {
+                return pos;
+            }
+            if (bufferOffset == bufferSize) {
+                bufferSize *= 2;
+                buffer = Arrays.copyOf(buffer, bufferSize);
+            }
+            if (!fillBuffer()) {
+                return pos;
+            }
+        }
+    }
+
+    /**
+     * Check whether the last byte of the buffer has to be kept when the
+     * buffer is refilled, because it could be the first byte of a marker
+     * straddling the buffer end.
+     *
+     * @return number of bytes to keep (0 or 1)
+     */
+    private int keepMarkerByte() {
+        return bufferOffset > 0 && buffer[bufferOffset-1] == JPEG_MARKER ? 1 : 0;
+    }
+
     private boolean fillBuffer() {
         if (buffer == null) {
             return false;
@@ -163,6 +245,7 @@ public class VideoFileBuffer {
                 break;
             }
             bufferOffset += readBytes;
+            filePosition += readBytes;
         }
 
         return true;
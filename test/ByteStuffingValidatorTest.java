@@ -0,0 +1,73 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+
+/**
+ * Tests of ByteStuffingValidator with hand-built images (see TestImage).
+ */
+public class ByteStuffingValidatorTest {
+
+    public static void main(String[] args) {
+        acceptsValidStuffing();
+        findsViolation();
+        violationAtEndOfData();
+        stopsAtEoi();
+        vectorMatchesScalar();
+        UnitTest.finish("ByteStuffingValidatorTest");
+    }
+
+    private static void acceptsValidStuffing() {
+        int header = TestImage.headerLength(false);
+        UnitTest.equal(-1, ByteStuffingValidator.firstViolation(TestImage.image(), header), "valid image");
+        UnitTest.equal(-1, ByteStuffingValidator.firstViolation(
+                TestImage.withScan(0x12, 0xFF, 0x00, 0x34, 0xFF, 0xFF, 0xFF, 0x00, 0x56, 0x78, 0x9A), header),
+                "stuffed 0x00 and fill bytes");
+        UnitTest.equal(-1, ByteStuffingValidator.firstViolation(
+                TestImage.withRestarts(TestImage.RESTART_SCAN), TestImage.headerLength(true)),
+                "restart marker");
+    }
+
+    private static void findsViolation() {
+        int header = TestImage.headerLength(false);
+        ByteBuffer image = TestImage.withScan(0x12, 0x34, 0x56, 0x78, 0x9A, 0xBC, 0xDE, 0xFF, 0x12, 0x00);
+        UnitTest.equal(header + 7, ByteStuffingValidator.firstViolation(image, header), "0xFF followed by 0x12");
+
+        // the image is checked from its position, the offset is relative to it
+        ByteBuffer shifted = TestImage.after(new int[] { 0xAA, 0xBB, 0xCC }, TestImage.withScan(0xFF, 0xC4));
+        UnitTest.equal(header, ByteStuffingValidator.firstViolation(shifted, header), "offset relative to position");
+        UnitTest.equal(3, shifted.position(), "buffer position unchanged");
+    }
+
+    private static void violationAtEndOfData() {
+        int header = TestImage.headerLength(false);
+        ByteBuffer image = TestImage.of(TestImage.SOI, TestImage.DQT, TestImage.SOF0, TestImage.DHT_DC,
+                TestImage.DHT_AC, TestImage.SOS, new int[] { 0x0F, 0xFF });
+        UnitTest.equal(header + 1, ByteStuffingValidator.firstViolation(image, header), "0xFF as the last byte");
+    }
+
+    private static void stopsAtEoi() {
+        int header = TestImage.headerLength(false);
+        ByteBuffer image = TestImage.of(TestImage.SOI, TestImage.DQT, TestImage.SOF0, TestImage.DHT_DC,
+                TestImage.DHT_AC, TestImage.SOS, TestImage.SCAN, TestImage.EOI, new int[] { 0xFF, 0x12 });
+        UnitTest.equal(-1, ByteStuffingValidator.firstViolation(image, header), "data after EOI is not checked");
+    }
+
+    private static void vectorMatchesScalar() {
+        Random random = new Random(2435);
+        int wrong = 0;
+        for (int i = 0; i < 5000; i++) {
+            byte[] data = new byte[1 + random.nextInt(48)];
+            for (int j = 0; j < data.length; j++) {
+                int r = random.nextInt(8);
+                data[j] = (byte)(r == 0 ? 0xFF : r == 1 ? 0x00 : r == 2 ? 0xD0 + random.nextInt(10) : random.nextInt(256));
+            }
+            int expected = ByteStuffingValidator.firstViolationScalar(data, 0, data.length);
+            if (ByteStuffingValidator.firstViolation(data, 0, data.length) != expected
+                    || ByteStuffingValidator.firstViolation(ByteBuffer.wrap(data), 0, data.length) != expected
+                    || ByteStuffingValidator.firstViolationScalar(ByteBuffer.wrap(data), 0, data.length) != expected) {
+                wrong++;
+            }
+        }
+        UnitTest.equal(0, wrong, "search differs from the scalar search");
+    }
+}
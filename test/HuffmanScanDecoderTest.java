@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * Tests of HuffmanScanDecoder with hand-built images (see TestImage),
+ * whose two MCUs are coded as the bits 00 each.
+ */
+public class HuffmanScanDecoderTest {
+
+    public static void main(String[] args) {
+        decodesValidScan();
+        decodesRestartIntervals();
+        detectsRemovedData();
+        detectsExtraData();
+        detectsMissingPadding();
+        detectsUnexpectedMarker();
+        detectsWrongRestartMarker();
+        rejectsSosBeforeSof();
+        UnitTest.finish("HuffmanScanDecoderTest");
+    }
+
+    private static void decodesValidScan() {
+        UnitTest.equal(null, HuffmanScanDecoder.verify(TestImage.image()), "valid scan");
+        UnitTest.equal(null, HuffmanScanDecoder.verify(TestImage.withScan(0x0F, 0xFF, 0xFF)),
+                "fill bytes at the end of the scan");
+        ByteBuffer shifted = TestImage.after(new int[] { 0xAA }, TestImage.image());
+        UnitTest.equal(null, HuffmanScanDecoder.verify(shifted), "image starting at the buffer position");
+    }
+
+    private static void decodesRestartIntervals() {
+        UnitTest.equal(null, HuffmanScanDecoder.verify(TestImage.withRestarts(TestImage.RESTART_SCAN)),
+                "two restart intervals");
+    }
+
+    private static void detectsRemovedData() {
+        UnitTest.contains("entropy-coded data ends in MCU 1 of 2",
+                HuffmanScanDecoder.verify(TestImage.withScan()), "scan without data");
+        UnitTest.contains("ends in MCU 2 of 2",
+                HuffmanScanDecoder.verify(TestImage.withRestarts(0x3F, 0xFF, 0xD0)), "interval without data");
+    }
+
+    private static void detectsExtraData() {
+        UnitTest.contains("2 bytes of entropy-coded data after MCU 2 of 2",
+                HuffmanScanDecoder.verify(TestImage.withScan(0x0F, 0x12, 0x34)), "bytes after the last MCU");
+    }
+
+    private static void detectsMissingPadding() {
+        UnitTest.contains("not padded with 1-bits",
+                HuffmanScanDecoder.verify(TestImage.withScan(0x0E)), "padding with a 0-bit");
+        UnitTest.contains("not padded with 1-bits",
+                HuffmanScanDecoder.verify(TestImage.withRestarts(0x3F, 0xFF, 0xD0, 0x1F)), "padding of an interval");
+    }
+
+    private static void detectsUnexpectedMarker() {
+        UnitTest.contains("unexpected marker 0xffc4",
+                HuffmanScanDecoder.verify(TestImage.withScan(0xFF, 0xC4, 0x0F)), "marker in the scan");
+    }
+
+    private static void detectsWrongRestartMarker() {
+        UnitTest.contains("RST1 instead of RST0",
+                HuffmanScanDecoder.verify(TestImage.withRestarts(0x3F, 0xFF, 0xD1, 0x3F)), "RST1 first");
+    }
+
+    private static void rejectsSosBeforeSof() {
+        ByteBuffer image = TestImage.of(TestImage.SOI, TestImage.DQT, TestImage.DHT_DC, TestImage.DHT_AC,
+                TestImage.SOS, TestImage.SCAN, TestImage.SOF0, TestImage.EOI);
+        UnitTest.equal("no SOF segment before the scan", HuffmanScanDecoder.verify(image), "SOS before SOF");
+    }
+}
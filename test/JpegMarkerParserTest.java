@@ -0,0 +1,78 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * Tests of JpegMarkerParser with hand-built images (see TestImage).
+ */
+public class JpegMarkerParserTest {
+
+    public static void main(String[] args) {
+        parsesHeader();
+        parsesRestartInterval();
+        skipsFillBytes();
+        rejectsSosBeforeSof();
+        rejectsMissingSoi();
+        rejectsTruncatedSegment();
+        rejectsMissingSos();
+        UnitTest.finish("JpegMarkerParserTest");
+    }
+
+    private static void parsesHeader() {
+        JpegRtpMetadata jrm = new JpegRtpMetadata();
+        ByteBuffer image = TestImage.image();
+        UnitTest.check(JpegMarkerParser.parse(image, jrm), "valid image is parsed");
+        UnitTest.equal(16, jrm.width, "width");
+        UnitTest.equal(8, jrm.height, "height");
+        UnitTest.equal(1, jrm.numFrameComponents, "number of components");
+        UnitTest.check(jrm.baseline && jrm.huffman, "baseline Huffman image");
+        UnitTest.equal(1, jrm.numSOS, "number of scans");
+        UnitTest.equal(1, jrm.numDQT, "number of quantization tables");
+        UnitTest.equal(2, jrm.numDHT, "number of Huffman tables");
+        UnitTest.equal(2, jrm.mcus, "number of MCUs");
+        UnitTest.equal(0, jrm.restartInterval, "no restart interval");
+        UnitTest.equal(TestImage.headerLength(false), jrm.headerLength, "header length");
+        UnitTest.equal(TestImage.headerLength(false), JpegMarkerParser.headerLength(image), "headerLength()");
+        UnitTest.equal(0, image.position(), "buffer position unchanged");
+    }
+
+    private static void parsesRestartInterval() {
+        JpegRtpMetadata jrm = new JpegRtpMetadata();
+        UnitTest.check(JpegMarkerParser.parse(TestImage.withRestarts(TestImage.RESTART_SCAN), jrm),
+                "image with DRI segment is parsed");
+        UnitTest.equal(1, jrm.restartInterval, "restart interval");
+        UnitTest.equal(TestImage.headerLength(true), jrm.headerLength, "header length with DRI segment");
+    }
+
+    private static void skipsFillBytes() {
+        JpegRtpMetadata jrm = new JpegRtpMetadata();
+        ByteBuffer image = TestImage.of(TestImage.SOI, new int[] { 0xFF, 0xFF }, TestImage.DQT, TestImage.SOF0,
+                TestImage.DHT_DC, TestImage.DHT_AC, TestImage.SOS, TestImage.SCAN, TestImage.EOI);
+        UnitTest.check(JpegMarkerParser.parse(image, jrm), "fill bytes before a marker are skipped");
+        UnitTest.equal(TestImage.headerLength(false) + 2, jrm.headerLength, "header length with fill bytes");
+    }
+
+    private static void rejectsSosBeforeSof() {
+        ByteBuffer image = TestImage.of(TestImage.SOI, TestImage.DQT, TestImage.DHT_DC, TestImage.DHT_AC,
+                TestImage.SOS, TestImage.SCAN, TestImage.SOF0, TestImage.EOI);
+        UnitTest.check(!JpegMarkerParser.parse(image, new JpegRtpMetadata()), "SOS before SOF is rejected");
+    }
+
+    private static void rejectsMissingSoi() {
+        ByteBuffer image = TestImage.of(TestImage.DQT, TestImage.SOF0, TestImage.DHT_DC, TestImage.DHT_AC,
+                TestImage.SOS, TestImage.SCAN, TestImage.EOI);
+        UnitTest.check(!JpegMarkerParser.parse(image, new JpegRtpMetadata()), "image without SOI is rejected");
+        UnitTest.equal(-1, JpegMarkerParser.headerLength(image), "headerLength() without SOI");
+    }
+
+    private static void rejectsTruncatedSegment() {
+        ByteBuffer image = TestImage.image();
+        image.limit(TestImage.SOI.length + TestImage.DQT.length / 2);
+        UnitTest.check(!JpegMarkerParser.parse(image, new JpegRtpMetadata()), "truncated DQT segment is rejected");
+    }
+
+    private static void rejectsMissingSos() {
+        ByteBuffer image = TestImage.of(TestImage.SOI, TestImage.DQT, TestImage.SOF0, TestImage.DHT_DC,
+                TestImage.DHT_AC, TestImage.EOI);
+        UnitTest.check(!JpegMarkerParser.parse(image, new JpegRtpMetadata()), "image without SOS is rejected");
+    }
+}
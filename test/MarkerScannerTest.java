@@ -0,0 +1,114 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+
+/**
+ * Tests of MarkerScanner. markerBytes may report false positives, but
+ * must never miss a 0xFF byte, and the search must find the same markers
+ * as the scalar search.
+ */
+public class MarkerScannerTest {
+    private static final Random random = new Random(2435);
+
+    public static void main(String[] args) {
+        markerBytesFindsEveryFfByte();
+        markerBytesLowestBitIsFirstFfByte();
+        findMatchesScalarSearch();
+        findRestart();
+        UnitTest.finish("MarkerScannerTest");
+    }
+
+    /**
+     * Every byte value at every position of a word, surrounded by random
+     * bytes and by the bytes most likely to cause a borrow.
+     */
+    private static void markerBytesFindsEveryFfByte() {
+        int missed = 0;
+        int wrong = 0;
+        long[] fills = { 0, -1L, 0xFEFEFEFEFEFEFEFEL, 0x0101010101010101L, random.nextLong(), random.nextLong() };
+        for (long fill : fills) {
+            for (int pos = 0; pos < 8; pos++) {
+                for (int value = 0; value < 256; value++) {
+                    long word = fill & ~(0xFFL << (8 * pos)) | (long)value << (8 * pos);
+                    long candidates = MarkerScanner.markerBytes(word);
+                    if (value == 0xFF && (candidates & 0x80L << (8 * pos)) == 0) {
+                        missed++;
+                    }
+                    if (candidates != 0 && firstFf(word) == -1) {
+                        wrong++; // a candidate in a word without 0xFF byte
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < 100000; i++) {
+            long word = random.nextLong();
+            for (int pos = 0; pos < 8; pos++) {
+                if (random.nextInt(4) == 0) {
+                    word |= 0xFFL << (8 * pos);
+                }
+            }
+            long candidates = MarkerScanner.markerBytes(word);
+            for (int pos = 0; pos < 8; pos++) {
+                if ((word >>> (8 * pos) & 0xFF) == 0xFF && (candidates & 0x80L << (8 * pos)) == 0) {
+                    missed++;
+                }
+            }
+        }
+        UnitTest.equal(0, missed, "0xFF bytes missed by markerBytes");
+        UnitTest.equal(0, wrong, "candidates in words without 0xFF byte");
+    }
+
+    private static void markerBytesLowestBitIsFirstFfByte() {
+        int wrong = 0;
+        for (int i = 0; i < 100000; i++) {
+            long word = random.nextLong() | 0xFFL << (8 * random.nextInt(8));
+            long candidates = MarkerScanner.markerBytes(word);
+            if (Long.numberOfTrailingZeros(candidates) >>> 3 != firstFf(word)) {
+                wrong++;
+            }
+        }
+        UnitTest.equal(0, wrong, "lowest candidate is not the first 0xFF byte");
+    }
+
+    private static void findMatchesScalarSearch() {
+        int wrong = 0;
+        for (int i = 0; i < 2000; i++) {
+            byte[] data = new byte[1 + random.nextInt(64)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte)(random.nextInt(3) == 0 ? 0xFF : random.nextInt(256));
+            }
+            byte marker = (byte)(0xD0 + random.nextInt(10));
+            int from = random.nextInt(data.length);
+            int expected = MarkerScanner.findScalar(data, from, data.length, marker);
+            if (MarkerScanner.find(data, from, data.length, marker) != expected
+                    || MarkerScanner.find(ByteBuffer.wrap(data), from, data.length, marker) != expected
+                    || MarkerScanner.findScalar(ByteBuffer.wrap(data), from, data.length, marker) != expected) {
+                wrong++;
+            }
+        }
+        UnitTest.equal(0, wrong, "find differs from findScalar");
+
+        byte[] data = new byte[32];
+        data[30] = (byte)0xFF;
+        data[31] = (byte)0xD9;
+        UnitTest.equal(30, MarkerScanner.find(data, 0, data.length, (byte)0xD9), "marker in the last two bytes");
+        UnitTest.equal(-1, MarkerScanner.find(data, 0, data.length - 1, (byte)0xD9), "marker beyond the end");
+    }
+
+    private static void findRestart() {
+        ByteBuffer image = TestImage.withRestarts(TestImage.RESTART_SCAN).order(ByteOrder.LITTLE_ENDIAN);
+        int scan = TestImage.headerLength(true);
+        UnitTest.equal(scan + 1, MarkerScanner.findRestart(image, scan, image.limit()), "RST0 found");
+        UnitTest.equal(-1, MarkerScanner.findRestart(image, scan + 2, image.limit()), "no further restart marker");
+    }
+
+    private static int firstFf(long word) {
+        for (int pos = 0; pos < 8; pos++) {
+            if ((word >>> (8 * pos) & 0xFF) == 0xFF) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
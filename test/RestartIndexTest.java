@@ -0,0 +1,83 @@
+import java.nio.ByteBuffer;
+
+
+/**
+ * Tests of RestartIndex with hand-built images (see TestImage), whose
+ * restart interval is one MCU.
+ */
+public class RestartIndexTest {
+
+    public static void main(String[] args) {
+        indexesIntervals();
+        acceptsMatchingMarkers();
+        detectsWrongMarker();
+        detectsMissingMarker();
+        detectsSurplusMarker();
+        detectsMarkerWithoutDri();
+        UnitTest.finish("RestartIndexTest");
+    }
+
+    private static void indexesIntervals() {
+        int header = TestImage.headerLength(true);
+        ByteBuffer image = TestImage.withRestarts(TestImage.RESTART_SCAN);
+        RestartIndex index = RestartIndex.scan(image, header);
+        UnitTest.equal(1, index.markers(), "markers");
+        UnitTest.equal(2, index.intervals(), "intervals");
+        UnitTest.equal(header, index.intervalStart(0), "start of interval 0");
+        UnitTest.equal(header + 1, index.intervalEnd(0), "end of interval 0");
+        UnitTest.equal(header + 3, index.intervalStart(1), "start of interval 1");
+        UnitTest.equal(header + 4, index.intervalEnd(1), "end of interval 1");
+        UnitTest.equal(header + 4, index.scanEnd(), "scan end at EOI");
+    }
+
+    /**
+     * 17 intervals, so the markers RST0 to RST7 follow each other twice
+     * and the index has to grow.
+     */
+    private static void acceptsMatchingMarkers() {
+        int[] scan = new int[17 * 3 - 2];
+        for (int k = 0; k < 17; k++) {
+            scan[3 * k] = 0x3F;
+            if (k < 16) {
+                scan[3 * k + 1] = 0xFF;
+                scan[3 * k + 2] = 0xD0 + (k & 7);
+            }
+        }
+        RestartIndex index = RestartIndex.scan(TestImage.withRestarts(scan), TestImage.headerLength(true));
+        UnitTest.equal(16, index.markers(), "markers of 17 intervals");
+        UnitTest.equal(null, index.check(1, 17), "RST0 to RST7 in turn");
+
+        JpegRtpMetadata jrm = new JpegRtpMetadata();
+        ByteBuffer image = TestImage.withRestarts(TestImage.RESTART_SCAN);
+        JpegMarkerParser.parse(image, jrm);
+        UnitTest.equal(null, RestartIndex.verify(image, jrm), "verify valid image");
+    }
+
+    private static void detectsWrongMarker() {
+        RestartIndex index = RestartIndex.scan(TestImage.withRestarts(0x3F, 0xFF, 0xD3, 0x3F),
+                TestImage.headerLength(true));
+        UnitTest.contains("restart marker RST3 instead of RST0 after interval 1", index.check(1, 2), "RST3 first");
+
+        int[] scan = { 0x3F, 0xFF, 0xD0, 0x3F, 0xFF, 0xD1, 0x3F, 0xFF, 0xD1, 0x3F };
+        index = RestartIndex.scan(TestImage.withRestarts(scan), TestImage.headerLength(true));
+        UnitTest.contains("RST1 instead of RST2 after interval 3", index.check(1, 4), "RST1 repeated");
+    }
+
+    private static void detectsMissingMarker() {
+        RestartIndex index = RestartIndex.scan(TestImage.withRestarts(0x0F), TestImage.headerLength(true));
+        UnitTest.contains("0 restart markers instead of 1", index.check(1, 2), "missing marker");
+    }
+
+    private static void detectsSurplusMarker() {
+        RestartIndex index = RestartIndex.scan(TestImage.withRestarts(0x3F, 0xFF, 0xD0, 0x3F, 0xFF, 0xD1, 0x3F),
+                TestImage.headerLength(true));
+        UnitTest.contains("2 restart markers instead of 1", index.check(1, 2), "surplus marker");
+    }
+
+    private static void detectsMarkerWithoutDri() {
+        int header = TestImage.headerLength(false);
+        RestartIndex index = RestartIndex.scan(TestImage.withScan(TestImage.RESTART_SCAN), header);
+        UnitTest.contains("restart marker without DRI segment at image offset " + (header + 1),
+                index.check(0, 2), "marker without DRI segment");
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Builds small baseline JPEG images byte by byte for the unit tests.
+ *
+ * The images are 16x8 pixels with one component, i.e. two MCUs of one
+ * block each. Both Huffman tables contain a single 1-bit code for the
+ * symbol 0, so every block is coded as the two bits 00 (DC difference 0,
+ * end of block) and the scan of the image fits into one byte. The
+ * segments are combined in any order with of(), so malformed images can
+ * be built as well.
+ */
+public class TestImage {
+    public static final int[] SOI = { 0xFF, 0xD8 };
+    public static final int[] EOI = { 0xFF, 0xD9 };
+    public static final int[] DQT = dqt();
+    public static final int[] SOF0 = { 0xFF, 0xC0, 0x00, 0x0B, 8, 0x00, 8, 0x00, 16, 1, 1, 0x11, 0 };
+    public static final int[] DHT_DC = dht(0x00);
+    public static final int[] DHT_AC = dht(0x10);
+    /** restart interval of one MCU */
+    public static final int[] DRI = { 0xFF, 0xDD, 0x00, 0x04, 0x00, 0x01 };
+    public static final int[] SOS = { 0xFF, 0xDA, 0x00, 0x08, 1, 1, 0x00, 0, 63, 0 };
+    /** two MCUs, 0000 padded with 1-bits */
+    public static final int[] SCAN = { 0x0F };
+    /** two restart intervals of one MCU, 00 padded with 1-bits, separated by RST0 */
+    public static final int[] RESTART_SCAN = { 0x3F, 0xFF, 0xD0, 0x3F };
+
+    private TestImage() {
+    }
+
+    /**
+     * @return a valid image without restart intervals
+     */
+    public static ByteBuffer image() {
+        return of(SOI, DQT, SOF0, DHT_DC, DHT_AC, SOS, SCAN, EOI);
+    }
+
+    /**
+     * @param scan entropy-coded data following the SOS segment
+     * @return image with the given scan, without restart intervals
+     */
+    public static ByteBuffer withScan(int... scan) {
+        return of(SOI, DQT, SOF0, DHT_DC, DHT_AC, SOS, scan, EOI);
+    }
+
+    /**
+     * @param scan entropy-coded data following the SOS segment
+     * @return image with the given scan and a restart interval of one MCU
+     */
+    public static ByteBuffer withRestarts(int... scan) {
+        return of(SOI, DQT, SOF0, DHT_DC, DHT_AC, DRI, SOS, scan, EOI);
+    }
+
+    /**
+     * @return offset of the scan in the images built by image(), withScan() and withRestarts()
+     */
+    public static int headerLength(boolean restarts) {
+        return SOI.length + DQT.length + SOF0.length + DHT_DC.length + DHT_AC.length
+                + (restarts ? DRI.length : 0) + SOS.length;
+    }
+
+    /**
+     * Concatenate segments and data into an image.
+     *
+     * @param parts bytes of the segments, one value from 0 to 255 per byte
+     * @return image, position 0 and limit at its end
+     */
+    public static ByteBuffer of(int[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int[] part : parts) {
+            for (int b : part) {
+                out.write(b);
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Copy an image behind other bytes.
+     *
+     * @param prefix bytes preceding the image
+     * @param image image from position 0 to limit
+     * @return buffer with the prefix and the image, positioned at the image
+     */
+    public static ByteBuffer after(int[] prefix, ByteBuffer image) {
+        ByteBuffer buf = ByteBuffer.allocate(prefix.length + image.limit());
+        for (int b : prefix) {
+            buf.put((byte)b);
+        }
+        buf.put(image.duplicate());
+        buf.position(prefix.length);
+        return buf;
+    }
+
+    private static int[] dqt() {
+        int[] segment = new int[4 + 1 + 64];
+        segment[0] = 0xFF;
+        segment[1] = 0xDB;
+        segment[3] = segment.length - 2;
+        for (int i = 5; i < segment.length; i++) {
+            segment[i] = 1;
+        }
+        return segment;
+    }
+
+    private static int[] dht(int tableClassAndId) {
+        int[] segment = new int[4 + 1 + 16 + 1];
+        segment[0] = 0xFF;
+        segment[1] = 0xC4;
+        segment[3] = segment.length - 2;
+        segment[4] = tableClassAndId;
+        segment[5] = 1; // one code of length 1 for the symbol 0
+        return segment;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Minimal assertion helpers for the unit tests of this directory.
+ *
+ * Every test class has a main method calling its test methods and finish,
+ * which prints the number of failed checks and exits with 1 if there were
+ * any, so make test stops at the first failing class.
+ */
+public class UnitTest {
+    private static int checks = 0;
+    private static int failed = 0;
+
+    private UnitTest() {
+    }
+
+    /**
+     * Check a condition.
+     *
+     * @param passed condition that must hold
+     * @param test description of the check, printed if it fails
+     */
+    public static void check(boolean passed, String test) {
+        checks++;
+        if (!passed) {
+            failed++;
+            System.out.println("FAILED: " + test);
+        }
+    }
+
+    /**
+     * Check that a value equals the expected value.
+     *
+     * @param expected expected value
+     * @param actual actual value
+     * @param test description of the check, printed if it fails
+     */
+    public static void equal(Object expected, Object actual, String test) {
+        check(expected == null ? actual == null : expected.equals(actual),
+                test + ": expected " + expected + ", got " + actual);
+    }
+
+    /**
+     * Check that a description of an error contains a text.
+     *
+     * @param text expected part of the description
+     * @param error description, null if there was no error
+     * @param test description of the check, printed if it fails
+     */
+    public static void contains(String text, String error, String test) {
+        check(error != null && error.contains(text), test + ": expected \"" + text + "\", got " + error);
+    }
+
+    /**
+     * Print the result of the checks and exit with 1 if a check failed.
+     *
+     * @param name name of the test class
+     */
+    public static void finish(String name) {
+        System.out.println(name + ": " + (checks - failed) + " of " + checks + " checks passed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}